@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.ui.utils;
+
+import android.content.Context;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.annotation.UiThreadTest;
+import android.support.test.rule.UiThreadTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import ro.expectations.expenses.R;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class ListUtilsTest {
+
+    private static final String TAG = ListUtilsTest.class.getSimpleName();
+
+    private static final int BINDS = 10000;
+
+    @Rule
+    public final UiThreadTestRule mUiThreadTestRule = new UiThreadTestRule();
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = new ContextThemeWrapper(InstrumentationRegistry.getTargetContext(), R.style.AppTheme);
+    }
+
+    @Test
+    @UiThreadTest
+    public void resolvesEveryThemeOnce() {
+        int[] backgrounds = ListUtils.getItemBackgrounds(mContext.getTheme());
+        assertSame(backgrounds, ListUtils.getItemBackgrounds(mContext.getTheme()));
+        assertTrue(backgrounds[0] != 0);
+        assertTrue(backgrounds[1] != 0);
+
+        Context other = new ContextThemeWrapper(InstrumentationRegistry.getTargetContext(), R.style.AppTheme);
+        int[] otherBackgrounds = ListUtils.getItemBackgrounds(other.getTheme());
+        assertNotSame(backgrounds, otherBackgrounds);
+        assertEquals(backgrounds[0], otherBackgrounds[0]);
+        assertEquals(backgrounds[1], otherBackgrounds[1]);
+    }
+
+    @Test
+    @UiThreadTest
+    public void bindingKeepsTheBackgroundOfTheTheme() {
+        View itemView = new View(mContext);
+        int[] backgrounds = ListUtils.getItemBackgrounds(mContext.getTheme());
+
+        ListUtils.setItemBackground(mContext, itemView, true);
+        assertTrue(itemView.isActivated());
+        ListUtils.setItemBackground(mContext, itemView, false);
+        assertFalse(itemView.isActivated());
+        assertSame(backgrounds, ListUtils.getItemBackgrounds(mContext.getTheme()));
+    }
+
+    /**
+     * Allocation benchmark: rebinding rows whose selection did not change must not allocate, where
+     * resolving the theme attributes on every bind allocated at least once per bind.
+     * The counts are logged, as they depend on the device and the runtime.
+     */
+    @Test
+    @UiThreadTest
+    @SuppressWarnings("deprecation")
+    public void rebindingDoesNotAllocate() {
+        View itemView = new View(mContext);
+        // load the drawable and resolve the theme before measuring
+        ListUtils.setItemBackground(mContext, itemView, false);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long startedAt = System.nanoTime();
+        for (int i = 0; i < BINDS; i++) {
+            ListUtils.setItemBackground(mContext, itemView, false);
+        }
+        long elapsed = System.nanoTime() - startedAt;
+        Debug.stopAllocCounting();
+        int allocations = Debug.getThreadAllocCount();
+
+        Log.i(TAG, BINDS + " binds allocated " + allocations + " objects in " + (elapsed / 1000) + "us");
+        assertTrue("Allocated " + allocations + " objects in " + BINDS + " binds", allocations < BINDS);
+    }
+}
@@ -20,6 +20,8 @@
 package ro.expectations.expenses.app;
 
 import io.realm.Realm;
+import io.realm.RealmConfiguration;
+import ro.expectations.expenses.data.DatabaseMigration;
 
 public class Application extends android.app.Application {
 
@@ -28,5 +30,10 @@ public class Application extends android.app.Application {
         super.onCreate();
 
         Realm.init(this);
+        RealmConfiguration config = new RealmConfiguration.Builder()
+                .schemaVersion(DatabaseMigration.SCHEMA_VERSION)
+                .migration(new DatabaseMigration())
+                .build();
+        Realm.setDefaultConfiguration(config);
     }
 }
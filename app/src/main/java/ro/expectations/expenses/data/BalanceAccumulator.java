@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ro.expectations.expenses.data;
+
+import java.util.Arrays;
+
+/**
+ * The balance and the date of the last transaction of every account, accumulated by
+ * {@link BalanceEngine#rebalanceAll()} while it walks all the transactions once in ledger order.
+ *
+ * The accounts are kept in parallel arrays sorted by their id, like a SparseLongArray: there are
+ * few accounts, so the binary search is cheap and the pass allocates nothing per transaction.
+ *
+ * This class has no Android or Realm dependencies, so it can be exercised on the host JVM.
+ */
+class BalanceAccumulator {
+
+    private int[] mAccountIds = new int[16];
+    private long[] mBalances = new long[16];
+    private long[] mLastTransactionAt = new long[16];
+    private int mSize;
+
+    /**
+     * Add a signed amount to the balance of an account.
+     *
+     * @return The balance of the account after the amount
+     */
+    long add(int accountId, long amount, long occurredAt) {
+        int index = Arrays.binarySearch(mAccountIds, 0, mSize, accountId);
+        if (index < 0) {
+            index = insert(~index, accountId);
+        }
+        mBalances[index] += amount;
+        mLastTransactionAt[index] = occurredAt;
+        return mBalances[index];
+    }
+
+    /**
+     * @return The index of the account, or a negative value if it had no transactions
+     */
+    int indexOf(int accountId) {
+        return Arrays.binarySearch(mAccountIds, 0, mSize, accountId);
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    int accountIdAt(int index) {
+        return mAccountIds[index];
+    }
+
+    long balanceAt(int index) {
+        return mBalances[index];
+    }
+
+    long lastTransactionAt(int index) {
+        return mLastTransactionAt[index];
+    }
+
+    private int insert(int index, int accountId) {
+        if (mSize == mAccountIds.length) {
+            mAccountIds = Arrays.copyOf(mAccountIds, mSize * 2);
+            mBalances = Arrays.copyOf(mBalances, mSize * 2);
+            mLastTransactionAt = Arrays.copyOf(mLastTransactionAt, mSize * 2);
+        }
+        System.arraycopy(mAccountIds, index, mAccountIds, index + 1, mSize - index);
+        System.arraycopy(mBalances, index, mBalances, index + 1, mSize - index);
+        System.arraycopy(mLastTransactionAt, index, mLastTransactionAt, index + 1, mSize - index);
+        mAccountIds[index] = accountId;
+        mBalances[index] = 0;
+        mLastTransactionAt[index] = 0;
+        mSize++;
+        return index;
+    }
+}
@@ -0,0 +1,486 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.Collection;
+import java.util.Date;
+
+import io.realm.Realm;
+import io.realm.RealmQuery;
+import io.realm.RealmResults;
+import io.realm.Sort;
+import ro.expectations.expenses.model.Account;
+import ro.expectations.expenses.model.LedgerEntry;
+import ro.expectations.expenses.model.Transaction;
+
+/**
+ * Keeps the running balances of the transactions, the balance and the date of the last
+ * transaction of the accounts in sync when transactions change.
+ *
+ * The transactions of an account are ordered by their date and then by their id. A change only
+ * affects the transactions that come after it, so the running balances are patched starting from
+ * the changed position, seeded with the running balance of the transaction just before it.
+ *
+ * The same walk maintains the {@link LedgerEntry} rows, which hold the signed amount and the
+ * running balance of every transaction per account, and patches the balance history of the
+ * account through the {@link BalanceHistoryWriter}.
+ *
+ * All the methods that write must be called from inside a Realm write transaction.
+ */
+public class BalanceEngine {
+
+    private static final String TAG = BalanceEngine.class.getSimpleName();
+
+    private static final String[] ORDER_FIELDS = {Transaction.OCCURRED_AT, Transaction.ID};
+    private static final Sort[] ASCENDING = {Sort.ASCENDING, Sort.ASCENDING};
+
+    private final Realm mRealm;
+    private final BalanceHistoryWriter mHistoryWriter;
+
+    public BalanceEngine(Realm realm) {
+        mRealm = realm;
+        mHistoryWriter = new BalanceHistoryWriter(realm);
+    }
+
+    /**
+     * Where a transaction sits in the ledgers of its accounts.
+     *
+     * Capture it before a transaction is changed or deleted, since Realm objects reflect the
+     * new values as soon as they are modified.
+     */
+    public static final class Position {
+
+        private final int mId;
+        private final int mFromAccountId;
+        private final int mToAccountId;
+        private final Date mOccurredAt;
+
+        private Position(Transaction transaction) {
+            mId = transaction.getId();
+            mFromAccountId = transaction.getFromAccountId();
+            mToAccountId = transaction.getToAccountId();
+            mOccurredAt = transaction.getOccurredAt() != null ? transaction.getOccurredAt() : new Date(0);
+        }
+
+        private boolean hasFromSide() {
+            return mFromAccountId > 0;
+        }
+
+        private boolean hasToSide() {
+            return mToAccountId > 0 && mToAccountId != mFromAccountId;
+        }
+
+        private boolean involves(int accountId) {
+            return accountId > 0 && (mFromAccountId == accountId || mToAccountId == accountId);
+        }
+
+        private boolean isBefore(Position other) {
+            int compare = mOccurredAt.compareTo(other.mOccurredAt);
+            return compare < 0 || (compare == 0 && mId < other.mId);
+        }
+    }
+
+    public Position capture(Transaction transaction) {
+        return new Position(transaction);
+    }
+
+    /**
+     * Patch the balances after a transaction was created.
+     */
+    public void onInserted(Transaction transaction) {
+        Position position = capture(transaction);
+        update(position, position);
+    }
+
+    /**
+     * Patch the balances after a transaction was changed.
+     *
+     * @param before The position of the transaction, captured before it was changed
+     * @param transaction The changed transaction
+     */
+    public void onUpdated(Position before, Transaction transaction) {
+        Position after = capture(transaction);
+        if (!after.hasFromSide()) {
+            deleteEntry(after.mId, LedgerEntry.SIDE_FROM);
+        }
+        if (!after.hasToSide()) {
+            deleteEntry(after.mId, LedgerEntry.SIDE_TO);
+        }
+        update(before, after);
+    }
+
+    /**
+     * Patch the balances after a transaction was deleted.
+     *
+     * @param before The position of the transaction, captured before it was deleted
+     */
+    public void onDeleted(Position before) {
+        deleteEntry(before.mId, LedgerEntry.SIDE_FROM);
+        deleteEntry(before.mId, LedgerEntry.SIDE_TO);
+        update(before, before);
+    }
+
+    /**
+     * Patch the balances after many transactions were deleted at once. Every affected account is
+     * walked only once, starting from the earliest of its deleted transactions.
+     *
+     * @param before The positions of the transactions, captured before they were deleted
+     */
+    public void onDeleted(Collection<Position> before) {
+        SparseArray<Position> starts = new SparseArray<>();
+        for (Position position : before) {
+            deleteEntry(position.mId, LedgerEntry.SIDE_FROM);
+            deleteEntry(position.mId, LedgerEntry.SIDE_TO);
+            if (position.hasFromSide()) {
+                keepEarliest(starts, position.mFromAccountId, position);
+            }
+            if (position.hasToSide()) {
+                keepEarliest(starts, position.mToAccountId, position);
+            }
+        }
+        for (int i = 0; i < starts.size(); i++) {
+            rebalance(starts.keyAt(i), starts.valueAt(i));
+        }
+    }
+
+    /**
+     * Recompute all the running balances of an account.
+     */
+    public void rebalance(int accountId) {
+        Account account = findAccount(accountId);
+        if (account != null) {
+            walk(account, null, whereAccount(accountId).findAllSorted(ORDER_FIELDS, ASCENDING), true);
+            mHistoryWriter.rebuild(accountId);
+        }
+    }
+
+    /**
+     * Check the stored balances of an account against a full recompute, without changing them.
+     *
+     * @return true if the stored balances are consistent, false otherwise
+     */
+    public boolean verify(int accountId) {
+        Account account = findAccount(accountId);
+        return account == null
+                || walk(account, null, whereAccount(accountId).findAllSorted(ORDER_FIELDS, ASCENDING), false);
+    }
+
+    /**
+     * Recompute the balances of all the accounts in a single pass over all the transactions,
+     * instead of querying the transactions of every account separately.
+     *
+     * @return The number of transactions that were visited
+     */
+    public int rebalanceAll() {
+        return scanAll(true);
+    }
+
+    /**
+     * Check the stored balances of all the accounts against a full recompute done in a single
+     * pass, without changing them.
+     *
+     * @return true if the stored balances are consistent, false otherwise
+     */
+    public boolean verifyAll() {
+        return scanAll(false) >= 0;
+    }
+
+    /**
+     * Walk all the transactions in ledger order once, keeping a balance per account.
+     *
+     * @return The number of transactions visited, or -1 when verifying found inconsistencies
+     */
+    private int scanAll(boolean write) {
+        BalanceAccumulator balances = new BalanceAccumulator();
+        boolean consistent = true;
+
+        if (write) {
+            // the ledger is rebuilt from scratch, which is cheaper than looking up every entry
+            mRealm.delete(LedgerEntry.class);
+        }
+
+        RealmResults<Transaction> transactions = mRealm.where(Transaction.class)
+                .findAllSorted(ORDER_FIELDS, ASCENDING);
+        for (Transaction transaction : transactions) {
+            long occurredAt = transaction.getOccurredAt() != null ? transaction.getOccurredAt().getTime() : 0;
+
+            // the links are the source of truth for the indexed account ids
+            Account fromAccount = transaction.getFromAccount();
+            Account toAccount = transaction.getToAccount();
+            int fromAccountId = fromAccount != null ? fromAccount.getId() : 0;
+            int toAccountId = toAccount != null ? toAccount.getId() : 0;
+            if (transaction.getFromAccountId() != fromAccountId || transaction.getToAccountId() != toAccountId) {
+                if (write) {
+                    transaction.setFromAccount(fromAccount);
+                    transaction.setToAccount(toAccount);
+                } else {
+                    consistent = false;
+                }
+            }
+
+            // a transfer updates both of its accounts in the same visit
+            if (fromAccountId > 0) {
+                long balance = balances.add(fromAccountId, -transaction.getFromAmount(), occurredAt);
+                if (write) {
+                    transaction.setFromRunningBalance(balance);
+                    writeEntry(mRealm.createObject(LedgerEntry.class, LedgerEntry.idFor(transaction.getId(), LedgerEntry.SIDE_FROM)),
+                            transaction, fromAccountId, -transaction.getFromAmount(), balance, true);
+                } else if (transaction.getFromRunningBalance() != balance
+                        || !isEntryConsistent(transaction, LedgerEntry.SIDE_FROM, fromAccountId, balance)) {
+                    consistent = false;
+                }
+            }
+
+            if (toAccountId > 0 && toAccountId != fromAccountId) {
+                long balance = balances.add(toAccountId, transaction.getToAmount(), occurredAt);
+                if (write) {
+                    transaction.setToRunningBalance(balance);
+                    writeEntry(mRealm.createObject(LedgerEntry.class, LedgerEntry.idFor(transaction.getId(), LedgerEntry.SIDE_TO)),
+                            transaction, toAccountId, transaction.getToAmount(), balance, fromAccountId <= 0);
+                } else if (transaction.getToRunningBalance() != balance
+                        || !isEntryConsistent(transaction, LedgerEntry.SIDE_TO, toAccountId, balance)) {
+                    consistent = false;
+                }
+            }
+        }
+
+        for (Account account : mRealm.where(Account.class).findAll()) {
+            int index = balances.indexOf(account.getId());
+            long balance = index >= 0 ? balances.balanceAt(index) : 0;
+            if (write) {
+                account.setBalance(balance);
+                account.setLastTransactionAt(index >= 0 ? new Date(balances.lastTransactionAt(index)) : null);
+            } else if (account.getBalance() != balance) {
+                Log.w(TAG, "Stored balance of account " + account.getId() + " is inconsistent");
+                consistent = false;
+            }
+        }
+
+        if (!consistent) {
+            Log.w(TAG, "Stored running balances are inconsistent");
+            return -1;
+        }
+        return transactions.size();
+    }
+
+    private void update(Position before, Position after) {
+        int[] accountIds = {
+                before.mFromAccountId, before.mToAccountId, after.mFromAccountId, after.mToAccountId
+        };
+        for (int i = 0; i < accountIds.length; i++) {
+            int accountId = accountIds[i];
+            if (accountId <= 0 || indexOf(accountIds, accountId) < i) {
+                continue;
+            }
+
+            // start from the earliest position this account was affected at
+            Position start;
+            if (before.involves(accountId) && after.involves(accountId)) {
+                start = after.isBefore(before) ? after : before;
+            } else {
+                start = before.involves(accountId) ? before : after;
+            }
+            rebalance(accountId, start);
+        }
+    }
+
+    private static void keepEarliest(SparseArray<Position> starts, int accountId, Position position) {
+        Position start = starts.get(accountId);
+        if (start == null || position.isBefore(start)) {
+            starts.put(accountId, position);
+        }
+    }
+
+    private void rebalance(int accountId, Position start) {
+        Account account = findAccount(accountId);
+        if (account == null) {
+            return;
+        }
+
+        Transaction predecessor = findPredecessor(accountId, start);
+
+        RealmResults<Transaction> successors = whereAccount(accountId)
+                .beginGroup()
+                    .greaterThan(Transaction.OCCURRED_AT, start.mOccurredAt)
+                    .or()
+                    .beginGroup()
+                        .equalTo(Transaction.OCCURRED_AT, start.mOccurredAt)
+                        .greaterThanOrEqualTo(Transaction.ID, start.mId)
+                    .endGroup()
+                .endGroup()
+                .findAllSorted(ORDER_FIELDS, ASCENDING);
+
+        walk(account, predecessor, successors, true);
+        mHistoryWriter.update(accountId, start.mOccurredAt);
+    }
+
+    /**
+     * Find the last transaction of an account before a position without sorting all of them:
+     * the latest date before the position is an aggregate, and only the transactions on that
+     * date have to be compared by id.
+     */
+    private Transaction findPredecessor(int accountId, Position start) {
+        Date occurredAt = whereAccount(accountId)
+                .lessThanOrEqualTo(Transaction.OCCURRED_AT, start.mOccurredAt)
+                .maximumDate(Transaction.OCCURRED_AT);
+        if (occurredAt == null) {
+            return null;
+        }
+
+        RealmQuery<Transaction> sameDate = whereAccount(accountId)
+                .equalTo(Transaction.OCCURRED_AT, occurredAt);
+        if (occurredAt.equals(start.mOccurredAt)) {
+            sameDate.lessThan(Transaction.ID, start.mId);
+        }
+        Number id = sameDate.max(Transaction.ID);
+        if (id == null) {
+            // only the position itself, or later ids, on its date
+            occurredAt = whereAccount(accountId)
+                    .lessThan(Transaction.OCCURRED_AT, start.mOccurredAt)
+                    .maximumDate(Transaction.OCCURRED_AT);
+            if (occurredAt == null) {
+                return null;
+            }
+            id = whereAccount(accountId)
+                    .equalTo(Transaction.OCCURRED_AT, occurredAt)
+                    .max(Transaction.ID);
+        }
+        return mRealm.where(Transaction.class).equalTo(Transaction.ID, id.intValue()).findFirst();
+    }
+
+    /**
+     * Accumulate the balance of an account over its transactions, starting after the
+     * predecessor, and either store the results or compare them with the stored ones.
+     */
+    private boolean walk(Account account, Transaction predecessor, RealmResults<Transaction> transactions, boolean write) {
+        int accountId = account.getId();
+        long balance = predecessor != null ? getRunningBalance(predecessor, accountId) : 0;
+        Date lastTransactionAt = predecessor != null ? predecessor.getOccurredAt() : null;
+        boolean consistent = true;
+
+        for (Transaction transaction : transactions) {
+            if (transaction.getFromAccountId() == accountId) {
+                balance -= transaction.getFromAmount();
+                if (write) {
+                    transaction.setFromRunningBalance(balance);
+                    writeEntry(findOrCreateEntry(transaction.getId(), LedgerEntry.SIDE_FROM),
+                            transaction, accountId, -transaction.getFromAmount(), balance, true);
+                } else if (transaction.getFromRunningBalance() != balance
+                        || !isEntryConsistent(transaction, LedgerEntry.SIDE_FROM, accountId, balance)) {
+                    consistent = false;
+                }
+            } else {
+                balance += transaction.getToAmount();
+                if (write) {
+                    transaction.setToRunningBalance(balance);
+                    writeEntry(findOrCreateEntry(transaction.getId(), LedgerEntry.SIDE_TO),
+                            transaction, accountId, transaction.getToAmount(), balance,
+                            transaction.getFromAccountId() <= 0);
+                } else if (transaction.getToRunningBalance() != balance
+                        || !isEntryConsistent(transaction, LedgerEntry.SIDE_TO, accountId, balance)) {
+                    consistent = false;
+                }
+            }
+            lastTransactionAt = transaction.getOccurredAt();
+        }
+
+        if (write) {
+            account.setBalance(balance);
+            account.setLastTransactionAt(lastTransactionAt);
+        } else if (account.getBalance() != balance) {
+            consistent = false;
+        }
+
+        if (!consistent) {
+            Log.w(TAG, "Stored balances of account " + accountId + " are inconsistent");
+        }
+        return consistent;
+    }
+
+    private LedgerEntry findEntry(int transactionId, int side) {
+        return mRealm.where(LedgerEntry.class)
+                .equalTo(LedgerEntry.ID, LedgerEntry.idFor(transactionId, side))
+                .findFirst();
+    }
+
+    private LedgerEntry findOrCreateEntry(int transactionId, int side) {
+        LedgerEntry entry = findEntry(transactionId, side);
+        if (entry == null) {
+            entry = mRealm.createObject(LedgerEntry.class, LedgerEntry.idFor(transactionId, side));
+        }
+        return entry;
+    }
+
+    private void deleteEntry(int transactionId, int side) {
+        LedgerEntry entry = findEntry(transactionId, side);
+        if (entry != null) {
+            entry.deleteFromRealm();
+        }
+    }
+
+    private static void writeEntry(LedgerEntry entry, Transaction transaction, int accountId, long amount, long runningBalance, boolean primary) {
+        entry.setAccountId(accountId);
+        entry.setTransactionId(transaction.getId());
+        entry.setTransaction(transaction);
+        entry.setAmount(amount);
+        entry.setRunningBalance(runningBalance);
+        entry.setOccurredAt(transaction.getOccurredAt());
+        entry.setPrimary(primary);
+    }
+
+    private boolean isEntryConsistent(Transaction transaction, int side, int accountId, long runningBalance) {
+        LedgerEntry entry = findEntry(transaction.getId(), side);
+        return entry != null
+                && entry.getAccountId() == accountId
+                && entry.getRunningBalance() == runningBalance;
+    }
+
+    private long getRunningBalance(Transaction transaction, int accountId) {
+        if (transaction.getFromAccountId() == accountId) {
+            return transaction.getFromRunningBalance();
+        }
+        return transaction.getToRunningBalance();
+    }
+
+    private Account findAccount(int accountId) {
+        return mRealm.where(Account.class).equalTo(Account.ID, accountId).findFirst();
+    }
+
+    private RealmQuery<Transaction> whereAccount(int accountId) {
+        return mRealm.where(Transaction.class)
+                .beginGroup()
+                    .equalTo(Transaction.FROM_ACCOUNT_ID, accountId)
+                    .or()
+                    .equalTo(Transaction.TO_ACCOUNT_ID, accountId)
+                .endGroup();
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == value) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
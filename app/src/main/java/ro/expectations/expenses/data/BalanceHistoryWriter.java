@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import java.util.Date;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+import io.realm.Sort;
+import ro.expectations.expenses.model.BalanceHistory;
+import ro.expectations.expenses.model.LedgerEntry;
+
+/**
+ * Maintains the {@link BalanceHistory} of the accounts from their {@link LedgerEntry} rows, so
+ * charting a balance over time does not have to replay all the transactions of the account.
+ *
+ * The balance of a day is the running balance of the last entry of the day. Days without entries
+ * keep the balance of the day before them. Entries without a date are left out, although their
+ * amounts are part of the running balances that follow them.
+ *
+ * All the methods must be called from inside a Realm write transaction, after the ledger entries
+ * were brought up to date.
+ */
+public class BalanceHistoryWriter {
+
+    private static final String[] ORDER_FIELDS = {LedgerEntry.OCCURRED_AT, LedgerEntry.TRANSACTION_ID};
+    private static final Sort[] ORDER = {Sort.ASCENDING, Sort.ASCENDING};
+
+    private static final String[] ALL_ORDER_FIELDS = {
+            LedgerEntry.ACCOUNT_ID, LedgerEntry.OCCURRED_AT, LedgerEntry.TRANSACTION_ID
+    };
+    private static final Sort[] ALL_ORDER = {Sort.ASCENDING, Sort.ASCENDING, Sort.ASCENDING};
+
+    private final Realm mRealm;
+
+    // the bounds of the last day an entry fell on, to skip most calendar computations
+    private int mDay;
+    private long mDayStart = Long.MAX_VALUE;
+    private long mNextDayStart = Long.MIN_VALUE;
+
+    public BalanceHistoryWriter(Realm realm) {
+        mRealm = realm;
+    }
+
+    /**
+     * Recompute the history of all the accounts in a single pass over all the ledger entries.
+     *
+     * @return The number of accounts with a history
+     */
+    public int rebuild() {
+        mRealm.delete(BalanceHistory.class);
+
+        RealmResults<LedgerEntry> entries = mRealm.where(LedgerEntry.class)
+                .findAllSorted(ALL_ORDER_FIELDS, ALL_ORDER);
+        int accountCount = 0;
+        int accountId = 0;
+        BalanceSamples samples = null;
+        for (LedgerEntry entry : entries) {
+            if (samples == null || entry.getAccountId() != accountId) {
+                if (samples != null && save(accountId, samples)) {
+                    accountCount++;
+                }
+                accountId = entry.getAccountId();
+                samples = new BalanceSamples();
+            }
+            add(samples, entry);
+        }
+        if (samples != null && save(accountId, samples)) {
+            accountCount++;
+        }
+        return accountCount;
+    }
+
+    /**
+     * Recompute the history of an account.
+     */
+    public void rebuild(int accountId) {
+        BalanceSamples samples = new BalanceSamples();
+        for (LedgerEntry entry : mRealm.where(LedgerEntry.class)
+                .equalTo(LedgerEntry.ACCOUNT_ID, accountId)
+                .findAllSorted(ORDER_FIELDS, ORDER)) {
+            add(samples, entry);
+        }
+        save(accountId, samples);
+    }
+
+    /**
+     * Recompute the history of an account from the day of a change on, keeping the days before
+     * it.
+     *
+     * @param from The date of the earliest changed entry of the account
+     */
+    public void update(int accountId, Date from) {
+        BalanceHistory history = findHistory(accountId);
+        int fromDay = BalanceSeries.dayOf(from.getTime());
+        if (history == null || history.getBalances() == null || fromDay <= history.getFirstDay()) {
+            rebuild(accountId);
+            return;
+        }
+
+        long[] balances = BalanceSeries.unpack(history.getBalances());
+        BalanceSamples samples = BalanceSamples.keepDaysBefore(history.getFirstDay(), balances, fromDay);
+        for (LedgerEntry entry : mRealm.where(LedgerEntry.class)
+                .equalTo(LedgerEntry.ACCOUNT_ID, accountId)
+                .greaterThanOrEqualTo(LedgerEntry.OCCURRED_AT, new Date(BalanceSeries.startOf(fromDay)))
+                .findAllSorted(ORDER_FIELDS, ORDER)) {
+            add(samples, entry);
+        }
+        save(accountId, samples);
+    }
+
+    private void add(BalanceSamples samples, LedgerEntry entry) {
+        Date occurredAt = entry.getOccurredAt();
+        if (occurredAt == null) {
+            return;
+        }
+
+        long millis = occurredAt.getTime();
+        if (millis < mDayStart || millis >= mNextDayStart) {
+            mDay = BalanceSeries.dayOf(millis);
+            mDayStart = BalanceSeries.startOf(mDay);
+            mNextDayStart = BalanceSeries.startOf(mDay + 1);
+        }
+        samples.put(mDay, entry.getRunningBalance());
+    }
+
+    /**
+     * @return true if the account has a history, false if it was removed
+     */
+    private boolean save(int accountId, BalanceSamples samples) {
+        BalanceHistory history = findHistory(accountId);
+        if (samples.getCount() == 0) {
+            if (history != null) {
+                history.deleteFromRealm();
+            }
+            return false;
+        }
+
+        if (history == null) {
+            history = mRealm.createObject(BalanceHistory.class, accountId);
+        }
+        history.setFirstDay(samples.getFirstDay());
+        history.setBalances(BalanceSeries.pack(samples.getBalances(), samples.getCount()));
+        return true;
+    }
+
+    private BalanceHistory findHistory(int accountId) {
+        return mRealm.where(BalanceHistory.class)
+                .equalTo(BalanceHistory.ACCOUNT_ID, accountId)
+                .findFirst();
+    }
+}
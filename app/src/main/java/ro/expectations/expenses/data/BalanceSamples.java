@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import java.util.Arrays;
+
+/**
+ * A growable array of end of day balances, filled in day order by the
+ * {@link BalanceHistoryWriter}.
+ *
+ * This class has no Android or Realm dependencies, so it can be exercised on the host JVM.
+ */
+class BalanceSamples {
+
+    private int mFirstDay;
+    private long[] mBalances;
+    private int mCount;
+
+    BalanceSamples() {
+        this(0, new long[16], 0);
+    }
+
+    private BalanceSamples(int firstDay, long[] balances, int count) {
+        mFirstDay = firstDay;
+        mBalances = balances;
+        mCount = count;
+    }
+
+    /**
+     * Start from the days of a stored history before a change, so only the days after it have
+     * to be added again.
+     *
+     * @param balances The balances of the history, reused by the samples
+     * @param fromDay The first day to add again, after the first day of the history
+     */
+    static BalanceSamples keepDaysBefore(int firstDay, long[] balances, int fromDay) {
+        return new BalanceSamples(firstDay, balances, Math.max(0, Math.min(fromDay - firstDay, balances.length)));
+    }
+
+    int getFirstDay() {
+        return mFirstDay;
+    }
+
+    /**
+     * @return The number of days, from the first one
+     */
+    int getCount() {
+        return mCount;
+    }
+
+    long[] getBalances() {
+        return mBalances;
+    }
+
+    /**
+     * Set the balance at the end of a day, which must not come before the last day set.
+     */
+    void put(int day, long balance) {
+        if (mCount == 0) {
+            mFirstDay = day;
+        }
+        int index = day - mFirstDay;
+        if (index >= mBalances.length) {
+            mBalances = Arrays.copyOf(mBalances, Math.max(index + 1, mBalances.length * 2));
+        }
+        // the days since the last entry keep its balance
+        long previous = mCount > 0 ? mBalances[mCount - 1] : 0;
+        for (int i = mCount; i < index; i++) {
+            mBalances[i] = previous;
+        }
+        mBalances[index] = balance;
+        mCount = Math.max(mCount, index + 1);
+    }
+}
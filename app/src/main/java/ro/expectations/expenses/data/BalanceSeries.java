@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import android.support.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import ro.expectations.expenses.model.BalanceHistory;
+
+/**
+ * The balance of an account at the end of every day, for charts and reports.
+ *
+ * The balance of a day is a lookup in an array. The minimum and the maximum over a range of
+ * days are answered in logarithmic time by two segment trees, built along with the series. The
+ * balance is 0 before the first day and stays at the last balance after the last day.
+ *
+ * Days are counted from 1970-01-01 in the local time zone, see {@link #dayOf(long)}.
+ */
+public final class BalanceSeries {
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000L;
+
+    private final int mFirstDay;
+    private final long[] mBalances;
+    // the leaves start at mBalances.length, node i covers nodes 2i and 2i + 1
+    private final long[] mMin;
+    private final long[] mMax;
+
+    /**
+     * @return The series of a stored history, or null if there is none
+     */
+    @Nullable
+    public static BalanceSeries of(@Nullable BalanceHistory history) {
+        if (history == null || history.getBalances() == null || history.getBalances().length == 0) {
+            return null;
+        }
+        return new BalanceSeries(history.getFirstDay(), unpack(history.getBalances()));
+    }
+
+    BalanceSeries(int firstDay, long[] balances) {
+        mFirstDay = firstDay;
+        mBalances = balances;
+
+        int size = balances.length;
+        mMin = new long[2 * size];
+        mMax = new long[2 * size];
+        System.arraycopy(balances, 0, mMin, size, size);
+        System.arraycopy(balances, 0, mMax, size, size);
+        for (int i = size - 1; i > 0; i--) {
+            mMin[i] = Math.min(mMin[2 * i], mMin[2 * i + 1]);
+            mMax[i] = Math.max(mMax[2 * i], mMax[2 * i + 1]);
+        }
+    }
+
+    /**
+     * @param millis A point in time
+     * @return The day it falls on, counted from 1970-01-01 in the local time zone
+     */
+    public static int dayOf(long millis) {
+        Calendar local = Calendar.getInstance();
+        local.setTimeInMillis(millis);
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        utc.clear();
+        utc.set(local.get(Calendar.YEAR), local.get(Calendar.MONTH), local.get(Calendar.DAY_OF_MONTH));
+        return (int) Math.floor(utc.getTimeInMillis() / (double) DAY_IN_MILLIS);
+    }
+
+    /**
+     * @return The local midnight at the start of the day
+     */
+    public static long startOf(int day) {
+        Calendar utc = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        utc.setTimeInMillis(day * DAY_IN_MILLIS);
+        Calendar local = Calendar.getInstance();
+        local.clear();
+        local.set(utc.get(Calendar.YEAR), utc.get(Calendar.MONTH), utc.get(Calendar.DAY_OF_MONTH));
+        return local.getTimeInMillis();
+    }
+
+    public int getFirstDay() {
+        return mFirstDay;
+    }
+
+    public int getLastDay() {
+        return mFirstDay + mBalances.length - 1;
+    }
+
+    /**
+     * @return The balance at the end of the day
+     */
+    public long getBalance(int day) {
+        if (day < mFirstDay) {
+            return 0;
+        }
+        return mBalances[Math.min(day, getLastDay()) - mFirstDay];
+    }
+
+    /**
+     * @return The lowest balance at the end of the days from fromDay to toDay, both included
+     */
+    public long getMin(int fromDay, int toDay) {
+        return query(mMin, fromDay, toDay, false);
+    }
+
+    /**
+     * @return The highest balance at the end of the days from fromDay to toDay, both included
+     */
+    public long getMax(int fromDay, int toDay) {
+        return query(mMax, fromDay, toDay, true);
+    }
+
+    private long query(long[] tree, int fromDay, int toDay, boolean max) {
+        if (fromDay > toDay) {
+            throw new IllegalArgumentException("The range ends before it starts");
+        }
+
+        // days outside the series have the balance of its nearest end
+        boolean hasDaysBefore = fromDay < mFirstDay;
+        int from = Math.max(fromDay, mFirstDay) - mFirstDay;
+        int to = Math.min(toDay, getLastDay()) - mFirstDay;
+        if (from > to) {
+            return getBalance(toDay);
+        }
+
+        long result = tree[from + mBalances.length];
+        for (int l = from + mBalances.length, r = to + mBalances.length + 1; l < r; l >>= 1, r >>= 1) {
+            if ((l & 1) == 1) {
+                result = max ? Math.max(result, tree[l]) : Math.min(result, tree[l]);
+                l++;
+            }
+            if ((r & 1) == 1) {
+                r--;
+                result = max ? Math.max(result, tree[r]) : Math.min(result, tree[r]);
+            }
+        }
+        if (hasDaysBefore) {
+            result = max ? Math.max(result, 0) : Math.min(result, 0);
+        }
+        return result;
+    }
+
+    static byte[] pack(long[] balances, int count) {
+        ByteBuffer buffer = ByteBuffer.allocate(count * 8);
+        buffer.asLongBuffer().put(balances, 0, count);
+        return buffer.array();
+    }
+
+    static long[] unpack(byte[] packed) {
+        long[] balances = new long[packed.length / 8];
+        ByteBuffer.wrap(packed).asLongBuffer().get(balances);
+        return balances;
+    }
+}
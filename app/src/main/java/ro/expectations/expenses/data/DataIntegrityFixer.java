@@ -22,14 +22,7 @@ package ro.expectations.expenses.data;
 import android.content.Context;
 import android.util.Log;
 
-import java.util.Date;
-import java.util.concurrent.TimeUnit;
-
 import io.realm.Realm;
-import io.realm.RealmResults;
-import io.realm.Sort;
-import ro.expectations.expenses.model.Account;
-import ro.expectations.expenses.model.Transaction;
 
 /**
  * Helper to check the database for integrity and fix any issues.
@@ -44,54 +37,48 @@ public class DataIntegrityFixer {
         mContext = context;
     }
 
+    /**
+     * Recompute the balances of all the accounts, their balance history and the monthly totals
+     * from scratch, e.g. after a restore. Day to day changes are patched incrementally by the
+     * {@link BalanceEngine} and the {@link MonthlyRollup} instead.
+     *
+     * All the results are committed in a single write.
+     */
     public void fix() {
         long t0 = System.currentTimeMillis();
 
         Realm realm = Realm.getDefaultInstance();
+        BalanceEngine balanceEngine = new BalanceEngine(realm);
 
-        final RealmResults<Account> accounts = realm.where(Account.class).findAll();
-        for(Account account: accounts) {
-
-            long balance = 0;
-            Date lastTransactionAt = null;
-
-            final RealmResults<Transaction> transactions = realm.where(Transaction.class)
-                    .beginGroup()
-                        .equalTo("fromAccount.id", account.getId())
-                        .or()
-                        .equalTo("toAccount.id", account.getId())
-                    .endGroup()
-                    .findAll();
-            transactions.sort("occurredAt", Sort.ASCENDING);
-
-            realm.beginTransaction();
+        realm.beginTransaction();
+        int transactionCount = balanceEngine.rebalanceAll();
+        new BalanceHistoryWriter(realm).rebuild();
+        new MonthlyRollup(realm).rebuild();
+        long t1 = System.currentTimeMillis();
+        realm.commitTransaction();
+        long t2 = System.currentTimeMillis();
 
-            for (Transaction transaction: transactions) {
-                Account fromAccount = transaction.getFromAccount();
-                Account toAccount = transaction.getToAccount();
-                if (fromAccount != null && fromAccount.getId() == account.getId()) {
-                    balance -= transaction.getFromAmount();
-                    transaction.setFromRunningBalance(balance);
-                } else if (toAccount != null && toAccount.getId() == account.getId()) {
-                    balance += transaction.getToAmount();
-                    transaction.setToRunningBalance(balance);
-                }
-                Date occurredAt = transaction.getOccurredAt();
-                if (lastTransactionAt == null) {
-                    lastTransactionAt = occurredAt;
-                } else if (occurredAt.after(lastTransactionAt)) {
-                    lastTransactionAt = occurredAt;
-                }
-            }
+        Log.i(TAG, "Data integrity fixer took " + (t2 - t0) + "ms for " + transactionCount
+                + " transactions (scan " + (t1 - t0) + "ms, commit " + (t2 - t1) + "ms)");
+        realm.close();
+    }
 
-            account.setBalance(balance);
-            account.setLastTransactionAt(lastTransactionAt);
+    /**
+     * Check the stored balances of all the accounts against a full recompute, without changing
+     * anything.
+     *
+     * @return true if all the balances are consistent, false otherwise
+     */
+    public boolean verify() {
+        long t0 = System.currentTimeMillis();
 
-            realm.commitTransaction();
-        }
+        Realm realm = Realm.getDefaultInstance();
+        boolean consistent = new BalanceEngine(realm).verifyAll();
 
         long t1 = System.currentTimeMillis();
-        Log.i(TAG, "Data integrity fixer took " + TimeUnit.MILLISECONDS.toSeconds(t1 - t0) + "s");
+        Log.i(TAG, "Data integrity verification took " + (t1 - t0) + "ms");
         realm.close();
+
+        return consistent;
     }
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import java.util.Date;
+
+import io.realm.DynamicRealm;
+import io.realm.DynamicRealmObject;
+import io.realm.FieldAttribute;
+import io.realm.RealmMigration;
+import io.realm.RealmObjectSchema;
+import io.realm.RealmSchema;
+import io.realm.Sort;
+import ro.expectations.expenses.utils.ColorUtils;
+
+/**
+ * Migrate the database schema from older versions of the application.
+ */
+public class DatabaseMigration implements RealmMigration {
+
+    public static final long SCHEMA_VERSION = 7;
+
+    @Override
+    public void migrate(DynamicRealm realm, long oldVersion, long newVersion) {
+
+        RealmSchema schema = realm.getSchema();
+
+        // Version 1: keep track of interrupted restores
+        if (oldVersion == 0) {
+            schema.create("RestoreCheckpoint")
+                    .addField("tableName", String.class, FieldAttribute.PRIMARY_KEY)
+                    .addField("source", String.class, FieldAttribute.REQUIRED)
+                    .addField("lastId", int.class);
+            oldVersion++;
+        }
+
+        // Version 2: index the account ids and the date of the transactions for list queries
+        if (oldVersion == 1) {
+            schema.get("Transaction")
+                    .addField("fromAccountId", int.class, FieldAttribute.INDEXED)
+                    .addField("toAccountId", int.class, FieldAttribute.INDEXED)
+                    .addIndex("occurredAt")
+                    .transform(new RealmObjectSchema.Function() {
+                        @Override
+                        public void apply(DynamicRealmObject transaction) {
+                            DynamicRealmObject fromAccount = transaction.getObject("fromAccount");
+                            if (fromAccount != null) {
+                                transaction.setInt("fromAccountId", fromAccount.getInt("id"));
+                            }
+                            DynamicRealmObject toAccount = transaction.getObject("toAccount");
+                            if (toAccount != null) {
+                                transaction.setInt("toAccountId", toAccount.getInt("id"));
+                            }
+                        }
+                    });
+            oldVersion++;
+        }
+
+        // Version 3: materialize the ledger of every account from the stored running balances
+        if (oldVersion == 2) {
+            schema.create("LedgerEntry")
+                    .addField("id", long.class, FieldAttribute.PRIMARY_KEY)
+                    .addField("accountId", int.class, FieldAttribute.INDEXED)
+                    .addField("transactionId", int.class)
+                    .addRealmObjectField("transaction", schema.get("Transaction"))
+                    .addField("amount", long.class)
+                    .addField("runningBalance", long.class)
+                    .addField("occurredAt", Date.class, FieldAttribute.INDEXED)
+                    .addField("isPrimary", boolean.class, FieldAttribute.INDEXED);
+
+            for (DynamicRealmObject transaction : realm.where("Transaction").findAll()) {
+                int id = transaction.getInt("id");
+                int fromAccountId = transaction.getInt("fromAccountId");
+                int toAccountId = transaction.getInt("toAccountId");
+                if (fromAccountId > 0) {
+                    createLedgerEntry(realm, transaction, id, 0, fromAccountId,
+                            -transaction.getLong("fromAmount"),
+                            transaction.getLong("fromRunningBalance"), true);
+                }
+                if (toAccountId > 0 && toAccountId != fromAccountId) {
+                    createLedgerEntry(realm, transaction, id, 1, toAccountId,
+                            transaction.getLong("toAmount"),
+                            transaction.getLong("toRunningBalance"), fromAccountId <= 0);
+                }
+            }
+            oldVersion++;
+        }
+
+        // Version 4: store the parsed color of the categories
+        if (oldVersion == 3) {
+            schema.get("Category")
+                    .addField("colorValue", int.class)
+                    .transform(new RealmObjectSchema.Function() {
+                        @Override
+                        public void apply(DynamicRealmObject category) {
+                            category.setInt("colorValue", ColorUtils.fromRGB(category.getString("color"), 0));
+                        }
+                    });
+            oldVersion++;
+        }
+
+        // Version 5: roll the transactions up per month, the totals are computed by the app
+        if (oldVersion == 4) {
+            schema.create("MonthlyTotal")
+                    .addField("id", String.class, FieldAttribute.PRIMARY_KEY)
+                    .addField("accountId", int.class, FieldAttribute.INDEXED)
+                    .addField("categoryId", int.class, FieldAttribute.INDEXED)
+                    .addField("projectId", int.class)
+                    .addField("month", int.class, FieldAttribute.INDEXED)
+                    .addField("currency", String.class)
+                    .addField("income", long.class)
+                    .addField("expense", long.class)
+                    .addField("count", int.class);
+            oldVersion++;
+        }
+
+        // Version 6: local exchange rates, for the totals across currencies
+        if (oldVersion == 5) {
+            schema.create("ExchangeRate")
+                    .addField("id", String.class, FieldAttribute.PRIMARY_KEY)
+                    .addField("fromCurrency", String.class, FieldAttribute.REQUIRED, FieldAttribute.INDEXED)
+                    .addField("toCurrency", String.class, FieldAttribute.REQUIRED, FieldAttribute.INDEXED)
+                    .addField("day", int.class, FieldAttribute.INDEXED)
+                    .addField("rate", double.class);
+            oldVersion++;
+        }
+
+        // Version 7: the balance history of the accounts, backfilled from their ledger entries
+        if (oldVersion == 6) {
+            schema.create("BalanceHistory")
+                    .addField("accountId", int.class, FieldAttribute.PRIMARY_KEY)
+                    .addField("firstDay", int.class)
+                    .addField("balances", byte[].class);
+
+            // the same samples as BalanceHistoryWriter.rebuild(), entries without a date are left out
+            int accountId = 0;
+            BalanceSamples samples = null;
+            for (DynamicRealmObject entry : realm.where("LedgerEntry").findAllSorted(
+                    new String[] {"accountId", "occurredAt", "transactionId"},
+                    new Sort[] {Sort.ASCENDING, Sort.ASCENDING, Sort.ASCENDING})) {
+                Date occurredAt = entry.getDate("occurredAt");
+                if (occurredAt == null) {
+                    continue;
+                }
+                if (samples == null || entry.getInt("accountId") != accountId) {
+                    createBalanceHistory(realm, accountId, samples);
+                    accountId = entry.getInt("accountId");
+                    samples = new BalanceSamples();
+                }
+                samples.put(BalanceSeries.dayOf(occurredAt.getTime()), entry.getLong("runningBalance"));
+            }
+            createBalanceHistory(realm, accountId, samples);
+            oldVersion++;
+        }
+    }
+
+    private static void createLedgerEntry(DynamicRealm realm, DynamicRealmObject transaction, int transactionId, int side,
+                                          int accountId, long amount, long runningBalance, boolean primary) {
+        DynamicRealmObject entry = realm.createObject("LedgerEntry", ((long) transactionId << 1) | side);
+        entry.setInt("accountId", accountId);
+        entry.setInt("transactionId", transactionId);
+        entry.setObject("transaction", transaction);
+        entry.setLong("amount", amount);
+        entry.setLong("runningBalance", runningBalance);
+        entry.setDate("occurredAt", transaction.getDate("occurredAt"));
+        entry.setBoolean("isPrimary", primary);
+    }
+
+    private static void createBalanceHistory(DynamicRealm realm, int accountId, BalanceSamples samples) {
+        if (samples == null || samples.getCount() == 0) {
+            return;
+        }
+        DynamicRealmObject history = realm.createObject("BalanceHistory", accountId);
+        history.setInt("firstDay", samples.getFirstDay());
+        history.setBlob("balances", BalanceSeries.pack(samples.getBalances(), samples.getCount()));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof DatabaseMigration;
+    }
+
+    @Override
+    public int hashCode() {
+        return DatabaseMigration.class.hashCode();
+    }
+}
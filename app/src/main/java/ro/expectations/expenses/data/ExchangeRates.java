@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The exchange rates between currencies, loaded one currency pair at a time.
+ *
+ * The rate of a day is the latest known rate on or before it, and the inverse rate is used when
+ * only the opposite pair is known. Every rate that was looked up is cached per currency pair and
+ * day, so a day is only ever looked up once until the rates are cleared.
+ *
+ * This class has no Android or Realm dependencies, so it can be exercised on the host JVM. It is
+ * not thread safe.
+ */
+class ExchangeRates {
+
+    private static final int MAX_CACHED_RATES = 64;
+
+    interface Loader {
+
+        /**
+         * Add all the known rates from a currency to another, with {@link #put}.
+         */
+        void load(String fromCurrency, String toCurrency, ExchangeRates rates);
+    }
+
+    private final Loader mLoader;
+    // the rates of every loaded pair, by day
+    private final Map<String, TreeMap<Integer, Double>> mPairs = new HashMap<>();
+    // the rate from a currency to another on a day, NaN when there is none
+    private final Map<String, Double> mCache = new LinkedHashMap<String, Double>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+            return size() > MAX_CACHED_RATES;
+        }
+    };
+
+    ExchangeRates(Loader loader) {
+        mLoader = loader;
+    }
+
+    /**
+     * @param day The first day the rate applies to, as yyyymmdd
+     */
+    void put(String fromCurrency, String toCurrency, int day, double rate) {
+        getPair(fromCurrency, toCurrency).put(day, rate);
+    }
+
+    /**
+     * Forget all the rates, e.g. after they changed.
+     */
+    void clear() {
+        mPairs.clear();
+        mCache.clear();
+    }
+
+    /**
+     * @param day The day, as yyyymmdd
+     * @return The rate from a currency to another on the day, or NaN if there is none
+     */
+    double getRate(String fromCurrency, String toCurrency, int day) {
+        if (fromCurrency == null || toCurrency == null) {
+            return Double.NaN;
+        }
+        if (fromCurrency.equals(toCurrency)) {
+            return 1;
+        }
+
+        String key = fromCurrency + ":" + toCurrency + ":" + day;
+        Double rate = mCache.get(key);
+        if (rate == null) {
+            rate = findRate(fromCurrency, toCurrency, day);
+            if (Double.isNaN(rate)) {
+                double inverseRate = findRate(toCurrency, fromCurrency, day);
+                if (inverseRate > 0) {
+                    rate = 1 / inverseRate;
+                }
+            }
+            mCache.put(key, rate);
+        }
+        return rate;
+    }
+
+    private double findRate(String fromCurrency, String toCurrency, int day) {
+        String pairKey = fromCurrency + ":" + toCurrency;
+        TreeMap<Integer, Double> pair = mPairs.get(pairKey);
+        if (pair == null) {
+            pair = getPair(fromCurrency, toCurrency);
+            mLoader.load(fromCurrency, toCurrency, this);
+        }
+        Map.Entry<Integer, Double> rate = pair.floorEntry(day);
+        return rate != null ? rate.getValue() : Double.NaN;
+    }
+
+    private TreeMap<Integer, Double> getPair(String fromCurrency, String toCurrency) {
+        String pairKey = fromCurrency + ":" + toCurrency;
+        TreeMap<Integer, Double> pair = mPairs.get(pairKey);
+        if (pair == null) {
+            pair = new TreeMap<>();
+            mPairs.put(pairKey, pair);
+        }
+        return pair;
+    }
+}
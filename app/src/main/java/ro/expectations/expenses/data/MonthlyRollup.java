@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import android.util.Log;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+import ro.expectations.expenses.model.Account;
+import ro.expectations.expenses.model.Category;
+import ro.expectations.expenses.model.MonthlyTotal;
+import ro.expectations.expenses.model.Project;
+import ro.expectations.expenses.model.Transaction;
+import ro.expectations.expenses.model.TransactionSplit;
+
+/**
+ * Maintains the {@link MonthlyTotal} rollup, so that reports need to read one row per account,
+ * category, project and month instead of every transaction.
+ *
+ * Incomes and expenses are booked on the categories of their splits when they have any, and
+ * every transaction counts once per monthly total it is booked on. Transfers are left out, since
+ * they are neither income nor expenses.
+ *
+ * All the methods must be called from inside a Realm write transaction.
+ */
+public class MonthlyRollup {
+
+    private static final String TAG = MonthlyRollup.class.getSimpleName();
+
+    private final Realm mRealm;
+    private final Calendar mCalendar = Calendar.getInstance();
+
+    public MonthlyRollup(Realm realm) {
+        mRealm = realm;
+    }
+
+    /**
+     * @return The year and the month of the calendar, as yyyymm
+     */
+    public static int monthOf(Calendar calendar) {
+        return calendar.get(Calendar.YEAR) * 100 + calendar.get(Calendar.MONTH) + 1;
+    }
+
+    /**
+     * Recompute the whole rollup in a single pass over all the transactions.
+     *
+     * @return The number of transactions that were visited
+     */
+    public int rebuild() {
+        mRealm.delete(MonthlyTotal.class);
+
+        Map<String, MonthlyTotal> totals = new HashMap<>();
+        RealmResults<Transaction> transactions = mRealm.where(Transaction.class).findAll();
+        for (Transaction transaction : transactions) {
+            accumulate(transaction, 1, totals);
+        }
+        for (MonthlyTotal total : totals.values()) {
+            mRealm.copyToRealm(total);
+        }
+
+        Log.i(TAG, "Rolled up " + transactions.size() + " transactions into " + totals.size() + " monthly totals");
+        return transactions.size();
+    }
+
+    /**
+     * Add a new transaction to the rollup.
+     */
+    public void add(Transaction transaction) {
+        apply(transaction, 1);
+    }
+
+    /**
+     * Take a transaction out of the rollup, before it is changed or deleted.
+     */
+    public void subtract(Transaction transaction) {
+        apply(transaction, -1);
+    }
+
+    private void apply(Transaction transaction, int sign) {
+        Map<String, MonthlyTotal> deltas = new HashMap<>();
+        accumulate(transaction, sign, deltas);
+
+        for (MonthlyTotal delta : deltas.values()) {
+            MonthlyTotal total = mRealm.where(MonthlyTotal.class)
+                    .equalTo(MonthlyTotal.ID, delta.getId())
+                    .findFirst();
+            if (total == null) {
+                if (sign < 0) {
+                    Log.w(TAG, "Monthly total " + delta.getId() + " is missing");
+                } else {
+                    mRealm.copyToRealm(delta);
+                }
+                continue;
+            }
+
+            int count = total.getCount() + delta.getCount();
+            if (count <= 0) {
+                total.deleteFromRealm();
+            } else {
+                total.setIncome(total.getIncome() + delta.getIncome());
+                total.setExpense(total.getExpense() + delta.getExpense());
+                total.setCount(count);
+            }
+        }
+    }
+
+    private void accumulate(Transaction transaction, int sign, Map<String, MonthlyTotal> totals) {
+        Account fromAccount = transaction.getFromAccount();
+        Account toAccount = transaction.getToAccount();
+        if (fromAccount != null && toAccount != null) {
+            return;
+        }
+
+        int month = 0;
+        Date occurredAt = transaction.getOccurredAt();
+        if (occurredAt != null) {
+            mCalendar.setTime(occurredAt);
+            month = monthOf(mCalendar);
+        }
+
+        Account account = fromAccount != null ? fromAccount : toAccount;
+        if (account == null) {
+            return;
+        }
+        boolean isIncome = fromAccount == null;
+
+        if (transaction.getSplits().isEmpty()) {
+            long amount = isIncome ? transaction.getToAmount() : transaction.getFromAmount();
+            put(totals, account, transaction.getCategory(), transaction.getProject(), month,
+                    isIncome ? sign * amount : 0, isIncome ? 0 : sign * amount, sign);
+            return;
+        }
+
+        // splits are stored as expenses, so the splits of an income are negative; splits that
+        // share a category and a project count the transaction once
+        Set<String> counted = new HashSet<>();
+        for (TransactionSplit split : transaction.getSplits()) {
+            long amount = isIncome ? 0 - split.getAmount() : split.getAmount();
+            String id = put(totals, account, split.getCategory(), split.getProject(), month,
+                    isIncome ? sign * amount : 0, isIncome ? 0 : sign * amount, 0);
+            if (counted.add(id)) {
+                MonthlyTotal total = totals.get(id);
+                total.setCount(total.getCount() + sign);
+            }
+        }
+    }
+
+    /**
+     * @return The id of the monthly total the amounts were added to
+     */
+    private static String put(Map<String, MonthlyTotal> totals, Account account, Category category, Project project,
+                              int month, long income, long expense, int count) {
+        int categoryId = category != null ? category.getId() : 0;
+        int projectId = project != null ? project.getId() : 0;
+        String id = MonthlyTotal.idFor(account.getId(), categoryId, projectId, month, account.getCurrency());
+
+        MonthlyTotal total = totals.get(id);
+        if (total == null) {
+            total = new MonthlyTotal();
+            total.setId(id);
+            total.setAccountId(account.getId());
+            total.setCategoryId(categoryId);
+            total.setProjectId(projectId);
+            total.setMonth(month);
+            total.setCurrency(account.getCurrency());
+            totals.put(id, total);
+        }
+        total.setIncome(total.getIncome() + income);
+        total.setExpense(total.getExpense() + expense);
+        total.setCount(total.getCount() + count);
+        return id;
+    }
+}
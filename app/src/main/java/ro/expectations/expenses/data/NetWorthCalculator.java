@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import io.realm.Realm;
+import io.realm.RealmChangeListener;
+import io.realm.RealmResults;
+import ro.expectations.expenses.model.Account;
+import ro.expectations.expenses.model.ExchangeRate;
+
+/**
+ * Adds up the balances of the active accounts that are included into totals, converted to the
+ * currency that most of them use, on a background thread.
+ *
+ * The rates are kept in {@link ExchangeRates} and the converted balances in
+ * {@link NetWorthTotals}, so after a change only the accounts whose balance or currency changed
+ * are converted again. Accounts without a currency, or in a currency without any rate, are left
+ * out of the total and reported.
+ *
+ * There is a single calculator per process, shared by all the screens that show the net worth.
+ */
+public class NetWorthCalculator {
+
+    private static final String TAG = NetWorthCalculator.class.getSimpleName();
+
+    public interface Listener {
+
+        /**
+         * Called on the main thread whenever the net worth was computed again.
+         */
+        void onNetWorthChanged(NetWorth netWorth);
+    }
+
+    /**
+     * The converted total of the accounts, in minor units.
+     */
+    public static final class NetWorth {
+
+        private final String mCurrency;
+        private final long mTotal;
+        private final int mAccountCount;
+        private final List<String> mMissingCurrencies;
+        private final int mAccountsWithoutCurrency;
+
+        NetWorth(String currency, long total, int accountCount, List<String> missingCurrencies,
+                 int accountsWithoutCurrency) {
+            mCurrency = currency;
+            mTotal = total;
+            mAccountCount = accountCount;
+            mMissingCurrencies = missingCurrencies;
+            mAccountsWithoutCurrency = accountsWithoutCurrency;
+        }
+
+        /**
+         * @return The currency of the total, or null if there is no account to add up
+         */
+        @Nullable
+        public String getCurrency() {
+            return mCurrency;
+        }
+
+        public long getTotal() {
+            return mTotal;
+        }
+
+        /**
+         * @return The number of accounts added up into the total
+         */
+        public int getAccountCount() {
+            return mAccountCount;
+        }
+
+        /**
+         * @return The currencies of the accounts left out of the total for lack of a rate
+         */
+        public List<String> getMissingCurrencies() {
+            return mMissingCurrencies;
+        }
+
+        /**
+         * @return The number of accounts left out of the total because their currency is unknown
+         */
+        public int getAccountsWithoutCurrency() {
+            return mAccountsWithoutCurrency;
+        }
+    }
+
+    private static NetWorthCalculator sInstance;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // only accessed from the main thread
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    private Handler mHandler;
+    private volatile NetWorth mNetWorth;
+
+    // only accessed from the background thread
+    private Realm mRealm;
+    private RealmResults<Account> mAccounts;
+    private RealmResults<ExchangeRate> mRates;
+    private final ExchangeRates mExchangeRates = new ExchangeRates(new ExchangeRates.Loader() {
+        @Override
+        public void load(String fromCurrency, String toCurrency, ExchangeRates rates) {
+            for (ExchangeRate rate : mRealm.where(ExchangeRate.class)
+                    .equalTo(ExchangeRate.FROM_CURRENCY, fromCurrency)
+                    .equalTo(ExchangeRate.TO_CURRENCY, toCurrency)
+                    .findAll()) {
+                rates.put(fromCurrency, toCurrency, rate.getDay(), rate.getRate());
+            }
+        }
+    });
+    private final NetWorthTotals mTotals = new NetWorthTotals(mExchangeRates);
+
+    private final Runnable mCompute = new Runnable() {
+        @Override
+        public void run() {
+            compute();
+        }
+    };
+
+    private final RealmChangeListener<RealmResults<Account>> mAccountsChangeListener =
+            new RealmChangeListener<RealmResults<Account>>() {
+                @Override
+                public void onChange(RealmResults<Account> accounts) {
+                    scheduleCompute();
+                }
+            };
+
+    private final RealmChangeListener<RealmResults<ExchangeRate>> mRatesChangeListener =
+            new RealmChangeListener<RealmResults<ExchangeRate>>() {
+                @Override
+                public void onChange(RealmResults<ExchangeRate> rates) {
+                    // any cached rate or conversion may be stale
+                    mExchangeRates.clear();
+                    mTotals.clearConversions();
+                    scheduleCompute();
+                }
+            };
+
+    public static synchronized NetWorthCalculator getInstance() {
+        if (sInstance == null) {
+            sInstance = new NetWorthCalculator();
+        }
+        return sInstance;
+    }
+
+    private NetWorthCalculator() {
+    }
+
+    /**
+     * Compute the net worth in the background, unless it was already started.
+     */
+    public synchronized void start() {
+        if (mHandler != null) {
+            return;
+        }
+        HandlerThread thread = new HandlerThread("NetWorthCalculator");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mRealm = Realm.getDefaultInstance();
+                mAccounts = mRealm.where(Account.class)
+                        .equalTo(Account.IS_ACTIVE, true)
+                        .equalTo(Account.INCLUDE_INTO_TOTALS, true)
+                        .findAll();
+                mAccounts.addChangeListener(mAccountsChangeListener);
+                mRates = mRealm.where(ExchangeRate.class).findAll();
+                mRates.addChangeListener(mRatesChangeListener);
+                compute();
+            }
+        });
+    }
+
+    /**
+     * Listen to the net worth, starting with the current one if it was already computed. Must be
+     * called from the main thread.
+     */
+    public void addListener(Listener listener) {
+        start();
+        mListeners.add(listener);
+        NetWorth netWorth = mNetWorth;
+        if (netWorth != null) {
+            listener.onNetWorthChanged(netWorth);
+        }
+    }
+
+    /**
+     * Must be called from the main thread.
+     */
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void scheduleCompute() {
+        // both listeners are usually called for the same commit
+        mHandler.removeCallbacks(mCompute);
+        mHandler.post(mCompute);
+    }
+
+    private void compute() {
+        int count = mAccounts.size();
+        int[] accountIds = new int[count];
+        String[] currencies = new String[count];
+        long[] balances = new long[count];
+        for (int i = 0; i < count; i++) {
+            Account account = mAccounts.get(i);
+            accountIds[i] = account.getId();
+            currencies[i] = account.getCurrency();
+            balances[i] = account.getBalance();
+        }
+        mTotals.compute(accountIds, currencies, balances, ExchangeRate.dayOf(Calendar.getInstance()));
+
+        Log.i(TAG, "Converted " + mTotals.getConvertedCount() + " of " + count + " account balances");
+
+        final NetWorth netWorth = new NetWorth(mTotals.getCurrency(), mTotals.getTotal(),
+                mTotals.getAccountCount(), mTotals.getMissingCurrencies(), mTotals.getAccountsWithoutCurrency());
+        mNetWorth = netWorth;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // a listener may remove itself
+                for (Listener listener : new ArrayList<>(mListeners)) {
+                    listener.onNetWorthChanged(netWorth);
+                }
+            }
+        });
+    }
+}
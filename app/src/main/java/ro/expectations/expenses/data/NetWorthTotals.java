@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Adds up balances in several currencies into the currency that most of them use, for the
+ * {@link NetWorthCalculator}.
+ *
+ * The converted balance of every account is kept, so after a change only the accounts whose
+ * balance or currency changed, or whose rate is of another day, are converted again. Accounts
+ * without a currency, or in a currency without any rate, are left out of the total and reported.
+ *
+ * This class has no Android or Realm dependencies, so it can be exercised on the host JVM. It is
+ * not thread safe.
+ */
+class NetWorthTotals {
+
+    private final ExchangeRates mRates;
+    private Map<Integer, Conversion> mConversions = new HashMap<>();
+
+    private String mCurrency;
+    private long mTotal;
+    private int mAccountCount;
+    private List<String> mMissingCurrencies = new ArrayList<>();
+    private int mAccountsWithoutCurrency;
+    private int mConvertedCount;
+
+    NetWorthTotals(ExchangeRates rates) {
+        mRates = rates;
+    }
+
+    /**
+     * Forget the converted balances, e.g. after the rates changed.
+     */
+    void clearConversions() {
+        mConversions.clear();
+    }
+
+    /**
+     * Add up the balances of the accounts, all the arrays are indexed by account.
+     *
+     * @param currencies The currency of every account, null if it is unknown
+     * @param day The day of the rates, as yyyymmdd
+     */
+    void compute(int[] accountIds, String[] currencies, long[] balances, int day) {
+        mCurrency = getMainCurrency(currencies);
+        mTotal = 0;
+        mAccountCount = 0;
+        mMissingCurrencies = new ArrayList<>();
+        mAccountsWithoutCurrency = 0;
+        mConvertedCount = 0;
+
+        Map<Integer, Conversion> conversions = new HashMap<>(accountIds.length * 2);
+        for (int i = 0; i < accountIds.length; i++) {
+            String currency = currencies[i];
+            if (currency == null) {
+                mAccountsWithoutCurrency++;
+                continue;
+            }
+
+            String rateKey = currency + ":" + mCurrency + ":" + day;
+            Conversion conversion = mConversions.get(accountIds[i]);
+            if (conversion == null || conversion.mBalance != balances[i] || !conversion.mRateKey.equals(rateKey)) {
+                double rate = mRates.getRate(currency, mCurrency, day);
+                conversion = new Conversion(balances[i], rateKey, rate);
+                mConvertedCount++;
+            }
+            conversions.put(accountIds[i], conversion);
+
+            if (conversion.mHasRate) {
+                mTotal += conversion.mConverted;
+                mAccountCount++;
+            } else if (!mMissingCurrencies.contains(currency)) {
+                mMissingCurrencies.add(currency);
+            }
+        }
+        mConversions = conversions;
+    }
+
+    /**
+     * @return The currency of the total, or null if no account has a currency
+     */
+    String getCurrency() {
+        return mCurrency;
+    }
+
+    long getTotal() {
+        return mTotal;
+    }
+
+    int getAccountCount() {
+        return mAccountCount;
+    }
+
+    List<String> getMissingCurrencies() {
+        return mMissingCurrencies;
+    }
+
+    int getAccountsWithoutCurrency() {
+        return mAccountsWithoutCurrency;
+    }
+
+    /**
+     * @return The number of balances converted by the last computation, the others were kept
+     */
+    int getConvertedCount() {
+        return mConvertedCount;
+    }
+
+    /**
+     * @return The currency used by most accounts, or null if none has one
+     */
+    static String getMainCurrency(String[] currencies) {
+        Map<String, Integer> counts = new HashMap<>();
+        String mainCurrency = null;
+        int mainCount = 0;
+        for (String currency : currencies) {
+            if (currency == null) {
+                continue;
+            }
+            Integer count = counts.get(currency);
+            count = (count != null ? count : 0) + 1;
+            counts.put(currency, count);
+            if (count > mainCount) {
+                mainCurrency = currency;
+                mainCount = count;
+            }
+        }
+        return mainCurrency;
+    }
+
+    private static class Conversion {
+
+        final long mBalance;
+        final String mRateKey;
+        final boolean mHasRate;
+        final long mConverted;
+
+        Conversion(long balance, String rateKey, double rate) {
+            mBalance = balance;
+            mRateKey = rateKey;
+            mHasRate = !Double.isNaN(rate);
+            // both currencies are stored in hundredths, so only the rate applies
+            mConverted = mHasRate ? Math.round(balance * rate) : 0;
+        }
+    }
+}
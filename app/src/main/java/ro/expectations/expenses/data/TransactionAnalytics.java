@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+
+import io.realm.Realm;
+import io.realm.RealmChangeListener;
+import io.realm.RealmResults;
+import ro.expectations.expenses.model.Category;
+import ro.expectations.expenses.model.Payee;
+import ro.expectations.expenses.model.Project;
+import ro.expectations.expenses.model.Transaction;
+import ro.expectations.expenses.model.TransactionSplit;
+
+/**
+ * Keeps a {@link TransactionSnapshot} of all the transactions up to date, on a background thread.
+ *
+ * The snapshot is built once from a Realm instance owned by a {@link HandlerThread}. After every
+ * change of the transactions, only the ones updated since the last refresh are copied again, and
+ * new transactions are appended. Removed and changed transactions only have their old rows
+ * marked as removed, and the snapshot is built again from scratch once too many of its rows are.
+ * Every refresh that changed something publishes a new immutable snapshot, so readers never see
+ * a partial update.
+ *
+ * There is a single instance per process, so the snapshot survives the screens that show it.
+ */
+public class TransactionAnalytics {
+
+    private static final String TAG = TransactionAnalytics.class.getSimpleName();
+
+    public interface Listener {
+
+        /**
+         * Called on the main thread whenever a new snapshot was published.
+         */
+        void onSnapshotChanged(TransactionSnapshot snapshot);
+    }
+
+    private static TransactionAnalytics sInstance;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // only accessed from the main thread
+    private final List<Listener> mListeners = new ArrayList<>();
+
+    private Handler mHandler;
+    private volatile TransactionSnapshot mSnapshot;
+
+    // only accessed from the background thread
+    private Realm mRealm;
+    private RealmResults<Transaction> mTransactions;
+    private final TransactionSnapshot.Builder mBuilder = new TransactionSnapshot.Builder();
+    // the first row of every transaction
+    private final SparseIntArray mRows = new SparseIntArray();
+    private Date mMaxUpdatedAt;
+
+    private final RealmChangeListener<RealmResults<Transaction>> mChangeListener =
+            new RealmChangeListener<RealmResults<Transaction>>() {
+                @Override
+                public void onChange(RealmResults<Transaction> transactions) {
+                    refresh();
+                }
+            };
+
+    public static synchronized TransactionAnalytics getInstance() {
+        if (sInstance == null) {
+            sInstance = new TransactionAnalytics();
+        }
+        return sInstance;
+    }
+
+    private TransactionAnalytics() {
+    }
+
+    /**
+     * Build the snapshot in the background, unless it was already started.
+     */
+    public synchronized void start() {
+        if (mHandler != null) {
+            return;
+        }
+        HandlerThread thread = new HandlerThread("TransactionAnalytics");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mRealm = Realm.getDefaultInstance();
+                mTransactions = mRealm.where(Transaction.class).findAll();
+                mTransactions.addChangeListener(mChangeListener);
+                rebuild();
+            }
+        });
+    }
+
+    /**
+     * Listen to the snapshots, starting with the current one if it was already built. Must be
+     * called from the main thread.
+     */
+    public void addListener(Listener listener) {
+        start();
+        mListeners.add(listener);
+        TransactionSnapshot snapshot = mSnapshot;
+        if (snapshot != null) {
+            listener.onSnapshotChanged(snapshot);
+        }
+    }
+
+    /**
+     * Must be called from the main thread.
+     */
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * @return The latest snapshot, or null if it was not built yet
+     */
+    @Nullable
+    public TransactionSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
+    private void rebuild() {
+        long startedAt = System.currentTimeMillis();
+
+        mBuilder.clear();
+        mRows.clear();
+        mMaxUpdatedAt = null;
+        mBuilder.ensureCapacity(mTransactions.size());
+        for (Transaction transaction : mTransactions) {
+            put(transaction);
+        }
+        publish();
+
+        Log.i(TAG, "Built the snapshot of " + mRows.size() + " transactions in " + mBuilder.size() + " rows in "
+                + (System.currentTimeMillis() - startedAt) + "ms");
+    }
+
+    private void refresh() {
+        boolean changed = false;
+        RealmResults<Transaction> updated = mMaxUpdatedAt != null
+                ? mRealm.where(Transaction.class).greaterThanOrEqualTo(Transaction.UPDATED_AT, mMaxUpdatedAt).findAll()
+                : mTransactions;
+        for (Transaction transaction : updated) {
+            changed |= put(transaction);
+        }
+
+        if (mRows.size() > mTransactions.size()) {
+            changed |= removeMissing();
+        }
+
+        if (mRows.size() != mTransactions.size() || mBuilder.hasTooManyRemoved()) {
+            // some transactions were added without an update date, or too many rows are dead weight
+            rebuild();
+            return;
+        }
+        if (changed) {
+            publish();
+        }
+    }
+
+    /**
+     * Mark the rows of the transactions that no longer exist as removed. Realm does not report
+     * which objects were deleted, so only the ids of the transactions are read to find them.
+     *
+     * @return true if any row was removed
+     */
+    private boolean removeMissing() {
+        BitSet present = new BitSet(mBuilder.size());
+        for (Transaction transaction : mTransactions) {
+            int row = mRows.get(transaction.getId(), -1);
+            if (row >= 0) {
+                present.set(row);
+            }
+        }
+
+        boolean removed = false;
+        for (int row = present.nextClearBit(0); row < mBuilder.size(); row = present.nextClearBit(row + 1)) {
+            // only the first row of a transaction is marked as present
+            int id = mBuilder.getId(row);
+            if (!mBuilder.isRemoved(row) && mRows.get(id, -1) == row) {
+                mRows.delete(id);
+                mBuilder.removeTransaction(row);
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return true if the snapshot has to be published again
+     */
+    private boolean put(Transaction transaction) {
+        Date updatedAt = transaction.getUpdatedAt();
+        if (updatedAt != null && (mMaxUpdatedAt == null || updatedAt.after(mMaxUpdatedAt))) {
+            mMaxUpdatedAt = updatedAt;
+        }
+
+        int row = mRows.get(transaction.getId(), -1);
+        if (row >= 0) {
+            if (updatedAt != null && updatedAt.getTime() == mBuilder.getUpdatedAt(row)) {
+                return false;
+            }
+            // the number of splits may have changed, so the transaction gets new rows
+            mBuilder.removeTransaction(row);
+        }
+        mRows.put(transaction.getId(), append(transaction));
+        return true;
+    }
+
+    /**
+     * @return The first row of the transaction
+     */
+    private int append(Transaction transaction) {
+        int id = transaction.getId();
+        long occurredAt = transaction.getOccurredAt() != null ? transaction.getOccurredAt().getTime() : 0;
+        long updatedAt = transaction.getUpdatedAt() != null ? transaction.getUpdatedAt().getTime() : 0;
+        int fromAccountId = transaction.getFromAccountId();
+        int toAccountId = transaction.getToAccountId();
+        Payee payee = transaction.getPayee();
+        int payeeId = payee != null ? payee.getId() : 0;
+
+        if (fromAccountId != 0 && toAccountId != 0) {
+            return mBuilder.append(id, occurredAt, updatedAt, TransactionSnapshot.KIND_TRANSFER,
+                    transaction.getFromAmount(), fromAccountId, payeeId,
+                    getId(transaction.getCategory()), getId(transaction.getProject()));
+        }
+
+        byte kind = fromAccountId != 0 ? TransactionSnapshot.KIND_EXPENSE : TransactionSnapshot.KIND_INCOME;
+        int accountId = fromAccountId != 0 ? fromAccountId : toAccountId;
+        if (transaction.getSplits().isEmpty()) {
+            long amount = fromAccountId != 0 ? -transaction.getFromAmount() : transaction.getToAmount();
+            return mBuilder.append(id, occurredAt, updatedAt, kind, amount, accountId, payeeId,
+                    getId(transaction.getCategory()), getId(transaction.getProject()));
+        }
+
+        // splits are stored as expenses, so the splits of an income are negative, like in the
+        // MonthlyRollup
+        int firstRow = -1;
+        for (TransactionSplit split : transaction.getSplits()) {
+            int row = mBuilder.append(id, occurredAt, updatedAt, kind, -split.getAmount(), accountId,
+                    payeeId, getId(split.getCategory()), getId(split.getProject()));
+            if (firstRow < 0) {
+                firstRow = row;
+            }
+        }
+        return firstRow;
+    }
+
+    private static int getId(@Nullable Category category) {
+        return category != null ? category.getId() : 0;
+    }
+
+    private static int getId(@Nullable Project project) {
+        return project != null ? project.getId() : 0;
+    }
+
+    private void publish() {
+        final TransactionSnapshot snapshot = mBuilder.build();
+        mSnapshot = snapshot;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // a listener may remove itself
+                for (Listener listener : new ArrayList<>(mListeners)) {
+                    listener.onSnapshotChanged(snapshot);
+                }
+            }
+        });
+    }
+}
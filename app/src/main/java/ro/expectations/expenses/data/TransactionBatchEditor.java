@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import io.realm.Realm;
+import io.realm.RealmAsyncTask;
+import io.realm.RealmResults;
+import ro.expectations.expenses.model.Category;
+import ro.expectations.expenses.model.Transaction;
+
+/**
+ * Applies the same change to many transactions, e.g. to the ones selected in the transactions
+ * list.
+ *
+ * The transactions are changed in chunks, each in its own asynchronous write, so that even
+ * thousands of transactions never block the calling thread. The balances of the affected accounts
+ * are patched by the {@link BalanceEngine} in the same write as their chunk, so every commit
+ * leaves the database consistent.
+ *
+ * It must be used from the main thread, which also receives the callbacks of the
+ * {@link Listener}. There is a single editor per process and every batch holds its own Realm
+ * instance until it ends, so it is not interrupted when the screen that started it goes away; a
+ * recreated screen attaches its listener again with {@link #setListener}.
+ */
+public class TransactionBatchEditor {
+
+    private static final String TAG = TransactionBatchEditor.class.getSimpleName();
+
+    private static final int CHUNK_SIZE = 500;
+
+    public interface Listener {
+
+        /**
+         * Called after every committed chunk.
+         *
+         * @param done The number of transactions changed so far
+         * @param total The number of transactions to change
+         */
+        void onProgress(int done, int total);
+
+        /**
+         * Called once all the transactions were changed.
+         */
+        void onCompleted(int total);
+
+        /**
+         * Called when a chunk could not be committed. The chunks committed before it are kept.
+         */
+        void onFailed(Throwable error);
+    }
+
+    private static TransactionBatchEditor sInstance;
+
+    private Batch mBatch;
+    private Listener mListener;
+
+    public static synchronized TransactionBatchEditor getInstance() {
+        if (sInstance == null) {
+            sInstance = new TransactionBatchEditor();
+        }
+        return sInstance;
+    }
+
+    private TransactionBatchEditor() {
+    }
+
+    /**
+     * Delete transactions, along with their splits, and patch the balances and monthly totals.
+     */
+    public void delete(int[] transactionIds, Listener listener) {
+        start(new Batch(transactionIds) {
+            @Override
+            void apply(Realm realm, Integer[] ids) {
+                RealmResults<Transaction> transactions = realm.where(Transaction.class)
+                        .in(Transaction.ID, ids)
+                        .findAll();
+
+                BalanceEngine balanceEngine = new BalanceEngine(realm);
+                MonthlyRollup monthlyRollup = new MonthlyRollup(realm);
+                List<BalanceEngine.Position> positions = new ArrayList<>(transactions.size());
+                for (Transaction transaction : transactions) {
+                    positions.add(balanceEngine.capture(transaction));
+                    monthlyRollup.subtract(transaction);
+                    transaction.getSplits().deleteAllFromRealm();
+                }
+                transactions.deleteAllFromRealm();
+                balanceEngine.onDeleted(positions);
+            }
+        }, listener);
+    }
+
+    /**
+     * Move transactions to another category, along with their monthly totals. The balances are
+     * not affected.
+     *
+     * @param categoryId The id of the new category, or 0 to clear the category
+     */
+    public void recategorize(int[] transactionIds, final int categoryId, Listener listener) {
+        start(new Batch(transactionIds) {
+            @Override
+            void apply(Realm realm, Integer[] ids) {
+                Category category = realm.where(Category.class)
+                        .equalTo(Category.ID, categoryId)
+                        .findFirst();
+                MonthlyRollup monthlyRollup = new MonthlyRollup(realm);
+                Date now = new Date();
+                for (Transaction transaction : realm.where(Transaction.class).in(Transaction.ID, ids).findAll()) {
+                    monthlyRollup.subtract(transaction);
+                    transaction.setCategory(category);
+                    transaction.setUpdatedAt(now);
+                    monthlyRollup.add(transaction);
+                }
+            }
+        }, listener);
+    }
+
+    public boolean isRunning() {
+        return mBatch != null;
+    }
+
+    /**
+     * Replace the listener of the running batch, e.g. when the screen that started it was
+     * recreated. A new listener is told about the progress so far right away.
+     *
+     * @param listener The new listener, or null to stop receiving callbacks
+     */
+    public void setListener(@Nullable Listener listener) {
+        mListener = listener;
+        if (mBatch != null && listener != null) {
+            listener.onProgress(mBatch.mDone, mBatch.mTransactionIds.length);
+        }
+    }
+
+    /**
+     * Stop after the chunk being written. The chunks committed so far are kept.
+     */
+    public void cancel() {
+        if (mBatch != null) {
+            mBatch.cancel();
+        }
+    }
+
+    private void start(Batch batch, Listener listener) {
+        cancel();
+        mBatch = batch;
+        mListener = listener;
+        batch.next();
+    }
+
+    private abstract class Batch {
+
+        private final int[] mTransactionIds;
+        private final long mStartedAt = System.currentTimeMillis();
+
+        private Realm mRealm;
+        private int mDone;
+        private RealmAsyncTask mTask;
+        private boolean mCancelled;
+
+        Batch(int[] transactionIds) {
+            mTransactionIds = transactionIds;
+        }
+
+        /**
+         * Change a chunk of transactions, on the background thread of the write.
+         */
+        abstract void apply(Realm realm, Integer[] ids);
+
+        void next() {
+            if (mDone == mTransactionIds.length) {
+                Log.i(TAG, "Changed " + mDone + " transactions in " + (System.currentTimeMillis() - mStartedAt) + "ms");
+                Listener listener = mListener;
+                finish();
+                if (listener != null) {
+                    listener.onCompleted(mDone);
+                }
+                return;
+            }
+            if (mRealm == null) {
+                mRealm = Realm.getDefaultInstance();
+            }
+
+            final Integer[] ids = new Integer[Math.min(CHUNK_SIZE, mTransactionIds.length - mDone)];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = mTransactionIds[mDone + i];
+            }
+
+            mTask = mRealm.executeTransactionAsync(new Realm.Transaction() {
+                @Override
+                public void execute(Realm realm) {
+                    apply(realm, ids);
+                }
+            }, new Realm.Transaction.OnSuccess() {
+                @Override
+                public void onSuccess() {
+                    if (mCancelled) {
+                        return;
+                    }
+                    mDone += ids.length;
+                    if (mListener != null) {
+                        mListener.onProgress(mDone, mTransactionIds.length);
+                    }
+                    next();
+                }
+            }, new Realm.Transaction.OnError() {
+                @Override
+                public void onError(Throwable error) {
+                    if (mCancelled) {
+                        return;
+                    }
+                    Log.e(TAG, "Could not change transactions", error);
+                    Listener listener = mListener;
+                    finish();
+                    if (listener != null) {
+                        listener.onFailed(error);
+                    }
+                }
+            });
+        }
+
+        void cancel() {
+            mCancelled = true;
+            if (mTask != null) {
+                mTask.cancel();
+            }
+            finish();
+        }
+
+        private void finish() {
+            if (mBatch == this) {
+                mBatch = null;
+                mListener = null;
+            }
+            if (mRealm != null) {
+                mRealm.close();
+                mRealm = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * The rows, tokens and posting lists behind the {@link TransactionSearchIndex}.
+ *
+ * Every indexed version of a transaction is a row. The tokens of its notes point to the row
+ * directly, while the tokens of payees, categories and projects point to their ids, which in
+ * turn point to the rows of their transactions. Rows are never removed, only marked as dead.
+ *
+ * This class has no Android or Realm dependencies, so it can be exercised on the host JVM. It is
+ * not thread safe.
+ */
+class TransactionPostings {
+
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private int mSize;
+    private int[] mIds = new int[0];
+    private long[] mOccurredAt = new long[0];
+    private long[] mUpdatedAt = new long[0];
+    private final BitSet mDead = new BitSet();
+    private int mDeadCount;
+
+    private final TreeMap<String, IntList> mNoteTokens = new TreeMap<>();
+    private final TreeMap<String, EntityPostings> mEntityTokens = new TreeMap<>();
+    private final Map<Integer, IntList> mRowsByPayee = new HashMap<>();
+    private final Map<Integer, IntList> mRowsByCategory = new HashMap<>();
+    private final Map<Integer, IntList> mRowsByProject = new HashMap<>();
+    private final Map<Integer, IntList> mRowsByAccount = new HashMap<>();
+
+    /**
+     * Split a text into lower case tokens without accents.
+     */
+    static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String normalized = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        for (String token : SEPARATORS.split(normalized.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * @return The number of rows, including the dead ones
+     */
+    int size() {
+        return mSize;
+    }
+
+    int getDeadCount() {
+        return mDeadCount;
+    }
+
+    int getNoteTokenCount() {
+        return mNoteTokens.size();
+    }
+
+    long getUpdatedAt(int row) {
+        return mUpdatedAt[row];
+    }
+
+    /**
+     * Remove all the rows, but keep the tokens of the payees, categories and projects.
+     */
+    void clearRows() {
+        mSize = 0;
+        mDead.clear();
+        mDeadCount = 0;
+        mNoteTokens.clear();
+        mRowsByPayee.clear();
+        mRowsByCategory.clear();
+        mRowsByProject.clear();
+        mRowsByAccount.clear();
+    }
+
+    void clearEntityTokens() {
+        mEntityTokens.clear();
+    }
+
+    void ensureCapacity(int capacity) {
+        if (capacity > mIds.length) {
+            int newCapacity = Math.max(capacity, mIds.length * 2);
+            mIds = Arrays.copyOf(mIds, newCapacity);
+            mOccurredAt = Arrays.copyOf(mOccurredAt, newCapacity);
+            mUpdatedAt = Arrays.copyOf(mUpdatedAt, newCapacity);
+        }
+    }
+
+    /**
+     * @return The new row
+     */
+    int addRow(int transactionId, long occurredAt, long updatedAt) {
+        int row = mSize++;
+        ensureCapacity(mSize);
+        mIds[row] = transactionId;
+        mOccurredAt[row] = occurredAt;
+        mUpdatedAt[row] = updatedAt;
+        return row;
+    }
+
+    void markDead(int row) {
+        if (!mDead.get(row)) {
+            mDead.set(row);
+            mDeadCount++;
+        }
+    }
+
+    void addNoteTokens(int row, Set<String> tokens) {
+        for (String token : tokens) {
+            IntList rows = mNoteTokens.get(token);
+            if (rows == null) {
+                rows = new IntList();
+                mNoteTokens.put(token, rows);
+            }
+            rows.add(row);
+        }
+    }
+
+    void addPayee(int row, int payeeId) {
+        add(mRowsByPayee, payeeId, row);
+    }
+
+    void addCategory(int row, int categoryId) {
+        add(mRowsByCategory, categoryId, row);
+    }
+
+    void addProject(int row, int projectId) {
+        add(mRowsByProject, projectId, row);
+    }
+
+    void addAccount(int row, int accountId) {
+        add(mRowsByAccount, accountId, row);
+    }
+
+    void addPayeeTokens(int payeeId, Set<String> tokens) {
+        for (String token : tokens) {
+            getEntityPostings(token).mPayeeIds.add(payeeId);
+        }
+    }
+
+    void addCategoryTokens(int categoryId, Set<String> tokens) {
+        for (String token : tokens) {
+            getEntityPostings(token).mCategoryIds.add(categoryId);
+        }
+    }
+
+    void addProjectTokens(int projectId, Set<String> tokens) {
+        for (String token : tokens) {
+            getEntityPostings(token).mProjectIds.add(projectId);
+        }
+    }
+
+    /**
+     * Find the newest transactions that match all the words of a query.
+     *
+     * @param accountId The account the transactions must involve, or 0 for any account
+     * @param limit The maximum number of results
+     * @return The ids of the matching transactions, newest first
+     */
+    int[] find(String query, int accountId, int limit) {
+        Set<String> words = tokenize(query);
+        if (words.isEmpty() || mSize == 0 || limit <= 0) {
+            return new int[0];
+        }
+
+        BitSet matches = null;
+        for (String word : words) {
+            BitSet wordMatches = match(word);
+            if (matches == null) {
+                matches = wordMatches;
+            } else {
+                matches.and(wordMatches);
+            }
+        }
+        matches.andNot(mDead);
+        if (accountId != 0) {
+            BitSet accountRows = new BitSet(mSize);
+            IntList rows = mRowsByAccount.get(accountId);
+            if (rows != null) {
+                rows.setAll(accountRows);
+            }
+            matches.and(accountRows);
+        }
+
+        // keep the newest rows in a min heap
+        PriorityQueue<Integer> newest = new PriorityQueue<>(limit, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return compareRows(a, b);
+            }
+        });
+        for (int row = matches.nextSetBit(0); row >= 0; row = matches.nextSetBit(row + 1)) {
+            if (newest.size() < limit) {
+                newest.add(row);
+            } else if (compareRows(row, newest.peek()) > 0) {
+                newest.poll();
+                newest.add(row);
+            }
+        }
+
+        int[] transactionIds = new int[newest.size()];
+        for (int i = transactionIds.length - 1; i >= 0; i--) {
+            transactionIds[i] = mIds[newest.poll()];
+        }
+        return transactionIds;
+    }
+
+    /**
+     * Order rows by the date of their transaction, then by its id.
+     */
+    int compareRows(int a, int b) {
+        if (mOccurredAt[a] != mOccurredAt[b]) {
+            return mOccurredAt[a] < mOccurredAt[b] ? -1 : 1;
+        }
+        return mIds[a] < mIds[b] ? -1 : (mIds[a] == mIds[b] ? 0 : 1);
+    }
+
+    private BitSet match(String prefix) {
+        BitSet rows = new BitSet(mSize);
+        String end = prefix + Character.MAX_VALUE;
+        for (IntList noteRows : mNoteTokens.subMap(prefix, end).values()) {
+            noteRows.setAll(rows);
+        }
+        for (EntityPostings postings : mEntityTokens.subMap(prefix, end).values()) {
+            setRows(rows, mRowsByPayee, postings.mPayeeIds);
+            setRows(rows, mRowsByCategory, postings.mCategoryIds);
+            setRows(rows, mRowsByProject, postings.mProjectIds);
+        }
+        return rows;
+    }
+
+    private static void setRows(BitSet rows, Map<Integer, IntList> rowsByEntity, IntList entityIds) {
+        for (int i = 0; i < entityIds.mSize; i++) {
+            IntList entityRows = rowsByEntity.get(entityIds.mValues[i]);
+            if (entityRows != null) {
+                entityRows.setAll(rows);
+            }
+        }
+    }
+
+    private static void add(Map<Integer, IntList> rowsByEntity, int entityId, int row) {
+        IntList rows = rowsByEntity.get(entityId);
+        if (rows == null) {
+            rows = new IntList();
+            rowsByEntity.put(entityId, rows);
+        }
+        // the splits of a transaction may repeat its category or project
+        if (rows.mSize == 0 || rows.mValues[rows.mSize - 1] != row) {
+            rows.add(row);
+        }
+    }
+
+    private EntityPostings getEntityPostings(String token) {
+        EntityPostings postings = mEntityTokens.get(token);
+        if (postings == null) {
+            postings = new EntityPostings();
+            mEntityTokens.put(token, postings);
+        }
+        return postings;
+    }
+
+    private static class EntityPostings {
+        final IntList mPayeeIds = new IntList();
+        final IntList mCategoryIds = new IntList();
+        final IntList mProjectIds = new IntList();
+    }
+
+    private static class IntList {
+
+        int[] mValues = new int[4];
+        int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        void setAll(BitSet bits) {
+            for (int i = 0; i < mSize; i++) {
+                bits.set(mValues[i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+import android.util.SparseIntArray;
+
+import java.util.BitSet;
+import java.util.Date;
+import java.util.Set;
+
+import io.realm.Realm;
+import io.realm.RealmChangeListener;
+import io.realm.RealmModel;
+import io.realm.RealmResults;
+import ro.expectations.expenses.model.Category;
+import ro.expectations.expenses.model.Payee;
+import ro.expectations.expenses.model.Project;
+import ro.expectations.expenses.model.Transaction;
+import ro.expectations.expenses.model.TransactionSplit;
+
+/**
+ * In memory inverted index over the notes, payees, categories and projects of the transactions,
+ * for search as you type.
+ *
+ * Every word of a query matches the tokens it is a prefix of, in any of the indexed fields, and
+ * a transaction must match all the words. Tokens are compared in lower case and without accents.
+ *
+ * The index is built once on a background thread, with a Realm instance owned by a
+ * {@link HandlerThread}, and kept up to date after every change:
+ * <ul>
+ *     <li>a changed transaction is appended as a new row, and its old row is marked as dead,
+ *     so the posting lists only ever grow until the index is built again</li>
+ *     <li>payees, categories and projects are few, so their tokens are indexed again whenever
+ *     one of them changes, and point to the rows of their transactions</li>
+ * </ul>
+ * The rows and postings themselves live in {@link TransactionPostings}.
+ *
+ * The latest search is run again whenever a change to the database reaches the index, so its
+ * results follow the edits and deletes made while it is shown, until it is cancelled.
+ *
+ * Restores replace the whole database, so the index is suspended while they run and built again
+ * once they are done.
+ *
+ * There is a single index per process, so it survives the screens that search it.
+ */
+public class TransactionSearchIndex {
+
+    private static final String TAG = TransactionSearchIndex.class.getSimpleName();
+
+    // the index is built again once this share of its rows is dead
+    private static final float MAX_DEAD_RATIO = 0.25f;
+
+    public interface Callback {
+
+        /**
+         * Called on the main thread with the results of the latest search. The results of
+         * searches superseded by a newer one are dropped.
+         *
+         * @param transactionIds The ids of the matching transactions, newest first
+         */
+        void onSearchResults(String query, int[] transactionIds);
+    }
+
+    private static TransactionSearchIndex sInstance;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private Handler mHandler;
+    private volatile int mSearchGeneration;
+    private volatile boolean mSuspended;
+    private volatile Search mLatestSearch;
+
+    // only accessed from the background thread
+    private Realm mRealm;
+    private RealmResults<Transaction> mTransactions;
+    private RealmResults<Payee> mPayees;
+    private RealmResults<Category> mCategories;
+    private RealmResults<Project> mProjects;
+    private Date mMaxUpdatedAt;
+    private int mMaxId;
+    private boolean mChanged;
+
+    private final TransactionPostings mPostings = new TransactionPostings();
+    private final SparseIntArray mRows = new SparseIntArray();
+
+    private final RealmChangeListener<RealmResults<Transaction>> mTransactionsListener =
+            new RealmChangeListener<RealmResults<Transaction>>() {
+        @Override
+        public void onChange(RealmResults<Transaction> transactions) {
+            if (!mSuspended) {
+                refresh();
+                searchAgainIfChanged();
+            }
+        }
+    };
+
+    public static synchronized TransactionSearchIndex getInstance() {
+        if (sInstance == null) {
+            sInstance = new TransactionSearchIndex();
+        }
+        return sInstance;
+    }
+
+    private TransactionSearchIndex() {
+    }
+
+    /**
+     * Build the index in the background, unless it was already started.
+     */
+    public synchronized void start() {
+        if (mHandler != null) {
+            return;
+        }
+        HandlerThread thread = new HandlerThread("TransactionSearchIndex");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mRealm = Realm.getDefaultInstance();
+                mTransactions = mRealm.where(Transaction.class).findAll();
+                mPayees = mRealm.where(Payee.class).findAll();
+                mCategories = mRealm.where(Category.class).findAll();
+                mProjects = mRealm.where(Project.class).findAll();
+                mTransactions.addChangeListener(mTransactionsListener);
+                listen(mPayees);
+                listen(mCategories);
+                listen(mProjects);
+                rebuild();
+            }
+        });
+    }
+
+    /**
+     * Stop following the changes to the database, e.g. while a restore replaces all of it.
+     */
+    public void suspend() {
+        mSuspended = true;
+    }
+
+    /**
+     * Follow the changes to the database again, after building the index again once.
+     */
+    public synchronized void resume() {
+        mSuspended = false;
+        if (mHandler == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                rebuild();
+                searchAgainIfChanged();
+            }
+        });
+    }
+
+    /**
+     * Find the newest transactions that match a query. Must be called from the main thread.
+     *
+     * The search is run again, and the callback called again, after every change to the
+     * transactions until another search is started or {@link #cancelSearch(Callback)} is called.
+     *
+     * @param accountId The account the transactions must involve, or 0 for any account
+     * @param limit The maximum number of results
+     */
+    public void search(String query, long accountId, int limit, Callback callback) {
+        start();
+        Search search = new Search(query, (int) accountId, limit, callback);
+        mLatestSearch = search;
+        post(search, ++mSearchGeneration);
+    }
+
+    /**
+     * Drop the latest search and its pending results if they go to the given callback, e.g. once
+     * the screen that started it is gone. Must be called from the main thread.
+     */
+    public void cancelSearch(Callback callback) {
+        Search search = mLatestSearch;
+        if (search != null && search.mCallback == callback) {
+            mLatestSearch = null;
+            mSearchGeneration++;
+        }
+    }
+
+    private void post(final Search search, final int generation) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (generation != mSearchGeneration) {
+                    return;
+                }
+
+                long startedAt = System.currentTimeMillis();
+                final int[] transactionIds = mPostings.find(search.mQuery, search.mAccountId, search.mLimit);
+                Log.i(TAG, "Found " + transactionIds.length + " transactions for '" + search.mQuery + "' in "
+                        + (System.currentTimeMillis() - startedAt) + "ms");
+
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (generation == mSearchGeneration) {
+                            search.mCallback.onSearchResults(search.mQuery, transactionIds);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Run the latest search again on the background thread, if the index changed since it ran.
+     */
+    private void searchAgainIfChanged() {
+        if (!mChanged) {
+            return;
+        }
+        mChanged = false;
+        final Search search = mLatestSearch;
+        if (search == null) {
+            return;
+        }
+        // the generation is read on the main thread, so a newer search started meanwhile wins
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (search == mLatestSearch) {
+                    post(search, mSearchGeneration);
+                }
+            }
+        });
+    }
+
+    /**
+     * Index the tokens of the payees, categories and projects again whenever one of them changes.
+     */
+    private <E extends RealmModel> void listen(RealmResults<E> entities) {
+        entities.addChangeListener(new RealmChangeListener<RealmResults<E>>() {
+            @Override
+            public void onChange(RealmResults<E> results) {
+                if (!mSuspended) {
+                    indexEntities();
+                    searchAgainIfChanged();
+                }
+            }
+        });
+    }
+
+    private void rebuild() {
+        long startedAt = System.currentTimeMillis();
+
+        mPostings.clearRows();
+        mRows.clear();
+        mMaxUpdatedAt = null;
+        mMaxId = 0;
+
+        indexEntities();
+        mPostings.ensureCapacity(mTransactions.size());
+        for (Transaction transaction : mTransactions) {
+            put(transaction);
+        }
+
+        Log.i(TAG, "Indexed " + mPostings.size() + " transactions and " + mPostings.getNoteTokenCount()
+                + " note tokens in " + (System.currentTimeMillis() - startedAt) + "ms");
+    }
+
+    private void refresh() {
+        if (mMaxUpdatedAt != null) {
+            for (Transaction transaction : mRealm.where(Transaction.class)
+                    .greaterThanOrEqualTo(Transaction.UPDATED_AT, mMaxUpdatedAt)
+                    .findAll()) {
+                put(transaction);
+            }
+        }
+        if (mRows.size() < mTransactions.size()) {
+            // transactions were added without an update date, they get new ids
+            for (Transaction transaction : mRealm.where(Transaction.class)
+                    .greaterThan(Transaction.ID, mMaxId)
+                    .findAll()) {
+                put(transaction);
+            }
+        }
+        if (mRows.size() != mTransactions.size()) {
+            removeMissing();
+        }
+        if (mPostings.getDeadCount() > mPostings.size() * MAX_DEAD_RATIO
+                || mRows.size() != mTransactions.size()) {
+            rebuild();
+        }
+    }
+
+    /**
+     * Mark the rows of the transactions that no longer exist as dead. Realm does not report which
+     * objects were deleted, so only the ids of the transactions are read to find them.
+     */
+    private void removeMissing() {
+        BitSet present = new BitSet(mPostings.size());
+        for (Transaction transaction : mTransactions) {
+            int row = mRows.get(transaction.getId(), -1);
+            if (row >= 0) {
+                present.set(row);
+            }
+        }
+        for (int i = mRows.size() - 1; i >= 0; i--) {
+            if (!present.get(mRows.valueAt(i))) {
+                mPostings.markDead(mRows.valueAt(i));
+                mRows.removeAt(i);
+                mChanged = true;
+            }
+        }
+    }
+
+    private void put(Transaction transaction) {
+        Date updatedAt = transaction.getUpdatedAt();
+        long updatedAtMillis = updatedAt != null ? updatedAt.getTime() : 0;
+        if (updatedAt != null && (mMaxUpdatedAt == null || updatedAt.after(mMaxUpdatedAt))) {
+            mMaxUpdatedAt = updatedAt;
+        }
+        mMaxId = Math.max(mMaxId, transaction.getId());
+
+        int row = mRows.get(transaction.getId(), -1);
+        if (row >= 0) {
+            if (mPostings.getUpdatedAt(row) == updatedAtMillis) {
+                return;
+            }
+            mPostings.markDead(row);
+        }
+
+        Date occurredAt = transaction.getOccurredAt();
+        mChanged = true;
+        row = mPostings.addRow(transaction.getId(), occurredAt != null ? occurredAt.getTime() : 0,
+                updatedAtMillis);
+        mRows.put(transaction.getId(), row);
+
+        if (transaction.getFromAccountId() != 0) {
+            mPostings.addAccount(row, transaction.getFromAccountId());
+        }
+        if (transaction.getToAccountId() != 0 && transaction.getToAccountId() != transaction.getFromAccountId()) {
+            mPostings.addAccount(row, transaction.getToAccountId());
+        }
+
+        Set<String> tokens = TransactionPostings.tokenize(transaction.getNote());
+        if (transaction.getPayee() != null) {
+            mPostings.addPayee(row, transaction.getPayee().getId());
+        }
+        if (transaction.getCategory() != null) {
+            mPostings.addCategory(row, transaction.getCategory().getId());
+        }
+        if (transaction.getProject() != null) {
+            mPostings.addProject(row, transaction.getProject().getId());
+        }
+        for (TransactionSplit split : transaction.getSplits()) {
+            tokens.addAll(TransactionPostings.tokenize(split.getNote()));
+            if (split.getCategory() != null) {
+                mPostings.addCategory(row, split.getCategory().getId());
+            }
+            if (split.getProject() != null) {
+                mPostings.addProject(row, split.getProject().getId());
+            }
+        }
+        mPostings.addNoteTokens(row, tokens);
+    }
+
+    private void indexEntities() {
+        mChanged = true;
+        mPostings.clearEntityTokens();
+        for (Payee payee : mPayees) {
+            mPostings.addPayeeTokens(payee.getId(), TransactionPostings.tokenize(payee.getName()));
+        }
+        for (Category category : mCategories) {
+            // a search for a parent category finds the transactions of its children too
+            Set<String> tokens = TransactionPostings.tokenize(category.getName());
+            if (category.getParentCategory() != null) {
+                tokens.addAll(TransactionPostings.tokenize(category.getParentCategory().getName()));
+            }
+            mPostings.addCategoryTokens(category.getId(), tokens);
+        }
+        for (Project project : mProjects) {
+            mPostings.addProjectTokens(project.getId(), TransactionPostings.tokenize(project.getTitle()));
+        }
+    }
+
+    private static class Search {
+
+        private final String mQuery;
+        private final int mAccountId;
+        private final int mLimit;
+        private final Callback mCallback;
+
+        private Search(String query, int accountId, int limit, Callback callback) {
+            mQuery = query;
+            mAccountId = accountId;
+            mLimit = limit;
+            mCallback = callback;
+        }
+    }
+}
@@ -0,0 +1,531 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Immutable, column oriented copy of the transactions, for reports that group and add up large
+ * numbers of transactions without touching Realm.
+ *
+ * Every transaction is a row made of primitive values, stored in one array per column. The
+ * amount is signed from the point of view of the account of the row: negative for expenses,
+ * positive for income. A transfer is stored once, with the account it leaves and the amount it
+ * moves. A split expense or income has a row per split instead, with the category, the project
+ * and the amount of the split, so the sums per category and project agree with the
+ * {@link MonthlyRollup}. The rows of a transaction are always next to each other.
+ *
+ * Removed and changed transactions keep their rows, marked as removed, until the columns are
+ * built again.
+ *
+ * Snapshots are built and refreshed by {@link TransactionAnalytics} and can be queried from any
+ * thread. This class has no Android or Realm dependencies, so it can be exercised on the host JVM.
+ */
+public final class TransactionSnapshot {
+
+    public static final byte KIND_EXPENSE = 0;
+    public static final byte KIND_INCOME = 1;
+    public static final byte KIND_TRANSFER = 2;
+
+    public static final int BY_ACCOUNT = 0;
+    public static final int BY_CATEGORY = 1;
+    public static final int BY_PAYEE = 2;
+    public static final int BY_PROJECT = 3;
+    // the year and the month, as yyyymm
+    public static final int BY_MONTH = 4;
+
+    // rows scanned by every task of a parallel scan
+    private static final int CHUNK_SIZE = 16 * 1024;
+
+    // shared by all the snapshots and never shut down, so a snapshot can be queried for as long as
+    // it is referenced
+    private static ExecutorService sScanExecutor;
+
+    private final int mSize;
+    private final int mRowCount;
+    private final BitSet mRemoved;
+    private final int[] mIds;
+    private final byte[] mKinds;
+    private final long[] mAmounts;
+    private final int[] mAccountIds;
+    private final int[] mCategoryIds;
+    private final int[] mPayeeIds;
+    private final int[] mProjectIds;
+    private final int[] mMonths;
+    private final long[] mOccurredAt;
+
+    private TransactionSnapshot(Builder builder) {
+        mRowCount = builder.mSize;
+        mRemoved = (BitSet) builder.mRemoved.clone();
+        mSize = mRowCount - builder.mRemovedCount;
+        mIds = Arrays.copyOf(builder.mIds, mRowCount);
+        mKinds = Arrays.copyOf(builder.mKinds, mRowCount);
+        mAmounts = Arrays.copyOf(builder.mAmounts, mRowCount);
+        mAccountIds = Arrays.copyOf(builder.mAccountIds, mRowCount);
+        mCategoryIds = Arrays.copyOf(builder.mCategoryIds, mRowCount);
+        mPayeeIds = Arrays.copyOf(builder.mPayeeIds, mRowCount);
+        mProjectIds = Arrays.copyOf(builder.mProjectIds, mRowCount);
+        mMonths = Arrays.copyOf(builder.mMonths, mRowCount);
+        mOccurredAt = Arrays.copyOf(builder.mOccurredAt, mRowCount);
+    }
+
+    private static synchronized ExecutorService getScanExecutor() {
+        if (sScanExecutor == null) {
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+            sScanExecutor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    // the pool is never shut down, so it must not keep the process alive
+                    Thread thread = new Thread(runnable, "TransactionSnapshotScan");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sScanExecutor;
+    }
+
+    /**
+     * @return The number of rows in the snapshot, a split transaction has one per split
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return A query over all the rows of the snapshot, to be narrowed down with its filters
+     */
+    public Query query() {
+        return new Query();
+    }
+
+    private int[] getColumn(int column) {
+        switch (column) {
+            case BY_ACCOUNT:
+                return mAccountIds;
+            case BY_CATEGORY:
+                return mCategoryIds;
+            case BY_PAYEE:
+                return mPayeeIds;
+            case BY_PROJECT:
+                return mProjectIds;
+            case BY_MONTH:
+                return mMonths;
+            default:
+                throw new IllegalArgumentException("Unknown column " + column);
+        }
+    }
+
+    /**
+     * Filters and aggregations over the rows of a snapshot. Filters are combined with AND, and
+     * the aggregations scan the snapshot in parallel chunks.
+     */
+    public final class Query {
+
+        private long mFrom = Long.MIN_VALUE;
+        private long mTo = Long.MAX_VALUE;
+        private int mKindMask = 0;
+        private int mAccountId;
+        private BitSet mAccountIdSet;
+        private int mCategoryId;
+        private int mPayeeId;
+        private int mProjectId;
+
+        private Query() {
+        }
+
+        /**
+         * Keep the transactions that occurred in [from, to), in milliseconds.
+         */
+        public Query occurredBetween(long from, long to) {
+            mFrom = from;
+            mTo = to;
+            return this;
+        }
+
+        /**
+         * Keep the transactions of a kind. Can be called more than once to keep several kinds.
+         */
+        public Query kind(byte kind) {
+            mKindMask |= 1 << kind;
+            return this;
+        }
+
+        public Query account(int accountId) {
+            mAccountId = accountId;
+            return this;
+        }
+
+        /**
+         * Keep the transactions of any of the accounts, e.g. the accounts in a currency.
+         */
+        public Query accounts(int[] accountIds) {
+            mAccountIdSet = new BitSet();
+            for (int accountId : accountIds) {
+                mAccountIdSet.set(accountId);
+            }
+            return this;
+        }
+
+        public Query category(int categoryId) {
+            mCategoryId = categoryId;
+            return this;
+        }
+
+        public Query payee(int payeeId) {
+            mPayeeId = payeeId;
+            return this;
+        }
+
+        public Query project(int projectId) {
+            mProjectId = projectId;
+            return this;
+        }
+
+        /**
+         * @return The number of matching transactions, a split transaction is counted once
+         */
+        public int count() {
+            long[] totals = scan(new Aggregation() {
+                @Override
+                public long[] apply(int from, int to) {
+                    long count = 0;
+                    for (int i = from; i < to; i++) {
+                        // the previous split already counted the transaction, even in another chunk
+                        if (matches(i) && !(i > 0 && mIds[i - 1] == mIds[i] && matches(i - 1))) {
+                            count++;
+                        }
+                    }
+                    return new long[] {count};
+                }
+            });
+            return (int) totals[0];
+        }
+
+        /**
+         * @return The sum of the amounts of the matching rows
+         */
+        public long sum() {
+            long[] totals = scan(new Aggregation() {
+                @Override
+                public long[] apply(int from, int to) {
+                    long sum = 0;
+                    for (int i = from; i < to; i++) {
+                        if (matches(i)) {
+                            sum += mAmounts[i];
+                        }
+                    }
+                    return new long[] {sum};
+                }
+            });
+            return totals[0];
+        }
+
+        /**
+         * @param column One of the BY_* constants
+         * @return The sum of the amounts of the matching rows, per value of the column
+         */
+        public Sums sumBy(int column) {
+            final int[] keys = getColumn(column);
+            List<Sums> partials = scanChunks(new Callable1<Sums>() {
+                @Override
+                public Sums apply(int from, int to) {
+                    Sums sums = new Sums();
+                    for (int i = from; i < to; i++) {
+                        if (matches(i)) {
+                            sums.add(keys[i], mAmounts[i]);
+                        }
+                    }
+                    return sums;
+                }
+            });
+
+            Sums sums = partials.get(0);
+            for (int p = 1; p < partials.size(); p++) {
+                Sums partial = partials.get(p);
+                for (int i = 0; i < partial.size(); i++) {
+                    sums.add(partial.keyAt(i), partial.valueAt(i));
+                }
+            }
+            return sums;
+        }
+
+        private boolean matches(int i) {
+            return mOccurredAt[i] >= mFrom && mOccurredAt[i] < mTo
+                    && !mRemoved.get(i)
+                    && (mKindMask == 0 || (mKindMask & (1 << mKinds[i])) != 0)
+                    && (mAccountId == 0 || mAccountIds[i] == mAccountId)
+                    && (mAccountIdSet == null || mAccountIdSet.get(mAccountIds[i]))
+                    && (mCategoryId == 0 || mCategoryIds[i] == mCategoryId)
+                    && (mPayeeId == 0 || mPayeeIds[i] == mPayeeId)
+                    && (mProjectId == 0 || mProjectIds[i] == mProjectId);
+        }
+
+        private long[] scan(final Aggregation aggregation) {
+            List<long[]> partials = scanChunks(new Callable1<long[]>() {
+                @Override
+                public long[] apply(int from, int to) {
+                    return aggregation.apply(from, to);
+                }
+            });
+            long[] totals = partials.get(0);
+            for (int p = 1; p < partials.size(); p++) {
+                long[] partial = partials.get(p);
+                for (int i = 0; i < totals.length; i++) {
+                    totals[i] += partial[i];
+                }
+            }
+            return totals;
+        }
+
+        /**
+         * Run a task per chunk of rows, in parallel when there is more than one chunk.
+         */
+        private <T> List<T> scanChunks(final Callable1<T> task) {
+            List<T> results = new ArrayList<>();
+            if (mRowCount <= CHUNK_SIZE) {
+                results.add(task.apply(0, mRowCount));
+                return results;
+            }
+
+            List<Callable<T>> chunks = new ArrayList<>();
+            for (int start = 0; start < mRowCount; start += CHUNK_SIZE) {
+                final int from = start;
+                final int to = Math.min(start + CHUNK_SIZE, mRowCount);
+                chunks.add(new Callable<T>() {
+                    @Override
+                    public T call() {
+                        return task.apply(from, to);
+                    }
+                });
+            }
+            try {
+                for (Future<T> future : getScanExecutor().invokeAll(chunks)) {
+                    results.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while scanning transactions", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Could not scan transactions", e.getCause());
+            }
+            return results;
+        }
+    }
+
+    /**
+     * Sums per key, ordered by key.
+     */
+    public static final class Sums {
+
+        private int mSize;
+        private int[] mKeys = new int[8];
+        private long[] mValues = new long[8];
+
+        private Sums() {
+        }
+
+        public int size() {
+            return mSize;
+        }
+
+        public int keyAt(int index) {
+            return mKeys[index];
+        }
+
+        public long valueAt(int index) {
+            return mValues[index];
+        }
+
+        /**
+         * @return The sum of the key, 0 if there is none
+         */
+        public long get(int key) {
+            int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+            return index >= 0 ? mValues[index] : 0;
+        }
+
+        private void add(int key, long value) {
+            int index = Arrays.binarySearch(mKeys, 0, mSize, key);
+            if (index >= 0) {
+                mValues[index] += value;
+                return;
+            }
+            index = ~index;
+            if (mSize == mKeys.length) {
+                mKeys = Arrays.copyOf(mKeys, mSize * 2);
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            System.arraycopy(mKeys, index, mKeys, index + 1, mSize - index);
+            System.arraycopy(mValues, index, mValues, index + 1, mSize - index);
+            mKeys[index] = key;
+            mValues[index] = value;
+            mSize++;
+        }
+    }
+
+    private interface Aggregation {
+        long[] apply(int from, int to);
+    }
+
+    private interface Callable1<T> {
+        T apply(int from, int to);
+    }
+
+    /**
+     * Growable columns, written on the thread that owns the Realm instance of the
+     * {@link TransactionAnalytics}.
+     */
+    static final class Builder {
+
+        // the columns are built again once this share of their rows was removed
+        private static final float MAX_REMOVED_RATIO = 0.25f;
+
+        private final Calendar mCalendar = Calendar.getInstance();
+
+        private int mSize;
+        private int[] mIds = new int[0];
+        private byte[] mKinds = new byte[0];
+        private long[] mAmounts = new long[0];
+        private int[] mAccountIds = new int[0];
+        private int[] mCategoryIds = new int[0];
+        private int[] mPayeeIds = new int[0];
+        private int[] mProjectIds = new int[0];
+        private int[] mMonths = new int[0];
+        private long[] mOccurredAt = new long[0];
+        // not part of the snapshot, tells whether the rows have to be copied again
+        private long[] mUpdatedAt = new long[0];
+        private final BitSet mRemoved = new BitSet();
+        private int mRemovedCount;
+
+        /**
+         * @return The number of rows, including the removed ones
+         */
+        int size() {
+            return mSize;
+        }
+
+        int getRemovedCount() {
+            return mRemovedCount;
+        }
+
+        /**
+         * @return true if enough rows were removed for the columns to be worth building again
+         */
+        boolean hasTooManyRemoved() {
+            return mRemovedCount > mSize * MAX_REMOVED_RATIO;
+        }
+
+        int getId(int row) {
+            return mIds[row];
+        }
+
+        long getUpdatedAt(int row) {
+            return mUpdatedAt[row];
+        }
+
+        boolean isRemoved(int row) {
+            return mRemoved.get(row);
+        }
+
+        /**
+         * Remove all the rows of a transaction.
+         *
+         * @param firstRow The first row of the transaction
+         */
+        void removeTransaction(int firstRow) {
+            int id = mIds[firstRow];
+            for (int row = firstRow; row < mSize && mIds[row] == id && !mRemoved.get(row); row++) {
+                mRemoved.set(row);
+                mRemovedCount++;
+            }
+        }
+
+        void clear() {
+            mSize = 0;
+            mRemoved.clear();
+            mRemovedCount = 0;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (capacity > mIds.length) {
+                grow(capacity);
+            }
+        }
+
+        /**
+         * Add a row for a transaction, or for one of its splits right after the previous one.
+         *
+         * @param amount The signed amount, negative for expenses
+         * @return The new row
+         */
+        int append(int transactionId, long occurredAt, long updatedAt, byte kind, long amount,
+                   int accountId, int payeeId, int categoryId, int projectId) {
+            if (mSize == mIds.length) {
+                grow(Math.max(16, mSize * 2));
+            }
+            int row = mSize++;
+            mIds[row] = transactionId;
+            mOccurredAt[row] = occurredAt;
+            mUpdatedAt[row] = updatedAt;
+            mKinds[row] = kind;
+            mAmounts[row] = amount;
+            mAccountIds[row] = accountId;
+            mPayeeIds[row] = payeeId;
+            mCategoryIds[row] = categoryId;
+            mProjectIds[row] = projectId;
+            if (occurredAt != 0) {
+                // the same months as MonthlyRollup.monthOf()
+                mCalendar.setTimeInMillis(occurredAt);
+                mMonths[row] = mCalendar.get(Calendar.YEAR) * 100 + mCalendar.get(Calendar.MONTH) + 1;
+            } else {
+                mMonths[row] = 0;
+            }
+            return row;
+        }
+
+        TransactionSnapshot build() {
+            return new TransactionSnapshot(this);
+        }
+
+        private void grow(int capacity) {
+            mIds = Arrays.copyOf(mIds, capacity);
+            mKinds = Arrays.copyOf(mKinds, capacity);
+            mAmounts = Arrays.copyOf(mAmounts, capacity);
+            mAccountIds = Arrays.copyOf(mAccountIds, capacity);
+            mCategoryIds = Arrays.copyOf(mCategoryIds, capacity);
+            mPayeeIds = Arrays.copyOf(mPayeeIds, capacity);
+            mProjectIds = Arrays.copyOf(mProjectIds, capacity);
+            mMonths = Arrays.copyOf(mMonths, capacity);
+            mOccurredAt = Arrays.copyOf(mOccurredAt, capacity);
+            mUpdatedAt = Arrays.copyOf(mUpdatedAt, capacity);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.model;
+
+import io.realm.RealmObject;
+import io.realm.annotations.PrimaryKey;
+
+/**
+ * The balance of an account at the end of every day, from the day of its first transaction to
+ * the day of its last one.
+ *
+ * The balances are packed in a single binary field, read through
+ * {@link ro.expectations.expenses.data.BalanceSeries} and maintained by
+ * {@link ro.expectations.expenses.data.BalanceHistoryWriter}.
+ */
+public class BalanceHistory extends RealmObject {
+
+    public static final String ACCOUNT_ID = "accountId";
+    public static final String FIRST_DAY = "firstDay";
+    public static final String BALANCES = "balances";
+
+    @PrimaryKey
+    private int accountId;
+
+    // the number of days since 1970-01-01, in the local time zone
+    private int firstDay;
+    // one big endian long per day
+    private byte[] balances;
+
+    public int getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(int accountId) {
+        this.accountId = accountId;
+    }
+
+    public int getFirstDay() {
+        return firstDay;
+    }
+
+    public void setFirstDay(int firstDay) {
+        this.firstDay = firstDay;
+    }
+
+    public byte[] getBalances() {
+        return balances;
+    }
+
+    public void setBalances(byte[] balances) {
+        this.balances = balances;
+    }
+}
@@ -19,15 +19,19 @@
 
 package ro.expectations.expenses.model;
 
+import android.support.annotation.ColorInt;
+
 import io.realm.RealmObject;
 import io.realm.annotations.PrimaryKey;
 import io.realm.annotations.Required;
+import ro.expectations.expenses.utils.ColorUtils;
 
 public class Category extends RealmObject {
 
     public static final String ID = "id";
     public static final String NAME = "name";
     public static final String COLOR = "color";
+    public static final String COLOR_VALUE = "colorValue";
     public static final String ICON = "icon";
     public static final String PARENT_CATEGORY = "parentCategory";
 
@@ -36,6 +40,8 @@ public class Category extends RealmObject {
     @Required
     private String name;
     private String color;
+    // the parsed color, or 0 when the color is not set or invalid
+    private int colorValue;
     private String icon;
     private Category parentCategory;
 
@@ -61,6 +67,12 @@ public class Category extends RealmObject {
 
     public void setColor(String color) {
         this.color = color;
+        this.colorValue = ColorUtils.fromRGB(color, 0);
+    }
+
+    @ColorInt
+    public int getColorValue() {
+        return colorValue;
     }
 
     public String getIcon() {
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.model;
+
+import java.util.Calendar;
+
+import io.realm.RealmObject;
+import io.realm.annotations.Index;
+import io.realm.annotations.PrimaryKey;
+import io.realm.annotations.Required;
+
+/**
+ * The rate to convert an amount from a currency to another, as of a day.
+ *
+ * A rate applies from its day until the day of the next rate for the same currencies.
+ */
+public class ExchangeRate extends RealmObject {
+
+    public static final String ID = "id";
+    public static final String FROM_CURRENCY = "fromCurrency";
+    public static final String TO_CURRENCY = "toCurrency";
+    public static final String DAY = "day";
+    public static final String RATE = "rate";
+
+    @PrimaryKey
+    private String id;
+
+    @Required
+    @Index
+    private String fromCurrency;
+    @Required
+    @Index
+    private String toCurrency;
+    // the year, the month and the day of the month, as yyyymmdd
+    @Index
+    private int day;
+
+    private double rate;
+
+    /**
+     * @return The id of the rate between the currencies on the day
+     */
+    public static String idFor(String fromCurrency, String toCurrency, int day) {
+        return fromCurrency + ":" + toCurrency + ":" + day;
+    }
+
+    /**
+     * @return The day of the calendar, as yyyymmdd
+     */
+    public static int dayOf(Calendar calendar) {
+        return calendar.get(Calendar.YEAR) * 10000 + (calendar.get(Calendar.MONTH) + 1) * 100
+                + calendar.get(Calendar.DAY_OF_MONTH);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getFromCurrency() {
+        return fromCurrency;
+    }
+
+    public void setFromCurrency(String fromCurrency) {
+        this.fromCurrency = fromCurrency;
+    }
+
+    public String getToCurrency() {
+        return toCurrency;
+    }
+
+    public void setToCurrency(String toCurrency) {
+        this.toCurrency = toCurrency;
+    }
+
+    public int getDay() {
+        return day;
+    }
+
+    public void setDay(int day) {
+        this.day = day;
+    }
+
+    /**
+     * @return How much one unit of the source currency is worth in the target currency
+     */
+    public double getRate() {
+        return rate;
+    }
+
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.model;
+
+import java.util.Date;
+
+import io.realm.RealmObject;
+import io.realm.annotations.Index;
+import io.realm.annotations.PrimaryKey;
+
+/**
+ * One side of a transaction as seen from the account it affects, with the signed amount and the
+ * running balance of that account already worked out.
+ *
+ * A transfer has one entry for each of its accounts, any other transaction has a single entry.
+ * Exactly one entry per transaction is marked as primary, for lists that show all the accounts.
+ */
+public class LedgerEntry extends RealmObject {
+
+    public static final String ID = "id";
+    public static final String ACCOUNT_ID = "accountId";
+    public static final String TRANSACTION_ID = "transactionId";
+    public static final String TRANSACTION = "transaction";
+    public static final String AMOUNT = "amount";
+    public static final String RUNNING_BALANCE = "runningBalance";
+    public static final String OCCURRED_AT = "occurredAt";
+    public static final String IS_PRIMARY = "isPrimary";
+
+    public static final int SIDE_FROM = 0;
+    public static final int SIDE_TO = 1;
+
+    @PrimaryKey
+    private long id;
+
+    @Index
+    private int accountId;
+    private int transactionId;
+    private Transaction transaction;
+
+    private long amount;
+    private long runningBalance;
+
+    @Index
+    private Date occurredAt;
+    @Index
+    private boolean isPrimary;
+
+    /**
+     * @param transactionId The id of the transaction
+     * @param side Either {@link #SIDE_FROM} or {@link #SIDE_TO}
+     * @return The id of the entry for the side of the transaction
+     */
+    public static long idFor(int transactionId, int side) {
+        return ((long) transactionId << 1) | side;
+    }
+
+    public static int transactionIdOf(long id) {
+        return (int) (id >> 1);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public void setId(long id) {
+        this.id = id;
+    }
+
+    /**
+     * @return Either {@link #SIDE_FROM} or {@link #SIDE_TO}
+     */
+    public int getSide() {
+        return (int) (id & 1);
+    }
+
+    public int getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(int accountId) {
+        this.accountId = accountId;
+    }
+
+    public int getTransactionId() {
+        return transactionId;
+    }
+
+    public void setTransactionId(int transactionId) {
+        this.transactionId = transactionId;
+    }
+
+    public Transaction getTransaction() {
+        return transaction;
+    }
+
+    public void setTransaction(Transaction transaction) {
+        this.transaction = transaction;
+    }
+
+    public long getAmount() {
+        return amount;
+    }
+
+    public void setAmount(long amount) {
+        this.amount = amount;
+    }
+
+    public long getRunningBalance() {
+        return runningBalance;
+    }
+
+    public void setRunningBalance(long runningBalance) {
+        this.runningBalance = runningBalance;
+    }
+
+    public Date getOccurredAt() {
+        return occurredAt;
+    }
+
+    public void setOccurredAt(Date occurredAt) {
+        this.occurredAt = occurredAt;
+    }
+
+    public boolean isPrimary() {
+        return isPrimary;
+    }
+
+    public void setPrimary(boolean primary) {
+        isPrimary = primary;
+    }
+}
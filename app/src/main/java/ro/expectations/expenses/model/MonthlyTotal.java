@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.model;
+
+import io.realm.RealmObject;
+import io.realm.annotations.Index;
+import io.realm.annotations.PrimaryKey;
+
+/**
+ * The income and the expenses of an account in a month, for one category and project.
+ *
+ * Transfers between accounts are neither income nor expenses, so they are left out. The totals
+ * are maintained by {@link ro.expectations.expenses.data.MonthlyRollup}.
+ */
+public class MonthlyTotal extends RealmObject {
+
+    public static final String ID = "id";
+    public static final String ACCOUNT_ID = "accountId";
+    public static final String CATEGORY_ID = "categoryId";
+    public static final String PROJECT_ID = "projectId";
+    public static final String MONTH = "month";
+    public static final String CURRENCY = "currency";
+    public static final String INCOME = "income";
+    public static final String EXPENSE = "expense";
+    public static final String COUNT = "count";
+
+    @PrimaryKey
+    private String id;
+
+    @Index
+    private int accountId;
+    @Index
+    private int categoryId;
+    private int projectId;
+    // the year and the month, as yyyymm
+    @Index
+    private int month;
+    private String currency;
+
+    private long income;
+    private long expense;
+    private int count;
+
+    /**
+     * @return The id of the totals for the account, category, project, month and currency
+     */
+    public static String idFor(int accountId, int categoryId, int projectId, int month, String currency) {
+        return accountId + ":" + categoryId + ":" + projectId + ":" + month + ":" + currency;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public int getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(int accountId) {
+        this.accountId = accountId;
+    }
+
+    public int getCategoryId() {
+        return categoryId;
+    }
+
+    public void setCategoryId(int categoryId) {
+        this.categoryId = categoryId;
+    }
+
+    public int getProjectId() {
+        return projectId;
+    }
+
+    public void setProjectId(int projectId) {
+        this.projectId = projectId;
+    }
+
+    public int getMonth() {
+        return month;
+    }
+
+    public void setMonth(int month) {
+        this.month = month;
+    }
+
+    public String getCurrency() {
+        return currency;
+    }
+
+    public void setCurrency(String currency) {
+        this.currency = currency;
+    }
+
+    public long getIncome() {
+        return income;
+    }
+
+    public void setIncome(long income) {
+        this.income = income;
+    }
+
+    public long getExpense() {
+        return expense;
+    }
+
+    public void setExpense(long expense) {
+        this.expense = expense;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+}
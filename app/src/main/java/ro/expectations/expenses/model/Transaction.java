@@ -23,15 +23,18 @@ import java.util.Date;
 
 import io.realm.RealmList;
 import io.realm.RealmObject;
+import io.realm.annotations.Index;
 import io.realm.annotations.PrimaryKey;
 
 public class Transaction extends RealmObject {
 
     public static final String ID = "id";
     public static final String FROM_ACCOUNT = "fromAccount";
+    public static final String FROM_ACCOUNT_ID = "fromAccountId";
     public static final String FROM_AMOUNT = "fromAmount";
     public static final String FROM_RUNNING_BALANCE = "fromRunningBalance";
     public static final String TO_ACCOUNT = "toAccount";
+    public static final String TO_ACCOUNT_ID = "toAccountId";
     public static final String TO_AMOUNT = "toAmount";
     public static final String TO_RUNNING_BALANCE = "toRunningBalance";
     public static final String PAYEE = "payee";
@@ -49,10 +52,14 @@ public class Transaction extends RealmObject {
     private int id;
 
     private Account fromAccount;
+    @Index
+    private int fromAccountId;
     private long fromAmount;
     private long fromRunningBalance;
 
     private Account toAccount;
+    @Index
+    private int toAccountId;
     private long toAmount;
     private long toRunningBalance;
 
@@ -65,6 +72,7 @@ public class Transaction extends RealmObject {
     private String originalCurrency;
     private long originalAmount;
 
+    @Index
     private Date occurredAt;
     private Date clearedAt;
     private Date updatedAt;
@@ -85,6 +93,14 @@ public class Transaction extends RealmObject {
 
     public void setFromAccount(Account fromAccount) {
         this.fromAccount = fromAccount;
+        this.fromAccountId = fromAccount != null ? fromAccount.getId() : 0;
+    }
+
+    /**
+     * @return The id of the account the money is taken from, 0 if there is none
+     */
+    public int getFromAccountId() {
+        return fromAccountId;
     }
 
     public long getFromAmount() {
@@ -109,6 +125,14 @@ public class Transaction extends RealmObject {
 
     public void setToAccount(Account toAccount) {
         this.toAccount = toAccount;
+        this.toAccountId = toAccount != null ? toAccount.getId() : 0;
+    }
+
+    /**
+     * @return The id of the account the money goes to, 0 if there is none
+     */
+    public int getToAccountId() {
+        return toAccountId;
     }
 
     public long getToAmount() {
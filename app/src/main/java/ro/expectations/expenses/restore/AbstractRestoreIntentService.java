@@ -21,6 +21,7 @@ package ro.expectations.expenses.restore;
 
 import android.app.IntentService;
 import android.content.Intent;
+import android.support.v4.util.ArrayMap;
 import android.util.Log;
 
 import java.io.File;
@@ -32,15 +33,31 @@ import java.util.zip.GZIPInputStream;
 
 import io.realm.Realm;
 import ro.expectations.expenses.data.DataIntegrityFixer;
+import ro.expectations.expenses.data.TransactionSearchIndex;
+import ro.expectations.expenses.model.RestoreCheckpoint;
 
 public abstract class AbstractRestoreIntentService extends IntentService {
 
     public static final String ARG_FILE_URI = "arg_file_uri";
+    public static final String ARG_BATCH_SIZE = "arg_batch_size";
 
     protected static final String TAG = AbstractRestoreIntentService.class.getSimpleName();
 
+    protected static final int DEFAULT_BATCH_SIZE = 1000;
+
     protected Realm realm;
 
+    private String mSource;
+    private int mBatchSize;
+    private int mPendingEntities;
+    private long mPeakHeapUsage;
+
+    // checkpoints left behind by an interrupted restore of the same file
+    private final ArrayMap<String, Integer> mResumeCheckpoints = new ArrayMap<>();
+
+    // last entity written per table in the batch that is currently open
+    private final ArrayMap<String, int[]> mBatchCheckpoints = new ArrayMap<>();
+
     public AbstractRestoreIntentService() {
         super("RestoreIntentService");
     }
@@ -49,23 +66,59 @@ public abstract class AbstractRestoreIntentService extends IntentService {
     protected void onHandleIntent(Intent intent) {
 
         realm = Realm.getDefaultInstance();
+        mPeakHeapUsage = 0;
+        mPendingEntities = 0;
+        mBatchCheckpoints.clear();
+
+        // the search index would otherwise follow every batch of the restore
+        TransactionSearchIndex.getInstance().suspend();
 
         String filePath = intent.getStringExtra(AbstractRestoreIntentService.ARG_FILE_URI);
         File file = new File(filePath);
+        mSource = file.getAbsolutePath() + ":" + file.length() + ":" + file.lastModified();
+        mBatchSize = Math.max(1, intent.getIntExtra(ARG_BATCH_SIZE, DEFAULT_BATCH_SIZE));
+        boolean restored = false;
         try {
             FileInputStream inputStream = new FileInputStream(file);
             InputStream decompressedStream = decompressStream(inputStream);
-            emptyDatabase();
+            if (loadCheckpoints()) {
+                Log.i(TAG, "Resuming interrupted restore of " + filePath);
+            } else {
+                emptyDatabase();
+            }
             process(decompressedStream);
-        } catch(IOException e) {
-            realm.close();
+            clearCheckpoints();
+            restored = true;
+        } catch (IOException e) {
             notifyFailure(e);
+        } catch (RuntimeException e) {
+            // e.g. a Realm error or a malformed row, the checkpoints let the next attempt resume
+            Log.e(TAG, "Failed to restore " + filePath, e);
+            notifyFailure(e);
+        } finally {
+            if (realm.isInTransaction()) {
+                realm.cancelTransaction();
+            }
+            realm.close();
+            if (!restored) {
+                TransactionSearchIndex.getInstance().resume();
+            }
+        }
+        if (!restored) {
             return;
         }
 
-        realm.close();
+        sampleHeapUsage();
+        Log.i(TAG, "Peak heap usage while restoring: " + (mPeakHeapUsage / 1024) + "KB");
 
-        new DataIntegrityFixer(this).fix();
+        TransactionSearchIndex searchIndex = TransactionSearchIndex.getInstance();
+        try {
+            new DataIntegrityFixer(this).fix();
+        } finally {
+            // the search index is built again in the background while the user looks at the results
+            searchIndex.resume();
+            searchIndex.start();
+        }
 
         notifySuccess();
     }
@@ -94,9 +147,142 @@ public abstract class AbstractRestoreIntentService extends IntentService {
         Log.i(TAG, "Finished emptying existing database");
     }
 
+    /**
+     * Check if this restore continues a previous one that was interrupted.
+     *
+     * @return true if the database already contains the entities of a previous restore of the
+     * same file, false otherwise
+     */
+    protected boolean isResuming() {
+        return !mResumeCheckpoints.isEmpty();
+    }
+
+    /**
+     * Check if a previous, interrupted, restore of the same file has committed entities from the
+     * specified table.
+     *
+     * @param table The name of the table from the backup file
+     * @return true if a checkpoint exists for the table, false otherwise
+     */
+    protected boolean hasCheckpoint(String table) {
+        return mResumeCheckpoints.containsKey(table);
+    }
+
+    /**
+     * Check if an entity was already committed by a previous, interrupted, restore of the same
+     * file.
+     *
+     * The tables of a backup are ordered by id, so every entity up to and including the
+     * checkpoint of the table is reported as committed, even if the entity of the checkpoint
+     * itself is missing from the file.
+     *
+     * @param table The name of the table from the backup file
+     * @param id The id of the entity
+     * @return true if the entity should be skipped, false otherwise
+     */
+    protected boolean isCommitted(String table, int id) {
+        Integer lastId = mResumeCheckpoints.get(table);
+        return lastId != null && id <= lastId;
+    }
+
+    /**
+     * Open a write transaction for the next batch, unless one is already open.
+     */
+    protected void beginBatch() {
+        if (!realm.isInTransaction()) {
+            realm.beginTransaction();
+        }
+    }
+
+    /**
+     * Record that an entity was written in the current batch, and commit the batch once it
+     * reaches the configured size.
+     *
+     * @param table The name of the table from the backup file
+     * @param id The id of the entity
+     */
+    protected void onEntityWritten(String table, int id) {
+        setCheckpoint(table, id);
+        mPendingEntities++;
+        if (mPendingEntities >= mBatchSize) {
+            commitBatch();
+        }
+    }
+
+    /**
+     * Set the checkpoint that will be committed for a table together with the current batch.
+     *
+     * @param table The name of the table from the backup file
+     * @param id The id of the last entity of the table, in file order, written in this batch
+     */
+    protected void setCheckpoint(String table, int id) {
+        int[] lastId = mBatchCheckpoints.get(table);
+        if (lastId == null) {
+            lastId = new int[1];
+            mBatchCheckpoints.put(table, lastId);
+        }
+        lastId[0] = id;
+    }
+
+    /**
+     * Commit the current batch, if any, together with the checkpoints of its tables.
+     */
+    protected void commitBatch() {
+        if (!realm.isInTransaction()) {
+            return;
+        }
+
+        for (int i = 0; i < mBatchCheckpoints.size(); i++) {
+            String table = mBatchCheckpoints.keyAt(i);
+            RestoreCheckpoint checkpoint = realm.where(RestoreCheckpoint.class)
+                    .equalTo(RestoreCheckpoint.TABLE_NAME, table)
+                    .findFirst();
+            if (checkpoint == null) {
+                checkpoint = realm.createObject(RestoreCheckpoint.class, table);
+            }
+            checkpoint.setSource(mSource);
+            checkpoint.setLastId(mBatchCheckpoints.valueAt(i)[0]);
+        }
+        realm.commitTransaction();
+
+        mBatchCheckpoints.clear();
+        mPendingEntities = 0;
+        sampleHeapUsage();
+    }
+
+    /**
+     * Record the current heap usage, so that the peak can be reported once the restore finishes.
+     */
+    protected void sampleHeapUsage() {
+        Runtime runtime = Runtime.getRuntime();
+        long heapUsage = runtime.totalMemory() - runtime.freeMemory();
+        if (heapUsage > mPeakHeapUsage) {
+            mPeakHeapUsage = heapUsage;
+        }
+    }
+
     protected abstract void process(InputStream input) throws IOException;
 
     protected abstract void notifySuccess();
 
     protected abstract void notifyFailure(Exception e);
+
+    private boolean loadCheckpoints() {
+        mResumeCheckpoints.clear();
+        for (RestoreCheckpoint checkpoint : realm.where(RestoreCheckpoint.class).findAll()) {
+            if (!mSource.equals(checkpoint.getSource())) {
+                // the checkpoints belong to a different backup file
+                mResumeCheckpoints.clear();
+                break;
+            }
+            mResumeCheckpoints.put(checkpoint.getTableName(), checkpoint.getLastId());
+        }
+        return !mResumeCheckpoints.isEmpty();
+    }
+
+    private void clearCheckpoints() {
+        realm.beginTransaction();
+        realm.delete(RestoreCheckpoint.class);
+        realm.commitTransaction();
+    }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.restore;
+
+import java.util.Arrays;
+
+/**
+ * Resolves the parent of every category from the nested set intervals of a Financisto backup.
+ *
+ * The categories are visited in increasing order of their left value while keeping the chain of
+ * enclosing intervals on a stack, so the ancestors of a category are exactly the entries left on
+ * the stack once the intervals that ended before it are popped.
+ */
+final class CategoryHierarchy {
+
+    private CategoryHierarchy() {
+    }
+
+    /**
+     * @param ids The category ids
+     * @param lefts The left value of every category
+     * @param rights The right value of every category
+     * @param depths Filled with the number of categories that enclose every category
+     * @param ancestorIds Filled with the id of the parent of every category, or the id of its
+     *                    second level ancestor when it is nested deeper than two levels, 0 for
+     *                    top level categories
+     */
+    static void resolve(int[] ids, int[] lefts, int[] rights, int[] depths, int[] ancestorIds) {
+        int count = ids.length;
+
+        // sort on the left value, keeping the position in the lower bits
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = ((long) lefts[i] << 32) | i;
+        }
+        Arrays.sort(order);
+
+        int[] stack = new int[count];
+        int depth = 0;
+        for (long key : order) {
+            int index = (int) key;
+            int left = lefts[index];
+            while (depth > 0 && !encloses(lefts[stack[depth - 1]], rights[stack[depth - 1]], left)) {
+                depth--;
+            }
+
+            depths[index] = depth;
+            ancestorIds[index] = depth == 0 ? 0 : ids[stack[Math.min(depth, 2) - 1]];
+            stack[depth++] = index;
+        }
+    }
+
+    private static boolean encloses(int left, int right, int value) {
+        return left < value && value < right;
+    }
+}
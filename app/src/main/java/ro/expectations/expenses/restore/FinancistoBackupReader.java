@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.restore;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Tokenizer for Financisto backup files.
+ *
+ * The backup is scanned straight from a reused byte buffer. Table and column names are matched
+ * against a fixed symbol table and numeric values are parsed in place, so only the text columns
+ * that the import actually uses allocate a String. Unknown tables and columns are skipped.
+ *
+ * This class has no Android dependencies, so it can be exercised on the host JVM.
+ */
+public class FinancistoBackupReader implements Closeable {
+
+    /**
+     * The tables that the reader recognizes.
+     */
+    public static final class Table {
+        public static final int UNKNOWN = -1;
+        public static final int ACCOUNT = 0;
+        public static final int CATEGORY = 1;
+        public static final int CURRENCY = 2;
+        public static final int PAYEE = 3;
+        public static final int PROJECT = 4;
+        public static final int TRANSACTIONS = 5;
+        public static final int CURRENCY_EXCHANGE_RATE = 6;
+
+        private Table() {
+        }
+    }
+
+    /**
+     * The columns that the reader recognizes, across all tables.
+     */
+    public static final class Column {
+        public static final int UNKNOWN = -1;
+        public static final int ID = 0;
+        public static final int TITLE = 1;
+        public static final int NAME = 2;
+        public static final int NOTE = 3;
+        public static final int TYPE = 4;
+        public static final int CARD_ISSUER = 5;
+        public static final int LEFT = 6;
+        public static final int RIGHT = 7;
+        public static final int CURRENCY_ID = 8;
+        public static final int TOTAL_AMOUNT = 9;
+        public static final int IS_ACTIVE = 10;
+        public static final int IS_INCLUDE_INTO_TOTALS = 11;
+        public static final int SORT_ORDER = 12;
+        public static final int CREATION_DATE = 13;
+        public static final int UPDATED_ON = 14;
+        public static final int LAST_CATEGORY_ID = 15;
+        public static final int FROM_ACCOUNT_ID = 16;
+        public static final int FROM_AMOUNT = 17;
+        public static final int TO_ACCOUNT_ID = 18;
+        public static final int TO_AMOUNT = 19;
+        public static final int PARENT_ID = 20;
+        public static final int CATEGORY_ID = 21;
+        public static final int PAYEE_ID = 22;
+        public static final int PROJECT_ID = 23;
+        public static final int ORIGINAL_CURRENCY_ID = 24;
+        public static final int ORIGINAL_FROM_AMOUNT = 25;
+        public static final int DATETIME = 26;
+        public static final int IS_TEMPLATE = 27;
+        public static final int FROM_CURRENCY_ID = 28;
+        public static final int TO_CURRENCY_ID = 29;
+        public static final int RATE_DATE = 30;
+        public static final int RATE = 31;
+
+        private static final int COUNT = 32;
+
+        private Column() {
+        }
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    // indexed by the Table constants
+    private static final SymbolTable TABLES = new SymbolTable(new String[] {
+            "account", "category", "currency", "payee", "project", "transactions",
+            "currency_exchange_rate"
+    });
+
+    // indexed by the Column constants
+    private static final SymbolTable COLUMNS = new SymbolTable(new String[] {
+            "_id", "title", "name", "note", "type", "card_issuer", "left", "right",
+            "currency_id", "total_amount", "is_active", "is_include_into_totals", "sort_order",
+            "creation_date", "updated_on", "last_category_id", "from_account_id", "from_amount",
+            "to_account_id", "to_amount", "parent_id", "category_id", "payee_id", "project_id",
+            "original_currency_id", "original_from_amount", "datetime", "is_template",
+            "from_currency_id", "to_currency_id", "rate_date", "rate"
+    });
+
+    // columns whose values are decoded as text, all the others are parsed as numbers
+    private static final long TEXT_COLUMNS = (1L << Column.TITLE) | (1L << Column.NAME)
+            | (1L << Column.NOTE) | (1L << Column.TYPE) | (1L << Column.CARD_ISSUER)
+            | (1L << Column.RATE);
+
+    private final InputStream mInput;
+    private byte[] mBuffer;
+    private int mPosition;
+    private int mLimit;
+    private boolean mEndOfStream;
+
+    private int mLineStart;
+    private int mLineEnd;
+
+    public FinancistoBackupReader(InputStream input) {
+        this(input, DEFAULT_BUFFER_SIZE);
+    }
+
+    public FinancistoBackupReader(InputStream input, int bufferSize) {
+        mInput = input;
+        mBuffer = new byte[Math.max(bufferSize, 16)];
+    }
+
+    /**
+     * Read the next entity that belongs to one of the known tables.
+     *
+     * @param entity The entity to fill in, its previous values are discarded
+     * @return true if an entity was read, false once the end of the backup was reached
+     * @throws IOException If the backup could not be read
+     */
+    public boolean readEntity(Entity entity) throws IOException {
+        boolean insideEntity = false;
+        while (nextLine()) {
+            int start = mLineStart;
+            int end = mLineEnd;
+            if (end > start && mBuffer[start] == '$') {
+                if (end - start == 2 && mBuffer[start + 1] == '$') {
+                    if (insideEntity && entity.mTable != Table.UNKNOWN && entity.mPresent != 0) {
+                        return true;
+                    }
+                    insideEntity = false;
+                } else {
+                    int separator = indexOf((byte) ':', start, end);
+                    if (separator > start) {
+                        entity.clear();
+                        entity.mTable = TABLES.lookup(mBuffer, separator + 1, end);
+                        insideEntity = true;
+                    }
+                }
+            } else if (insideEntity && entity.mTable != Table.UNKNOWN) {
+                int separator = indexOf((byte) ':', start, end);
+                if (separator > start) {
+                    int column = COLUMNS.lookup(mBuffer, start, separator);
+                    if (column != Column.UNKNOWN) {
+                        entity.set(column, mBuffer, separator + 1, end);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mInput.close();
+    }
+
+    private boolean nextLine() throws IOException {
+        while (true) {
+            int newline = indexOf((byte) '\n', mPosition, mLimit);
+            if (newline >= 0) {
+                setLine(mPosition, newline);
+                mPosition = newline + 1;
+                return true;
+            }
+            if (mEndOfStream) {
+                if (mPosition < mLimit) {
+                    setLine(mPosition, mLimit);
+                    mPosition = mLimit;
+                    return true;
+                }
+                return false;
+            }
+            fill();
+        }
+    }
+
+    private void setLine(int start, int end) {
+        if (end > start && mBuffer[end - 1] == '\r') {
+            end--;
+        }
+        mLineStart = start;
+        mLineEnd = end;
+    }
+
+    private void fill() throws IOException {
+        if (mPosition > 0) {
+            // keep the partial line at the start of the buffer
+            System.arraycopy(mBuffer, mPosition, mBuffer, 0, mLimit - mPosition);
+            mLimit -= mPosition;
+            mPosition = 0;
+        } else if (mLimit == mBuffer.length) {
+            // a single line does not fit in the buffer
+            mBuffer = Arrays.copyOf(mBuffer, mBuffer.length * 2);
+        }
+
+        int read = mInput.read(mBuffer, mLimit, mBuffer.length - mLimit);
+        if (read < 0) {
+            mEndOfStream = true;
+        } else {
+            mLimit += read;
+        }
+    }
+
+    private int indexOf(byte b, int start, int end) {
+        byte[] buffer = mBuffer;
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A single backup entity, meant to be reused across {@link #readEntity} calls.
+     */
+    public static final class Entity {
+
+        private int mTable = Table.UNKNOWN;
+        private long mPresent;
+        private final long[] mNumbers = new long[Column.COUNT];
+        private final String[] mStrings = new String[Column.COUNT];
+
+        /**
+         * @return One of the {@link Table} constants
+         */
+        public int getTable() {
+            return mTable;
+        }
+
+        /**
+         * @param column One of the {@link Column} constants
+         * @return true if the entity has a value for the column, false otherwise
+         */
+        public boolean has(int column) {
+            return (mPresent & (1L << column)) != 0;
+        }
+
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        public long getLong(int column) {
+            return has(column) ? mNumbers[column] : 0;
+        }
+
+        public String getString(int column) {
+            return has(column) ? mStrings[column] : null;
+        }
+
+        void clear() {
+            mTable = Table.UNKNOWN;
+            mPresent = 0;
+            Arrays.fill(mStrings, null);
+        }
+
+        private void set(int column, byte[] buffer, int start, int end) {
+            if ((TEXT_COLUMNS & (1L << column)) != 0) {
+                mStrings[column] = start == end ? "" : new String(buffer, start, end - start, UTF_8);
+                mPresent |= 1L << column;
+                return;
+            }
+
+            if (start == end) {
+                return;
+            }
+            boolean negative = buffer[start] == '-';
+            int i = negative ? start + 1 : start;
+            if (i == end) {
+                return;
+            }
+            long value = 0;
+            for (; i < end; i++) {
+                int digit = buffer[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    // not a number, e.g. an empty reference
+                    return;
+                }
+                value = value * 10 + digit;
+            }
+            mNumbers[column] = negative ? -value : value;
+            mPresent |= 1L << column;
+        }
+    }
+
+    /**
+     * Open addressing hash table that maps the bytes of a name to its index, without having to
+     * decode the name first.
+     */
+    private static final class SymbolTable {
+
+        private final byte[][] mSymbols;
+        // symbol index + 1, 0 marks an empty slot
+        private final int[] mSlots;
+        private final int mMask;
+
+        SymbolTable(String[] symbols) {
+            int size = 1;
+            while (size < symbols.length * 4) {
+                size <<= 1;
+            }
+            mSymbols = new byte[symbols.length][];
+            mSlots = new int[size];
+            mMask = size - 1;
+
+            for (int i = 0; i < symbols.length; i++) {
+                byte[] symbol = symbols[i].getBytes(UTF_8);
+                mSymbols[i] = symbol;
+                int slot = hash(symbol, 0, symbol.length) & mMask;
+                while (mSlots[slot] != 0) {
+                    slot = (slot + 1) & mMask;
+                }
+                mSlots[slot] = i + 1;
+            }
+        }
+
+        int lookup(byte[] buffer, int start, int end) {
+            int slot = hash(buffer, start, end) & mMask;
+            while (mSlots[slot] != 0) {
+                int index = mSlots[slot] - 1;
+                if (matches(mSymbols[index], buffer, start, end)) {
+                    return index;
+                }
+                slot = (slot + 1) & mMask;
+            }
+            return -1;
+        }
+
+        private static int hash(byte[] buffer, int start, int end) {
+            int h = 0;
+            for (int i = start; i < end; i++) {
+                h = 31 * h + buffer[i];
+            }
+            return h ^ (h >>> 16);
+        }
+
+        private static boolean matches(byte[] symbol, byte[] buffer, int start, int end) {
+            if (symbol.length != end - start) {
+                return false;
+            }
+            for (int i = 0; i < symbol.length; i++) {
+                if (symbol[i] != buffer[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -23,36 +23,36 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.content.LocalBroadcastManager;
-import android.support.v4.util.ArrayMap;
 import android.support.v4.util.LongSparseArray;
 import android.util.Log;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.util.SparseIntArray;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Currency;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
-import io.realm.RealmList;
+import io.realm.RealmResults;
 import ro.expectations.expenses.R;
 import ro.expectations.expenses.model.Account;
 import ro.expectations.expenses.model.AccountType;
 import ro.expectations.expenses.model.CardType;
 import ro.expectations.expenses.model.Category;
+import ro.expectations.expenses.model.ExchangeRate;
 import ro.expectations.expenses.model.OnlineAccountType;
 import ro.expectations.expenses.model.Payee;
 import ro.expectations.expenses.model.Project;
 import ro.expectations.expenses.model.Transaction;
 import ro.expectations.expenses.model.TransactionSplit;
+import ro.expectations.expenses.restore.FinancistoBackupReader.Column;
+import ro.expectations.expenses.restore.FinancistoBackupReader.Table;
 import ro.expectations.expenses.utils.ColorUtils;
 
 public class FinancistoImportIntentService extends AbstractRestoreIntentService {
@@ -62,59 +62,79 @@ public class FinancistoImportIntentService extends AbstractRestoreIntentService
 
     private static final String TAG = FinancistoImportIntentService.class.getSimpleName();
 
-    private final Map<String, String> mCurrencies = new ArrayMap<>();
+    private static final String TABLE_CATEGORY = "category";
+    private static final String TABLE_CURRENCY = "currency";
+    private static final String TABLE_ACCOUNT = "account";
+    private static final String TABLE_PAYEE = "payee";
+    private static final String TABLE_PROJECT = "project";
+    private static final String TABLE_TRANSACTIONS = "transactions";
+
+    // Lookup tables are small, so they are buffered until the first transaction is parsed.
+    private final SparseArray<String> mCurrencies = new SparseArray<>();
     private final List<Bundle> mAccounts = new ArrayList<>();
     private final List<Bundle> mPayees = new ArrayList<>();
     private final List<Bundle> mProjects = new ArrayList<>();
     private final List<Bundle> mCategories = new ArrayList<>();
+    private final List<Bundle> mExchangeRates = new ArrayList<>();
     private final SparseIntArray mMigrateCategories = new SparseIntArray();
-    private final List<Bundle> mTransactions = new ArrayList<>();
-    private final SparseArray<List<Bundle>> mTransactionSplits = new SparseArray<>();
+
+    private final ReferenceCache mReferences = new ReferenceCache();
+
+    // Transactions that own splits, mapped to whether the parent row itself was already written.
+    private final SparseBooleanArray mSplitParents = new SparseBooleanArray();
+
+    private boolean mLookupTablesWritten;
+    private int mTransactionCount;
+    private long mTransactionPhaseStart;
 
     @Override
     protected void process(InputStream input) throws IOException {
 
-        InputStreamReader reader = new InputStreamReader(input, "UTF-8");
-        try (BufferedReader br = new BufferedReader(reader, 65535)) {
-            boolean insideEntity = false;
-            Map<String, String> values = new ArrayMap<>();
-            String line;
-            String tableName = null;
-            while ((line = br.readLine()) != null) {
-                if (line.startsWith("$")) {
-                    if ("$$".equals(line)) {
-                        if (tableName != null && values.size() > 0) {
-                            processEntry(tableName, values);
-                            tableName = null;
-                            insideEntity = false;
+        resetState();
+        if (isResuming()) {
+            mReferences.load(realm);
+            loadSplitParents();
+        }
+
+        // decompression and tokenizing run on the pipeline thread, Realm writes stay on this one
+        try (final FinancistoBackupReader reader = new FinancistoBackupReader(input)) {
+            RestorePipeline<FinancistoBackupReader.Entity> pipeline = new RestorePipeline<>(
+                    new RestorePipeline.Factory<FinancistoBackupReader.Entity>() {
+                        @Override
+                        public FinancistoBackupReader.Entity create() {
+                            return new FinancistoBackupReader.Entity();
                         }
-                    } else {
-                        int i = line.indexOf(":");
-                        if (i > 0) {
-                            tableName = line.substring(i + 1);
-                            insideEntity = true;
-                            values.clear();
+                    },
+                    new RestorePipeline.Source<FinancistoBackupReader.Entity>() {
+                        @Override
+                        public boolean read(FinancistoBackupReader.Entity entity) throws IOException {
+                            return reader.readEntity(entity);
                         }
-                    }
-                } else {
-                    if (insideEntity) {
-                        int i = line.indexOf(":");
-                        if (i > 0) {
-                            String columnName = line.substring(0, i);
-                            String value = line.substring(i + 1);
-                            values.put(columnName, value);
+                    },
+                    new RestorePipeline.Sink<FinancistoBackupReader.Entity>() {
+                        @Override
+                        public void write(FinancistoBackupReader.Entity entity) {
+                            processEntry(entity);
                         }
-                    }
-                }
-            }
+                    });
+
+            int rows = pipeline.run();
+            long elapsedTime = Math.max(1, pipeline.getElapsedTime());
+            Log.i(TAG, "Finished parsing Financisto backup file: " + rows + " rows in "
+                    + elapsedTime + "ms (" + (rows * 1000L / elapsedTime) + " rows/s)");
         }
-        Log.i(TAG, "Finished parsing Financisto backup file");
 
-        processCategoryEntries();
-        processAccountEntries();
-        processPayeeEntries();
-        processProjectEntries();
-        processTransactionEntries();
+        commitBatch();
+        if (mTransactionCount > 0) {
+            long t1 = System.currentTimeMillis();
+            Log.i(TAG, "Writing " + mTransactionCount + " transactions took " + (t1 - mTransactionPhaseStart) + "ms");
+        }
+
+        // lookup entries that appear after the transactions table (e.g. payees) are written last
+        writeLookupTables();
+        processSplitParents();
+        processExchangeRateEntries();
+        mReferences.clear();
         Log.i(TAG, "Finished processing backup file");
     }
 
@@ -131,58 +151,62 @@ public class FinancistoImportIntentService extends AbstractRestoreIntentService
         LocalBroadcastManager.getInstance(this).sendBroadcast(failureIntent);
     }
 
-    private void processEntry(String tableName, Map<String, String> values) {
-        switch(tableName) {
-            case "category":
-                processCategoryEntry(values);
+    private void processEntry(FinancistoBackupReader.Entity entity) {
+        switch(entity.getTable()) {
+            case Table.CATEGORY:
+                processCategoryEntry(entity);
+                break;
+            case Table.CURRENCY:
+                processCurrencyEntry(entity);
                 break;
-            case "currency":
-                processCurrencyEntry(values);
+            case Table.ACCOUNT:
+                processAccountEntry(entity);
                 break;
-            case "account":
-                processAccountEntry(values);
+            case Table.PAYEE:
+                processPayeeEntry(entity);
                 break;
-            case "payee":
-                processPayeeEntry(values);
+            case Table.PROJECT:
+                processProjectEntry(entity);
                 break;
-            case "project":
-                processProjectEntry(values);
+            case Table.CURRENCY_EXCHANGE_RATE:
+                processExchangeRateEntry(entity);
                 break;
-            case "transactions":
-                if (!values.containsKey("is_template") || Integer.parseInt(values.get("is_template")) == 0) {
-                    processTransactionEntry(values);
+            case Table.TRANSACTIONS:
+                if (entity.getInt(Column.IS_TEMPLATE) == 0) {
+                    processTransactionEntry(entity);
                 }
                 break;
         }
     }
 
-    private void processCategoryEntry(Map<String, String> values) {
+    private void processCategoryEntry(FinancistoBackupReader.Entity entity) {
 
         Bundle categoryValues = new Bundle();
-        categoryValues.putInt(Category.ID, Integer.parseInt(values.get("_id")));
-        categoryValues.putString(Category.NAME, values.get("title"));
-        categoryValues.putInt("left", Integer.valueOf(values.get("left")));
-        categoryValues.putInt("right", Integer.valueOf(values.get("right")));
+        categoryValues.putInt(Category.ID, entity.getInt(Column.ID));
+        categoryValues.putString(Category.NAME, entity.getString(Column.TITLE));
+        categoryValues.putInt("left", entity.getInt(Column.LEFT));
+        categoryValues.putInt("right", entity.getInt(Column.RIGHT));
 
         mCategories.add(categoryValues);
     }
 
-    private void processCurrencyEntry(Map<String, String> values) {
-        String currencyCode = values.get("name");
+    private void processCurrencyEntry(FinancistoBackupReader.Entity entity) {
+        String currencyCode = entity.getString(Column.NAME);
         try {
             Currency currency = Currency.getInstance(currencyCode);
-            mCurrencies.put(values.get("_id"), currency.getCurrencyCode());
-        } catch (IllegalArgumentException e) {
+            mCurrencies.put(entity.getInt(Column.ID), currency.getCurrencyCode());
+        } catch (IllegalArgumentException | NullPointerException e) {
             Log.w(TAG, "Could not find currency for currency code '" + currencyCode + "', will default to EUR");
         }
     }
 
-    private void processAccountEntry(Map<String, String> values) {
+    private void processAccountEntry(FinancistoBackupReader.Entity entity) {
         AccountType type;
         CardType cardType = null;
         OnlineAccountType onlineAccountType = null;
 
-        switch (values.get("type")) {
+        String accountType = entity.getString(Column.TYPE);
+        switch (accountType != null ? accountType : "OTHER") {
             case "CASH":
                 type = AccountType.CASH;
                 break;
@@ -191,11 +215,11 @@ public class FinancistoImportIntentService extends AbstractRestoreIntentService
                 break;
             case "DEBIT_CARD":
                 type = AccountType.DEBIT_CARD;
-                cardType = getCardType(values.get("card_issuer"));
+                cardType = getCardType(entity.getString(Column.CARD_ISSUER));
                 break;
             case "CREDIT_CARD":
                 type = AccountType.CREDIT_CARD;
-                cardType = getCardType(values.get("card_issuer"));
+                cardType = getCardType(entity.getString(Column.CARD_ISSUER));
                 break;
             case "ASSET":
                 type = AccountType.SAVINGS;
@@ -205,7 +229,7 @@ public class FinancistoImportIntentService extends AbstractRestoreIntentService
                 break;
             case "ONLINE":
                 type = AccountType.ONLINE;
-                onlineAccountType = getOnlineAccountType(values.get("card_issuer"));
+                onlineAccountType = getOnlineAccountType(entity.getString(Column.CARD_ISSUER));
                 break;
             case "PAYPAL":
                 type = AccountType.ONLINE;
@@ -218,10 +242,10 @@ public class FinancistoImportIntentService extends AbstractRestoreIntentService
         }
 
         Bundle accountValues = new Bundle();
-        accountValues.putInt(Account.ID, Integer.parseInt(values.get("_id")));
-        accountValues.putString(Account.TITLE, values.get("title"));
-        accountValues.putString(Account.CURRENCY, values.get("currency_id"));
-        accountValues.putLong(Account.BALANCE, Long.parseLong(values.get("total_amount")));
+        accountValues.putInt(Account.ID, entity.getInt(Column.ID));
+        accountValues.putString(Account.TITLE, entity.getString(Column.TITLE));
+        accountValues.putInt(Account.CURRENCY, entity.getInt(Column.CURRENCY_ID));
+        accountValues.putLong(Account.BALANCE, entity.getLong(Column.TOTAL_AMOUNT));
         accountValues.putString(Account.TYPE, type.name());
         if (cardType != null) {
             accountValues.putString(Account.CARD_TYPE, cardType.name());
@@ -229,16 +253,19 @@ public class FinancistoImportIntentService extends AbstractRestoreIntentService
         if (onlineAccountType != null) {
             accountValues.putString(Account.ONLINE_ACCOUNT_TYPE, onlineAccountType.name());
         }
-        accountValues.putBoolean(Account.IS_ACTIVE, Integer.parseInt(values.get("is_active")) == 1);
-        accountValues.putBoolean(Account.INCLUDE_INTO_TOTALS, Integer.parseInt(values.get("is_include_into_totals")) == 1);
-        accountValues.putInt(Account.SORT_ORDER, Integer.parseInt(values.get("sort_order")));
-        accountValues.putString(Account.NOTE, values.get("note"));
-        accountValues.putLong(Account.CREATED_AT, Long.parseLong(values.get("creation_date")));
+        accountValues.putBoolean(Account.IS_ACTIVE, entity.getInt(Column.IS_ACTIVE) == 1);
+        accountValues.putBoolean(Account.INCLUDE_INTO_TOTALS, entity.getInt(Column.IS_INCLUDE_INTO_TOTALS) == 1);
+        accountValues.putInt(Account.SORT_ORDER, entity.getInt(Column.SORT_ORDER));
+        accountValues.putString(Account.NOTE, entity.getString(Column.NOTE));
+        accountValues.putLong(Account.CREATED_AT, entity.getLong(Column.CREATION_DATE));
 
         mAccounts.add(accountValues);
     }
 
     private CardType getCardType(String cardType) {
+        if (cardType == null) {
+            return CardType.OTHER;
+        }
         switch(cardType) {
             case "VISA":
                 return CardType.VISA;
@@ -269,6 +296,9 @@ public class FinancistoImportIntentService extends AbstractRestoreIntentService
     }
 
     private OnlineAccountType getOnlineAccountType(String onlineAccountType) {
+        if (onlineAccountType == null) {
+            return OnlineAccountType.OTHER;
+        }
         switch(onlineAccountType) {
             case "PAYPAL":
                 return OnlineAccountType.PAYPAL;
@@ -281,139 +311,196 @@ public class FinancistoImportIntentService extends AbstractRestoreIntentService
         }
     }
 
-    private void processPayeeEntry(Map<String, String> values) {
+    private void processPayeeEntry(FinancistoBackupReader.Entity entity) {
 
         Bundle payeeValues = new Bundle();
-        payeeValues.putInt(Payee.ID, Integer.parseInt(values.get("_id")));
-        payeeValues.putString(Payee.NAME, values.get("title"));
-        payeeValues.putInt("last_category_id", Integer.parseInt(values.get("last_category_id")));
+        payeeValues.putInt(Payee.ID, entity.getInt(Column.ID));
+        payeeValues.putString(Payee.NAME, entity.getString(Column.TITLE));
+        payeeValues.putInt("last_category_id", entity.getInt(Column.LAST_CATEGORY_ID));
 
         mPayees.add(payeeValues);
     }
 
-    private void processProjectEntry(Map<String, String> values) {
+    private void processProjectEntry(FinancistoBackupReader.Entity entity) {
 
         Bundle projectValues = new Bundle();
-        int projectId = Integer.parseInt(values.get("_id"));
+        int projectId = entity.getInt(Column.ID);
         if (projectId > 0) {
             projectValues.putInt(Project.ID, projectId);
-            projectValues.putString(Project.TITLE, values.get("title"));
-            projectValues.putBoolean(Project.IS_ACTIVE, Integer.parseInt(values.get("is_active")) == 1);
-            projectValues.putLong(Project.UPDATED_AT, Long.parseLong(values.get("updated_on")));
+            projectValues.putString(Project.TITLE, entity.getString(Column.TITLE));
+            projectValues.putBoolean(Project.IS_ACTIVE, entity.getInt(Column.IS_ACTIVE) == 1);
+            projectValues.putLong(Project.UPDATED_AT, entity.getLong(Column.UPDATED_ON));
 
             mProjects.add(projectValues);
         }
     }
 
-    private void processTransactionEntry(Map<String, String> values) {
-
-        Bundle transactionBundle = new Bundle();
-
-        int id = Integer.parseInt(values.get("_id"));
-        int fromAccountId = Integer.parseInt(values.get("from_account_id"));
-        long fromAmount = Long.parseLong(values.get("from_amount"));
-        int toAccountId = Integer.parseInt(values.get("to_account_id"));
-        long toAmount = Long.parseLong(values.get("to_amount"));
-
-        String parentId = values.get("parent_id");
-        if (parentId != null && !parentId.equals("0")) {
+    private void processExchangeRateEntry(FinancistoBackupReader.Entity entity) {
 
-            if (toAccountId > 0) {
+        // the currencies are resolved once the whole backup was read
+        Bundle rateValues = new Bundle();
+        rateValues.putInt("from_currency_id", entity.getInt(Column.FROM_CURRENCY_ID));
+        rateValues.putInt("to_currency_id", entity.getInt(Column.TO_CURRENCY_ID));
+        rateValues.putLong("rate_date", entity.getLong(Column.RATE_DATE));
+        rateValues.putString(ExchangeRate.RATE, entity.getString(Column.RATE));
 
-                Map<String, String> newValues = new HashMap<>(values);
-                newValues.put("parent_id", "0");
-                processTransactionEntry(newValues);
+        mExchangeRates.add(rateValues);
+    }
 
-            } else {
+    private void processTransactionEntry(FinancistoBackupReader.Entity entity) {
 
-                Bundle splitBundle = new Bundle();
-                splitBundle.putInt(TransactionSplit.ID, id);
-                splitBundle.putLong(TransactionSplit.AMOUNT, 0 - fromAmount);
+        if (!mLookupTablesWritten) {
+            writeLookupTables();
+            mTransactionPhaseStart = System.currentTimeMillis();
+        }
 
-                if (values.containsKey("category_id")) {
-                    int categoryId = Integer.parseInt(values.get("category_id"));
-                    if (categoryId > 0) {
-                        splitBundle.putInt("category_id", categoryId);
-                    }
-                }
+        int id = entity.getInt(Column.ID);
+        if (isCommitted(TABLE_TRANSACTIONS, id)) {
+            return;
+        }
 
-                if (values.containsKey("project_id")) {
-                    int projectId = Integer.parseInt(values.get("project_id"));
-                    if (projectId > 0) {
-                        splitBundle.putInt("project_id", projectId);
-                    }
-                }
+        beginBatch();
+        int fromAccountId = entity.getInt(Column.FROM_ACCOUNT_ID);
+        long fromAmount = entity.getLong(Column.FROM_AMOUNT);
+        int toAccountId = entity.getInt(Column.TO_ACCOUNT_ID);
+        long toAmount = entity.getLong(Column.TO_AMOUNT);
+        int parentId = entity.getInt(Column.PARENT_ID);
+        int categoryId = entity.getInt(Column.CATEGORY_ID);
+        int projectId = entity.getInt(Column.PROJECT_ID);
 
-                splitBundle.putString(TransactionSplit.NOTE, values.get("note"));
+        // transfers inside a split are imported as standalone transactions, not as splits
+        if (parentId != 0 && toAccountId <= 0) {
 
-                int key = Integer.parseInt(parentId);
-                List<Bundle> transactionSplits = mTransactionSplits.get(key, null);
-                if (transactionSplits == null) {
-                    transactionSplits = new ArrayList<>();
-                    mTransactionSplits.put(key, transactionSplits);
-                }
-                transactionSplits.add(splitBundle);
+            TransactionSplit transactionSplit = realm.createObject(TransactionSplit.class, id);
+            transactionSplit.setAmount(0 - fromAmount);
+            if (categoryId > 0) {
+                transactionSplit.setCategory(getCategory(categoryId));
+            }
+            if (projectId > 0) {
+                transactionSplit.setProject(mReferences.getProject(projectId));
             }
+            transactionSplit.setNote(entity.getString(Column.NOTE));
+
+            getSplitParent(parentId).getSplits().add(transactionSplit);
 
         } else {
 
-            transactionBundle.putInt(Transaction.ID, id);
+            Transaction transaction;
+            if (mSplitParents.indexOfKey(id) >= 0) {
+                transaction = realm.where(Transaction.class).equalTo(Transaction.ID, id).findFirst();
+                mSplitParents.put(id, true);
+            } else {
+                transaction = realm.createObject(Transaction.class, id);
+            }
 
             if (toAccountId > 0) {
-                transactionBundle.putInt("from_account_id", fromAccountId);
-                transactionBundle.putLong(Transaction.FROM_AMOUNT, 0 - fromAmount);
-                transactionBundle.putInt("to_account_id", toAccountId);
-                transactionBundle.putLong(Transaction.TO_AMOUNT, toAmount);
-            } else {
+                transaction.setFromAccount(mReferences.getAccount(fromAccountId));
+                transaction.setFromAmount(0 - fromAmount);
+                transaction.setToAccount(mReferences.getAccount(toAccountId));
+                transaction.setToAmount(toAmount);
+            } else if (fromAccountId > 0) {
                 if (fromAmount > 0) {
-                    transactionBundle.putInt("to_account_id", fromAccountId);
-                    transactionBundle.putLong(Transaction.TO_AMOUNT, fromAmount);
+                    transaction.setToAccount(mReferences.getAccount(fromAccountId));
+                    transaction.setToAmount(fromAmount);
                 } else {
-                    transactionBundle.putInt("from_account_id", fromAccountId);
-                    transactionBundle.putLong(Transaction.FROM_AMOUNT, 0 - fromAmount);
+                    transaction.setFromAccount(mReferences.getAccount(fromAccountId));
+                    transaction.setFromAmount(0 - fromAmount);
                 }
             }
 
-            if (values.containsKey("category_id")) {
-                int categoryId = Integer.parseInt(values.get("category_id"));
-                if (categoryId > 0) {
-                    transactionBundle.putInt("category_id", categoryId);
-                }
+            if (categoryId > 0) {
+                transaction.setCategory(getCategory(categoryId));
             }
 
-            if (values.containsKey("payee_id")) {
-                int payeeId = Integer.parseInt(values.get("payee_id"));
-                if (payeeId > 0) {
-                    transactionBundle.putInt("payee_id", payeeId);
-                }
+            int payeeId = entity.getInt(Column.PAYEE_ID);
+            if (payeeId > 0) {
+                transaction.setPayee(getOrCreatePayee(payeeId));
             }
 
-            if (values.containsKey("project_id")) {
-                int projectId = Integer.parseInt(values.get("project_id"));
-                if (projectId > 0) {
-                    transactionBundle.putInt("project_id", projectId);
-                }
+            if (projectId > 0) {
+                transaction.setProject(mReferences.getProject(projectId));
             }
 
-            transactionBundle.putString(Transaction.NOTE, values.get("note"));
+            transaction.setNote(entity.getString(Column.NOTE));
 
-            String originalFromCurrencyId = values.get("original_currency_id");
-            if (originalFromCurrencyId != null && !originalFromCurrencyId.isEmpty() && !originalFromCurrencyId.equals("0")) {
-                transactionBundle.putString(Transaction.ORIGINAL_CURRENCY, originalFromCurrencyId);
-                long originalFromAmount = Long.parseLong(values.get("original_from_amount"));
-                transactionBundle.putLong(Transaction.ORIGINAL_AMOUNT, originalFromAmount);
+            int originalCurrencyId = entity.getInt(Column.ORIGINAL_CURRENCY_ID);
+            if (originalCurrencyId > 0) {
+                String originalCurrency = mCurrencies.get(originalCurrencyId);
+                if (originalCurrency != null) {
+                    transaction.setOriginalCurrency(originalCurrency);
+                    transaction.setOriginalAmount(entity.getLong(Column.ORIGINAL_FROM_AMOUNT));
+                } else {
+                    Log.w(TAG, "skipping unknown original currency ID " + originalCurrencyId);
+                }
             }
 
-            long createdAt = Long.parseLong(values.get("datetime"));
-            transactionBundle.putLong(Transaction.OCCURRED_AT, createdAt);
-            transactionBundle.putLong(Transaction.CLEARED_AT, createdAt);
-            long updatedAt = Long.parseLong(values.get("updated_on"));
+            long createdAt = entity.getLong(Column.DATETIME);
+            transaction.setOccurredAt(new Date(createdAt));
+            transaction.setClearedAt(new Date(createdAt));
+            long updatedAt = entity.getLong(Column.UPDATED_ON);
             if (updatedAt > 1) {
-                transactionBundle.putLong(Transaction.UPDATED_AT, updatedAt);
+                transaction.setUpdatedAt(new Date(updatedAt));
             }
+        }
+
+        mTransactionCount++;
+        onEntityWritten(TABLE_TRANSACTIONS, id);
+    }
 
-            mTransactions.add(transactionBundle);
+    private Transaction getSplitParent(int parentId) {
+        Transaction parent = realm.where(Transaction.class).equalTo(Transaction.ID, parentId).findFirst();
+        if (mSplitParents.indexOfKey(parentId) < 0) {
+            mSplitParents.put(parentId, parent != null);
         }
+        if (parent == null) {
+            // the parent row comes later in the file, so reserve its primary key for now
+            parent = realm.createObject(Transaction.class, parentId);
+        }
+        return parent;
+    }
+
+    private Payee getOrCreatePayee(int payeeId) {
+        Payee payee = mReferences.getPayee(payeeId);
+        if (payee == null) {
+            // payees are exported after the transactions, the name is filled in once parsed
+            payee = realm.createObject(Payee.class, payeeId);
+            mReferences.putPayee(payee);
+        }
+        return payee;
+    }
+
+    private Category getCategory(int categoryId) {
+        // categories deeper than two levels were merged into their second level ancestor
+        return mReferences.getCategory(mMigrateCategories.get(categoryId, categoryId));
+    }
+
+    private void writeLookupTables() {
+        beginBatch();
+        processCategoryEntries();
+        processAccountEntries();
+        processPayeeEntries();
+        processProjectEntries();
+        commitBatch();
+
+        mCategories.clear();
+        mAccounts.clear();
+        mPayees.clear();
+        mProjects.clear();
+        mLookupTablesWritten = true;
+    }
+
+    private void resetState() {
+        mCurrencies.clear();
+        mAccounts.clear();
+        mPayees.clear();
+        mProjects.clear();
+        mCategories.clear();
+        mExchangeRates.clear();
+        mMigrateCategories.clear();
+        mSplitParents.clear();
+        mReferences.clear();
+        mLookupTablesWritten = false;
+        mTransactionCount = 0;
     }
 
     private void processCategoryEntries() {
@@ -425,42 +512,16 @@ public class FinancistoImportIntentService extends AbstractRestoreIntentService
         String defaultColor = ColorUtils.toRGB(ContextCompat.getColor(this, R.color.colorPrimary));
         String defaultIcon = "ic_question_mark_black_24dp";
 
-        for (Bundle currentCategoryBundle : mCategories) {
-            long id = currentCategoryBundle.getInt(Category.ID);
-            if (id <= 0) {
+        resolveCategoryHierarchy();
+        for (Bundle categoryBundle : mCategories) {
+            if (categoryBundle.getInt(Category.ID) <= 0
+                    || mMigrateCategories.indexOfKey(categoryBundle.getInt(Category.ID)) >= 0) {
                 continue;
             }
-
-            int parentId = 0;
-            int left = currentCategoryBundle.getInt("left");
-            int previousLeft = 0;
-            int level = 0;
-
-            for(Bundle categoryBundle : mCategories) {
-                int currentId = categoryBundle.getInt(Category.ID);
-                int currentLeft = categoryBundle.getInt("left");
-                int currentRight = categoryBundle.getInt("right");
-
-                if (currentLeft < left && left < currentRight) {
-                    if (currentLeft > previousLeft) {
-                        if (level <= 1) {
-                            parentId = currentId;
-                        }
-                        previousLeft = currentLeft;
-                        level++;
-                    }
-                }
-            }
-
-            if (level >= 2) {
-                mMigrateCategories.put(currentCategoryBundle.getInt(Category.ID), parentId);
+            if (categoryBundle.getInt("parent_id") == 0) {
+                parentCategories.add(categoryBundle);
             } else {
-                currentCategoryBundle.putInt("parent_id", parentId);
-                if (parentId == 0) {
-                    parentCategories.add(currentCategoryBundle);
-                } else {
-                    childCategories.add(currentCategoryBundle);
-                }
+                childCategories.add(categoryBundle);
             }
         }
 
@@ -488,10 +549,14 @@ public class FinancistoImportIntentService extends AbstractRestoreIntentService
             }
         });
 
+        // the hierarchy is always resolved, since transactions rely on the category migrations
+        if (mCategories.isEmpty() || hasCheckpoint(TABLE_CATEGORY)) {
+            return;
+        }
+
         // process parent categories
         int[] colors = getResources().getIntArray(R.array.colorPickerColors);
         int colorIndex = 0;
-        realm.beginTransaction();
         for (Bundle values : parentCategories) {
             int id = values.getInt(Category.ID);
             String color = ColorUtils.toRGB(colors[colorIndex]);
@@ -500,6 +565,7 @@ public class FinancistoImportIntentService extends AbstractRestoreIntentService
             category.setName(values.getString(Category.NAME));
             category.setColor(color);
             category.setIcon(defaultIcon);
+            mReferences.putCategory(category);
 
             parentColors.put(id, color);
             colorIndex++;
@@ -507,10 +573,8 @@ public class FinancistoImportIntentService extends AbstractRestoreIntentService
                 colorIndex = 0;
             }
         }
-        realm.commitTransaction();
 
         // process child categories
-        realm.beginTransaction();
         for (Bundle values : childCategories) {
 
             int parentId = values.getInt("parent_id");
@@ -524,24 +588,55 @@ public class FinancistoImportIntentService extends AbstractRestoreIntentService
             category.setName(values.getString(Category.NAME));
             category.setColor(color);
             category.setIcon(defaultIcon);
+            mReferences.putCategory(category);
 
             if (parentId > 0) {
-                category.setParentCategory(realm.where(Category.class).equalTo(Category.ID, parentId).findFirst());
+                category.setParentCategory(mReferences.getCategory(parentId));
             }
         }
-        realm.commitTransaction();
+
+        setCheckpoint(TABLE_CATEGORY, mCategories.get(mCategories.size() - 1).getInt(Category.ID));
     }
 
-    private void processAccountEntries() {
-        realm.beginTransaction();
-        for (Bundle accountBundle: mAccounts) {
-            String currencyId = accountBundle.getString(Account.CURRENCY);
-            String currencyCode;
-            if (mCurrencies.containsKey(currencyId)) {
-                currencyCode = mCurrencies.get(currencyId);
+    /**
+     * Resolve the parent of every category. Only two levels are supported, so deeper categories
+     * are migrated into their second level ancestor.
+     */
+    private void resolveCategoryHierarchy() {
+        int count = mCategories.size();
+        int[] ids = new int[count];
+        int[] lefts = new int[count];
+        int[] rights = new int[count];
+        for (int i = 0; i < count; i++) {
+            Bundle categoryBundle = mCategories.get(i);
+            ids[i] = categoryBundle.getInt(Category.ID);
+            lefts[i] = categoryBundle.getInt("left");
+            rights[i] = categoryBundle.getInt("right");
+        }
+
+        int[] depths = new int[count];
+        int[] ancestorIds = new int[count];
+        CategoryHierarchy.resolve(ids, lefts, rights, depths, ancestorIds);
+
+        for (int i = 0; i < count; i++) {
+            if (ids[i] <= 0) {
+                continue;
+            }
+            if (depths[i] >= 2) {
+                mMigrateCategories.put(ids[i], ancestorIds[i]);
             } else {
-                currencyCode = "EUR";
+                mCategories.get(i).putInt("parent_id", ancestorIds[i]);
             }
+        }
+    }
+
+    private void processAccountEntries() {
+        if (mAccounts.isEmpty() || hasCheckpoint(TABLE_ACCOUNT)) {
+            return;
+        }
+
+        for (Bundle accountBundle: mAccounts) {
+            String currencyCode = mCurrencies.get(accountBundle.getInt(Account.CURRENCY), "EUR");
 
             Account account = realm.createObject(Account.class, accountBundle.getInt(Account.ID));
 
@@ -556,32 +651,39 @@ public class FinancistoImportIntentService extends AbstractRestoreIntentService
             account.setSortOrder(accountBundle.getInt(Account.SORT_ORDER));
             account.setNote(accountBundle.getString(Account.NOTE));
             account.setCreatedAt(new Date(accountBundle.getLong(Account.CREATED_AT)));
+            mReferences.putAccount(account);
         }
-        realm.commitTransaction();
+
+        setCheckpoint(TABLE_ACCOUNT, mAccounts.get(mAccounts.size() - 1).getInt(Account.ID));
     }
 
     private void processPayeeEntries() {
-        realm.beginTransaction();
+        if (mPayees.isEmpty() || hasCheckpoint(TABLE_PAYEE)) {
+            return;
+        }
+
         for (Bundle payeeBundle: mPayees) {
 
-            Payee payee = realm.createObject(Payee.class, payeeBundle.getInt(Payee.ID));
+            Payee payee = getOrCreatePayee(payeeBundle.getInt(Payee.ID));
             payee.setName(payeeBundle.getString(Payee.NAME));
 
             int lastCategoryId = payeeBundle.getInt("last_category_id");
             if (lastCategoryId > 0) {
-                if (mMigrateCategories.indexOfKey(lastCategoryId) > 0) {
-                    lastCategoryId = mMigrateCategories.get(lastCategoryId);
-                }
-                payee.setLastCategory(realm.where(Category.class).equalTo(Category.ID, lastCategoryId).findFirst());
+                payee.setLastCategory(getCategory(lastCategoryId));
             }
         }
-        realm.commitTransaction();
+
+        setCheckpoint(TABLE_PAYEE, mPayees.get(mPayees.size() - 1).getInt(Payee.ID));
     }
 
     private void processProjectEntries() {
-        realm.beginTransaction();
+        if (mProjects.isEmpty() || hasCheckpoint(TABLE_PROJECT)) {
+            return;
+        }
+
         for (Bundle projectValues: mProjects) {
             Project project = realm.createObject(Project.class, projectValues.getInt(Project.ID));
+            mReferences.putProject(project);
             project.setTitle(projectValues.getString(Project.TITLE));
             project.setActive(projectValues.getBoolean(Project.IS_ACTIVE));
             long updatedAt = projectValues.getLong(Project.UPDATED_AT);
@@ -589,102 +691,79 @@ public class FinancistoImportIntentService extends AbstractRestoreIntentService
                 project.setUpdatedAt(new Date(updatedAt));
             }
         }
-        realm.commitTransaction();
+
+        setCheckpoint(TABLE_PROJECT, mProjects.get(mProjects.size() - 1).getInt(Project.ID));
     }
 
-    private void processTransactionEntries() {
+    private void processExchangeRateEntries() {
+        if (mExchangeRates.isEmpty()) {
+            return;
+        }
 
+        Calendar calendar = Calendar.getInstance();
         realm.beginTransaction();
-        for (Bundle values : mTransactions) {
-
-            int transactionId = values.getInt(Transaction.ID);
-
-            Transaction transaction = realm.createObject(Transaction.class, transactionId);
-
-            int fromAccountId = values.getInt("from_account_id");
-            if (fromAccountId > 0) {
-                transaction.setFromAccount(realm.where(Account.class).equalTo(Account.ID, fromAccountId).findFirst());
-                transaction.setFromAmount(values.getLong(Transaction.FROM_AMOUNT));
+        for (Bundle rateValues : mExchangeRates) {
+            String fromCurrency = mCurrencies.get(rateValues.getInt("from_currency_id"));
+            String toCurrency = mCurrencies.get(rateValues.getInt("to_currency_id"));
+            double rate;
+            try {
+                rate = Double.parseDouble(rateValues.getString(ExchangeRate.RATE));
+            } catch (NumberFormatException | NullPointerException e) {
+                rate = 0;
             }
-
-            int toAccountId = values.getInt("to_account_id");
-            if (toAccountId > 0) {
-                transaction.setToAccount(realm.where(Account.class).equalTo(Account.ID, toAccountId).findFirst());
-                transaction.setToAmount(values.getLong(Transaction.TO_AMOUNT));
-            }
-
-            int categoryId = values.getInt("category_id");
-            if (categoryId > 0) {
-                if (mMigrateCategories.indexOfKey(categoryId) > 0) {
-                    categoryId = mMigrateCategories.get(categoryId);
-                }
-                transaction.setCategory(realm.where(Category.class).equalTo(Category.ID, categoryId).findFirst());
+            if (fromCurrency == null || toCurrency == null || rate <= 0) {
+                Log.w(TAG, "skipping exchange rate from currency ID " + rateValues.getInt("from_currency_id")
+                        + " to currency ID " + rateValues.getInt("to_currency_id"));
+                continue;
             }
 
-            int payeeId = values.getInt("payee_id");
-            if (payeeId > 0) {
-                transaction.setPayee(realm.where(Payee.class).equalTo(Payee.ID, payeeId).findFirst());
-            }
+            calendar.setTimeInMillis(rateValues.getLong("rate_date"));
+            int day = ExchangeRate.dayOf(calendar);
+            ExchangeRate exchangeRate = new ExchangeRate();
+            exchangeRate.setId(ExchangeRate.idFor(fromCurrency, toCurrency, day));
+            exchangeRate.setFromCurrency(fromCurrency);
+            exchangeRate.setToCurrency(toCurrency);
+            exchangeRate.setDay(day);
+            exchangeRate.setRate(rate);
+            // the rates are written once more when a restore is resumed
+            realm.copyToRealmOrUpdate(exchangeRate);
+        }
+        realm.commitTransaction();
+        mExchangeRates.clear();
+    }
 
-            int projectId = values.getInt("project_id");
-            if (projectId > 0) {
-                transaction.setProject(realm.where(Project.class).equalTo(Project.ID, projectId).findFirst());
-            }
+    private void loadSplitParents() {
+        RealmResults<Transaction> splitParents = realm.where(Transaction.class)
+                .isNotEmpty(Transaction.SPLITS)
+                .findAll();
+        for (Transaction transaction : splitParents) {
+            // parents that were only reserved by their splits have no date yet
+            mSplitParents.put(transaction.getId(), transaction.getOccurredAt() != null);
+        }
+    }
 
-            String originalCurrencyId = values.getString(Transaction.ORIGINAL_CURRENCY);
-            if (originalCurrencyId != null && !originalCurrencyId.isEmpty() && !originalCurrencyId.equals("0") && !originalCurrencyId.equals("-1")) {
-                String currencyCode;
-                if (mCurrencies.containsKey(originalCurrencyId)) {
-                    currencyCode = mCurrencies.get(originalCurrencyId);
-                    transaction.setOriginalCurrency(currencyCode);
-                    transaction.setOriginalAmount(values.getLong(Transaction.ORIGINAL_AMOUNT));
-                } else {
-                    Log.w(TAG, "skipping unknown original currency ID " + originalCurrencyId);
-                }
+    private void processSplitParents() {
+        realm.beginTransaction();
+        for (int i = 0; i < mSplitParents.size(); i++) {
+            Transaction transaction = realm.where(Transaction.class)
+                    .equalTo(Transaction.ID, mSplitParents.keyAt(i))
+                    .findFirst();
+            if (transaction == null) {
+                continue;
             }
 
-            transaction.setNote(values.getString(Transaction.NOTE));
-
-            transaction.setOccurredAt(new Date(values.getLong(Transaction.OCCURRED_AT)));
-            transaction.setClearedAt(new Date(values.getLong(Transaction.CLEARED_AT)));
-
-            long updatedAt = values.getLong(Transaction.CLEARED_AT);
-            if (updatedAt > 0) {
-                transaction.setUpdatedAt(new Date(updatedAt));
+            if (!mSplitParents.valueAt(i)) {
+                // the parent was never written (e.g. a template), so drop its orphan splits
+                transaction.getSplits().deleteAllFromRealm();
+                transaction.deleteFromRealm();
+                continue;
             }
 
-            List<Bundle> transactionSplits = mTransactionSplits.get(transactionId, null);
-            if (transactionSplits != null) {
-
-                long transactionAmount = 0;
-
-                RealmList<TransactionSplit> splits = new RealmList<>();
-                for (Bundle split : transactionSplits) {
-
-                    TransactionSplit transactionSplit = realm.createObject(TransactionSplit.class, split.getInt(TransactionSplit.ID));
-
-                    long splitAmount = split.getLong(TransactionSplit.AMOUNT);
-                    transactionSplit.setAmount(splitAmount);
-                    transactionAmount += splitAmount;
-
-                    int splitCategoryId = split.getInt("category_id");
-                    if (splitCategoryId > 0) {
-                        transactionSplit.setCategory(realm.where(Category.class).equalTo(Category.ID, splitCategoryId).findFirst());
-                    }
-
-                    int splitProjectId = split.getInt("project_id");
-                    if (splitProjectId > 0) {
-                        transactionSplit.setProject(realm.where(Project.class).equalTo(Project.ID, splitProjectId).findFirst());
-                    }
-
-                    transactionSplit.setNote(split.getString(TransactionSplit.NOTE));
-
-                    splits.add(transactionSplit);
-                }
-                transaction.setSplits(splits);
-
-                transaction.setFromAmount(transactionAmount);
+            long transactionAmount = 0;
+            for (TransactionSplit split : transaction.getSplits()) {
+                transactionAmount += split.getAmount();
             }
+            transaction.setFromAmount(transactionAmount);
         }
         realm.commitTransaction();
     }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.restore;
+
+import android.util.SparseArray;
+
+import io.realm.Realm;
+import ro.expectations.expenses.model.Account;
+import ro.expectations.expenses.model.Category;
+import ro.expectations.expenses.model.Payee;
+import ro.expectations.expenses.model.Project;
+
+/**
+ * Import-scoped identity map of managed lookup objects, keyed by their primary key.
+ *
+ * Resolving a relationship while restoring becomes a {@link SparseArray} lookup instead of a
+ * Realm query per row. The cached objects are only valid for the Realm instance that created
+ * them, so the cache has to be cleared when that instance is closed.
+ */
+class ReferenceCache {
+
+    private final SparseArray<Account> mAccounts = new SparseArray<>();
+    private final SparseArray<Category> mCategories = new SparseArray<>();
+    private final SparseArray<Payee> mPayees = new SparseArray<>();
+    private final SparseArray<Project> mProjects = new SparseArray<>();
+
+    /**
+     * Fill the cache with the lookup objects that are already stored in the database, e.g. when
+     * resuming an interrupted restore.
+     *
+     * @param realm The Realm instance the restore is writing to
+     */
+    void load(Realm realm) {
+        clear();
+        for (Account account : realm.where(Account.class).findAll()) {
+            mAccounts.put(account.getId(), account);
+        }
+        for (Category category : realm.where(Category.class).findAll()) {
+            mCategories.put(category.getId(), category);
+        }
+        for (Payee payee : realm.where(Payee.class).findAll()) {
+            mPayees.put(payee.getId(), payee);
+        }
+        for (Project project : realm.where(Project.class).findAll()) {
+            mProjects.put(project.getId(), project);
+        }
+    }
+
+    void clear() {
+        mAccounts.clear();
+        mCategories.clear();
+        mPayees.clear();
+        mProjects.clear();
+    }
+
+    Account getAccount(int id) {
+        return mAccounts.get(id);
+    }
+
+    void putAccount(Account account) {
+        mAccounts.put(account.getId(), account);
+    }
+
+    Category getCategory(int id) {
+        return mCategories.get(id);
+    }
+
+    void putCategory(Category category) {
+        mCategories.put(category.getId(), category);
+    }
+
+    Payee getPayee(int id) {
+        return mPayees.get(id);
+    }
+
+    void putPayee(Payee payee) {
+        mPayees.put(payee.getId(), payee);
+    }
+
+    Project getProject(int id) {
+        return mProjects.get(id);
+    }
+
+    void putProject(Project project) {
+        mProjects.put(project.getId(), project);
+    }
+}
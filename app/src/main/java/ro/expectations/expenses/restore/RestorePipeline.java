@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.restore;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Producer / consumer pipeline used while restoring a backup.
+ *
+ * A producer thread reads records from the {@link Source}, which is where the backup gets
+ * decompressed and tokenized, while the calling thread hands them over to the {@link Sink} in
+ * batches. The calling thread is the one that owns the Realm instance, so decompression and
+ * Realm writes overlap without Realm objects ever crossing threads.
+ *
+ * Records are recycled through a fixed pool, so the amount of buffered data is bounded and the
+ * producer does not allocate a record per row.
+ */
+class RestorePipeline<T> {
+
+    interface Factory<T> {
+        T create();
+    }
+
+    interface Source<T> {
+
+        /**
+         * Fill in the next record, called on the producer thread.
+         *
+         * @param record A recycled record to overwrite
+         * @return true if the record was filled in, false at the end of the input
+         */
+        boolean read(T record) throws IOException;
+    }
+
+    interface Sink<T> {
+
+        /**
+         * Consume a record, called on the thread that runs the pipeline. The record is recycled
+         * once this returns, so it must not be kept.
+         */
+        void write(T record);
+    }
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private final Source<T> mSource;
+    private final Sink<T> mSink;
+    private final int mCapacity;
+
+    private final BlockingQueue<T> mFree;
+    private final BlockingQueue<T> mFilled;
+    private final T mEndMarker;
+
+    private volatile Exception mError;
+    private long mElapsedTime;
+
+    RestorePipeline(Factory<T> factory, Source<T> source, Sink<T> sink) {
+        this(factory, source, sink, DEFAULT_CAPACITY);
+    }
+
+    RestorePipeline(Factory<T> factory, Source<T> source, Sink<T> sink, int capacity) {
+        mSource = source;
+        mSink = sink;
+        mCapacity = Math.max(1, capacity);
+
+        mFree = new ArrayBlockingQueue<>(mCapacity);
+        for (int i = 0; i < mCapacity; i++) {
+            mFree.add(factory.create());
+        }
+        // one extra slot, so the end marker can always be queued
+        mFilled = new ArrayBlockingQueue<>(mCapacity + 1);
+        mEndMarker = factory.create();
+    }
+
+    /**
+     * Run the pipeline until the source is exhausted.
+     *
+     * @return The number of records handed over to the sink
+     * @throws IOException If the source failed or the pipeline was interrupted
+     */
+    int run() throws IOException {
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                produce();
+            }
+        }, "RestorePipeline");
+
+        long start = System.currentTimeMillis();
+        producer.start();
+
+        List<T> batch = new ArrayList<>(mCapacity);
+        int count = 0;
+        boolean finished = false;
+        try {
+            while (!finished) {
+                batch.add(mFilled.take());
+                mFilled.drainTo(batch, mCapacity);
+                for (int i = 0; i < batch.size(); i++) {
+                    T record = batch.get(i);
+                    if (record == mEndMarker) {
+                        finished = true;
+                        break;
+                    }
+                    mSink.write(record);
+                    count++;
+                    mFree.put(record);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Restore was interrupted");
+        } finally {
+            if (!finished) {
+                producer.interrupt();
+            }
+            try {
+                producer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        mElapsedTime = System.currentTimeMillis() - start;
+
+        Exception error = mError;
+        if (error instanceof IOException) {
+            throw (IOException) error;
+        } else if (error != null) {
+            throw new IOException("Could not read the backup file", error);
+        }
+        return count;
+    }
+
+    /**
+     * @return The time it took to run the pipeline, in milliseconds
+     */
+    long getElapsedTime() {
+        return mElapsedTime;
+    }
+
+    private void produce() {
+        try {
+            while (true) {
+                T record = mFree.take();
+                if (!mSource.read(record)) {
+                    break;
+                }
+                mFilled.put(record);
+            }
+        } catch (InterruptedException e) {
+            // the consumer gave up, nobody is waiting for the end marker
+            return;
+        } catch (IOException | RuntimeException e) {
+            mError = e;
+        }
+
+        try {
+            mFilled.put(mEndMarker);
+        } catch (InterruptedException e) {
+            // the consumer gave up
+        }
+    }
+}
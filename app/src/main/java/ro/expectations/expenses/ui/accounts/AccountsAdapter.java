@@ -34,8 +34,6 @@ import android.widget.ImageView;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
-import java.text.NumberFormat;
-import java.util.Currency;
 import java.util.Date;
 import java.util.List;
 
@@ -49,7 +47,7 @@ import ro.expectations.expenses.model.OnlineAccountType;
 import ro.expectations.expenses.ui.recyclerview.MultipleSelection;
 import ro.expectations.expenses.ui.recyclerview.MultipleSelectionHelper;
 import ro.expectations.expenses.ui.utils.ListUtils;
-import ro.expectations.expenses.utils.NumberUtils;
+import ro.expectations.expenses.utils.MoneyFormatter;
 
 public class AccountsAdapter extends RealmRecyclerViewAdapter<Account, AccountsAdapter.ViewHolder> implements MultipleSelection {
 
@@ -58,6 +56,13 @@ public class AccountsAdapter extends RealmRecyclerViewAdapter<Account, AccountsA
     public AccountsAdapter(@NonNull Context context, @Nullable OrderedRealmCollection<Account> data, boolean autoUpdate) {
         super(context, data, autoUpdate);
         mMultipleSelectionHelper = new MultipleSelectionHelper(this);
+        setHasStableIds(true);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        Account account = getItem(position);
+        return account != null ? account.getId() : RecyclerView.NO_ID;
     }
 
     @Override
@@ -113,13 +118,8 @@ public class AccountsAdapter extends RealmRecyclerViewAdapter<Account, AccountsA
         holder.mAccountLastTransactionAt.setText(DateUtils.getRelativeTimeSpanString(lastTransactionAt.getTime(), now, DateUtils.DAY_IN_MILLIS));
 
         // Set the account balance
-        double balance = NumberUtils.roundToTwoPlaces(account.getBalance() / 100.0);
-        String currencyCode = account.getCurrency();
-        Currency currency = Currency.getInstance(currencyCode);
-        NumberFormat format = NumberFormat.getCurrencyInstance();
-        format.setCurrency(currency);
-        format.setMaximumFractionDigits(currency.getDefaultFractionDigits());
-        holder.mAccountBalance.setText(format.format(balance));
+        long balance = account.getBalance();
+        holder.mAccountBalance.setText(MoneyFormatter.getInstance().format(balance, account.getCurrency()));
         if (balance > 0) {
             holder.mAccountBalance.setTextColor(ContextCompat.getColor(context, R.color.colorGreen700));
         } else if (balance < 0) {
@@ -137,6 +137,11 @@ public class AccountsAdapter extends RealmRecyclerViewAdapter<Account, AccountsA
         return mMultipleSelectionHelper.getSelectedItemCount();
     }
 
+    @Override
+    public long[] getSelectedItemIds() {
+        return mMultipleSelectionHelper.getSelectedItemIds();
+    }
+
     @Override
     public List<Integer> getSelectedItemPositions() {
         return mMultipleSelectionHelper.getSelectedItemPositions();
@@ -157,6 +162,26 @@ public class AccountsAdapter extends RealmRecyclerViewAdapter<Account, AccountsA
         mMultipleSelectionHelper.clearSelection();
     }
 
+    @Override
+    public void selectAll() {
+        mMultipleSelectionHelper.selectAll();
+    }
+
+    @Override
+    public void selectRange(int fromPosition, int toPosition) {
+        mMultipleSelectionHelper.selectRange(fromPosition, toPosition);
+    }
+
+    @Override
+    public void invertSelection() {
+        mMultipleSelectionHelper.invertSelection();
+    }
+
+    @Override
+    public void selectItems(ItemFilter filter) {
+        mMultipleSelectionHelper.selectItems(filter);
+    }
+
     @Override
     public void onSaveInstanceState(Bundle state) {
         mMultipleSelectionHelper.onSaveInstanceState(state);
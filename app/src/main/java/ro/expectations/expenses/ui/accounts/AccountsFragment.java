@@ -46,11 +46,13 @@ import io.realm.RealmChangeListener;
 import io.realm.RealmResults;
 import io.realm.Sort;
 import ro.expectations.expenses.R;
+import ro.expectations.expenses.data.NetWorthCalculator;
 import ro.expectations.expenses.model.Account;
 import ro.expectations.expenses.ui.drawer.DrawerActivity;
 import ro.expectations.expenses.ui.provider.AppBarLayoutProvider;
 import ro.expectations.expenses.ui.recyclerview.ItemClickHelper;
 import ro.expectations.expenses.ui.transactions.TransactionsActivity;
+import ro.expectations.expenses.ui.utils.NetWorthUtils;
 import ro.expectations.expenses.utils.ColorUtils;
 
 public class AccountsFragment extends Fragment {
@@ -60,6 +62,14 @@ public class AccountsFragment extends Fragment {
     private AccountsAdapter mAdapter;
     private TextView mEmptyView;
     private FrameLayout mVerticalCenterWrapper;
+    private View mNetWorth;
+
+    private final NetWorthCalculator.Listener mNetWorthListener = new NetWorthCalculator.Listener() {
+        @Override
+        public void onNetWorthChanged(NetWorthCalculator.NetWorth netWorth) {
+            NetWorthUtils.bind(getContext(), mNetWorth, netWorth);
+        }
+    };
 
     private int mStatusBarColor;
 
@@ -117,8 +127,7 @@ public class AccountsFragment extends Fragment {
             switch(id) {
                 case R.id.action_edit_account:
                     if (mAdapter.getSelectedItemCount() == 1) {
-                        int position = mAdapter.getSelectedItemPositions().get(0);
-                        long accountId = mAdapter.getItemId(position);
+                        long accountId = mAdapter.getSelectedItemIds()[0];
                         Intent editAccountIntent = new Intent(getActivity(), ManageAccountActivity.class);
                         editAccountIntent.putExtra(ManageAccountActivity.ARG_ACCOUNT_ID, accountId);
                         startActivity(editAccountIntent);
@@ -191,6 +200,7 @@ public class AccountsFragment extends Fragment {
         }
 
         mEmptyView = (TextView) view.findViewById(R.id.list_accounts_empty);
+        mNetWorth = view.findViewById(R.id.accounts_net_worth);
 
         mVerticalCenterWrapper = (FrameLayout) view.findViewById(R.id.vertical_center_wrapper);
         mAppBarLayoutProvider.getAppBarLayout().addOnOffsetChangedListener(new AppBarLayout.OnOffsetChangedListener() {
@@ -259,6 +269,14 @@ public class AccountsFragment extends Fragment {
                 return true;
             }
         });
+
+        NetWorthCalculator.getInstance().addListener(mNetWorthListener);
+    }
+
+    @Override
+    public void onDestroyView() {
+        NetWorthCalculator.getInstance().removeListener(mNetWorthListener);
+        super.onDestroyView();
     }
 
     @Override
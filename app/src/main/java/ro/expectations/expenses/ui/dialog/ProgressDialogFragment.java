@@ -54,4 +54,12 @@ public class ProgressDialogFragment extends DialogFragment {
         progressDialog.setIndeterminate(true);
         return progressDialog;
     }
+
+    public void setMessage(String message) {
+        getArguments().putString(ARG_MESSAGE, message);
+        Dialog dialog = getDialog();
+        if (dialog != null) {
+            ((ProgressDialog) dialog).setMessage(message);
+        }
+    }
 }
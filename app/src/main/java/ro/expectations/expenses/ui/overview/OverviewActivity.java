@@ -21,6 +21,9 @@ package ro.expectations.expenses.ui.overview;
 
 import android.os.Bundle;
 import android.support.annotation.Nullable;
+import android.support.v4.app.FragmentTransaction;
+import android.view.View;
+import android.view.ViewStub;
 
 import ro.expectations.expenses.R;
 import ro.expectations.expenses.ui.drawer.DrawerActivity;
@@ -29,7 +32,16 @@ public class OverviewActivity extends DrawerActivity {
 
     @Override
     protected void setMainContentView(@Nullable Bundle savedInstanceState) {
+        ViewStub mainContent = (ViewStub) findViewById(R.id.main_content_stub);
+        mainContent.setLayoutResource(R.layout.content_fragment);
+        mainContent.setVisibility(View.VISIBLE);
 
+        if (savedInstanceState == null) {
+            OverviewFragment fragment = OverviewFragment.newInstance();
+            FragmentTransaction transaction = getSupportFragmentManager().beginTransaction();
+            transaction.add(R.id.main_content, fragment);
+            transaction.commit();
+        }
     }
 
     @Override
@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.ui.overview;
+
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+import android.support.v4.app.Fragment;
+import android.support.v4.content.ContextCompat;
+import android.support.v4.util.ArrayMap;
+import android.text.format.DateUtils;
+import android.util.SparseLongArray;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.LinearLayout;
+import android.widget.ProgressBar;
+import android.widget.TextView;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Comparator;
+import java.util.Map;
+
+import io.realm.Realm;
+import io.realm.RealmChangeListener;
+import io.realm.RealmResults;
+import ro.expectations.expenses.R;
+import ro.expectations.expenses.data.MonthlyRollup;
+import ro.expectations.expenses.data.NetWorthCalculator;
+import ro.expectations.expenses.data.TransactionAnalytics;
+import ro.expectations.expenses.data.TransactionSnapshot;
+import ro.expectations.expenses.model.Account;
+import ro.expectations.expenses.model.Category;
+import ro.expectations.expenses.model.MonthlyTotal;
+import ro.expectations.expenses.model.Payee;
+import ro.expectations.expenses.model.Transaction;
+import ro.expectations.expenses.ui.utils.NetWorthUtils;
+import ro.expectations.expenses.utils.MoneyFormatter;
+
+/**
+ * Totals, trend and category breakdown of the income and expenses, read from the monthly
+ * rollup, so the work depends on the number of months and not on the number of transactions.
+ * The rollup is not kept per payee, so the biggest payees are added up from the
+ * {@link TransactionSnapshot} kept by the {@link TransactionAnalytics}.
+ *
+ * Amounts in different currencies can not be added up, so the overview shows the currency with
+ * the most transactions. The net worth is converted to a single currency by the
+ * {@link NetWorthCalculator}.
+ */
+public class OverviewFragment extends Fragment {
+
+    private static final int TREND_MONTHS = 12;
+    private static final int TOP_PAYEES = 10;
+
+    private Realm mRealm;
+    private RealmResults<MonthlyTotal> mTotals;
+    private int mFirstMonth;
+    private int mCurrentMonth;
+    private TransactionSnapshot mSnapshot;
+    private String mCurrency;
+
+    private final NetWorthCalculator.Listener mNetWorthListener = new NetWorthCalculator.Listener() {
+        @Override
+        public void onNetWorthChanged(NetWorthCalculator.NetWorth netWorth) {
+            NetWorthUtils.bind(getContext(), mNetWorth, netWorth);
+        }
+    };
+
+    private final TransactionAnalytics.Listener mSnapshotListener = new TransactionAnalytics.Listener() {
+        @Override
+        public void onSnapshotChanged(TransactionSnapshot snapshot) {
+            mSnapshot = snapshot;
+            renderPayees();
+        }
+    };
+
+    private View mContent;
+    private View mNetWorth;
+    private TextView mSummaryTitle;
+    private LinearLayout mSummary;
+    private LinearLayout mTrend;
+    private LinearLayout mCategories;
+    private View mPayeesTitle;
+    private LinearLayout mPayees;
+    private TextView mEmptyView;
+
+    private final RealmChangeListener<RealmResults<MonthlyTotal>> mChangeListener =
+            new RealmChangeListener<RealmResults<MonthlyTotal>>() {
+                @Override
+                public void onChange(RealmResults<MonthlyTotal> totals) {
+                    render(totals);
+                }
+            };
+
+    public static OverviewFragment newInstance() {
+        return new OverviewFragment();
+    }
+
+    public OverviewFragment() {
+        // Required empty public constructor
+    }
+
+    @Override
+    public void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mRealm = Realm.getDefaultInstance();
+    }
+
+    @Nullable
+    @Override
+    public View onCreateView(LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
+        return inflater.inflate(R.layout.fragment_overview, container, false);
+    }
+
+    @Override
+    public void onViewCreated(View view, @Nullable Bundle savedInstanceState) {
+        mContent = view.findViewById(R.id.overview_content);
+        mNetWorth = view.findViewById(R.id.overview_net_worth);
+        mSummaryTitle = (TextView) view.findViewById(R.id.overview_summary_title);
+        mSummary = (LinearLayout) view.findViewById(R.id.overview_summary);
+        mTrend = (LinearLayout) view.findViewById(R.id.overview_trend);
+        mCategories = (LinearLayout) view.findViewById(R.id.overview_categories);
+        mPayeesTitle = view.findViewById(R.id.overview_payees_title);
+        mPayees = (LinearLayout) view.findViewById(R.id.overview_payees);
+        mEmptyView = (TextView) view.findViewById(R.id.overview_empty);
+
+        Calendar calendar = Calendar.getInstance();
+        mCurrentMonth = MonthlyRollup.monthOf(calendar);
+        calendar.add(Calendar.MONTH, 1 - TREND_MONTHS);
+        mFirstMonth = MonthlyRollup.monthOf(calendar);
+
+        mTotals = mRealm.where(MonthlyTotal.class)
+                .between(MonthlyTotal.MONTH, mFirstMonth, mCurrentMonth)
+                .findAllAsync();
+        mTotals.addChangeListener(mChangeListener);
+
+        // the rollup of a database upgraded from an older version is built on first use
+        if (mRealm.where(MonthlyTotal.class).count() == 0 && mRealm.where(Transaction.class).count() > 0) {
+            mRealm.executeTransactionAsync(new Realm.Transaction() {
+                @Override
+                public void execute(Realm realm) {
+                    new MonthlyRollup(realm).rebuild();
+                }
+            });
+        }
+
+        NetWorthCalculator.getInstance().addListener(mNetWorthListener);
+        TransactionAnalytics.getInstance().addListener(mSnapshotListener);
+    }
+
+    @Override
+    public void onDestroyView() {
+        TransactionAnalytics.getInstance().removeListener(mSnapshotListener);
+        NetWorthCalculator.getInstance().removeListener(mNetWorthListener);
+        mTotals.removeChangeListener(mChangeListener);
+        super.onDestroyView();
+    }
+
+    @Override
+    public void onDestroy() {
+        mRealm.close();
+        super.onDestroy();
+    }
+
+    private void render(RealmResults<MonthlyTotal> totals) {
+        String currency = getMainCurrency(totals);
+        mCurrency = currency;
+        if (currency == null) {
+            mContent.setVisibility(View.GONE);
+            mEmptyView.setVisibility(View.VISIBLE);
+            return;
+        }
+        mContent.setVisibility(View.VISIBLE);
+        mEmptyView.setVisibility(View.GONE);
+
+        SparseLongArray expensesPerMonth = new SparseLongArray();
+        SparseLongArray expensesPerCategory = new SparseLongArray();
+        long income = 0;
+        for (MonthlyTotal total : totals) {
+            if (!currency.equals(total.getCurrency())) {
+                continue;
+            }
+            int month = total.getMonth();
+            expensesPerMonth.put(month, expensesPerMonth.get(month) + total.getExpense());
+            if (month == mCurrentMonth) {
+                income += total.getIncome();
+                int categoryId = total.getCategoryId();
+                expensesPerCategory.put(categoryId, expensesPerCategory.get(categoryId) + total.getExpense());
+            }
+        }
+        long expenses = expensesPerMonth.get(mCurrentMonth);
+
+        MoneyFormatter formatter = MoneyFormatter.getInstance();
+        int creditColor = ContextCompat.getColor(getContext(), R.color.colorGreen700);
+        int debitColor = ContextCompat.getColor(getContext(), R.color.colorRed700);
+
+        // this month
+        mSummaryTitle.setText(getString(R.string.overview_summary, currency));
+        mSummary.removeAllViews();
+        long max = Math.max(income, expenses);
+        addRow(mSummary, getString(R.string.overview_income), formatter.format(income, currency), creditColor, income, max);
+        addRow(mSummary, getString(R.string.overview_expenses), formatter.format(expenses, currency), debitColor, expenses, max);
+        long net = income - expenses;
+        addRow(mSummary, getString(R.string.overview_net), formatter.format(net, currency),
+                net >= 0 ? creditColor : debitColor, Math.abs(net), max);
+
+        // expenses per month, oldest first
+        mTrend.removeAllViews();
+        long maxMonth = 0;
+        for (int i = 0; i < expensesPerMonth.size(); i++) {
+            maxMonth = Math.max(maxMonth, expensesPerMonth.valueAt(i));
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.add(Calendar.MONTH, 1 - TREND_MONTHS);
+        for (int i = 0; i < TREND_MONTHS; i++) {
+            long monthExpenses = expensesPerMonth.get(MonthlyRollup.monthOf(calendar));
+            String title = DateUtils.formatDateTime(getContext(), calendar.getTimeInMillis(),
+                    DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_NO_MONTH_DAY | DateUtils.FORMAT_ABBREV_MONTH);
+            addRow(mTrend, title, formatter.format(monthExpenses, currency), debitColor, monthExpenses, maxMonth);
+            calendar.add(Calendar.MONTH, 1);
+        }
+
+        // expenses per category this month, biggest first
+        mCategories.removeAllViews();
+        int[] order = sortByValueDescending(expensesPerCategory);
+        long maxCategory = order.length > 0 ? expensesPerCategory.valueAt(order[0]) : 0;
+        for (int index : order) {
+            long categoryExpenses = expensesPerCategory.valueAt(index);
+            if (categoryExpenses == 0) {
+                continue;
+            }
+            addRow(mCategories, getCategoryName(expensesPerCategory.keyAt(index)),
+                    formatter.format(categoryExpenses, currency), debitColor, categoryExpenses, maxCategory);
+        }
+
+        renderPayees();
+    }
+
+    /**
+     * Expenses per payee this month, biggest first, in the currency of the rest of the overview.
+     */
+    private void renderPayees() {
+        mPayees.removeAllViews();
+        if (mSnapshot == null || mCurrency == null) {
+            mPayeesTitle.setVisibility(View.GONE);
+            return;
+        }
+
+        RealmResults<Account> accounts = mRealm.where(Account.class)
+                .equalTo(Account.CURRENCY, mCurrency)
+                .findAll();
+        int[] accountIds = new int[accounts.size()];
+        for (int i = 0; i < accountIds.length; i++) {
+            accountIds[i] = accounts.get(i).getId();
+        }
+
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        long from = calendar.getTimeInMillis();
+        calendar.add(Calendar.MONTH, 1);
+        long to = calendar.getTimeInMillis();
+
+        TransactionSnapshot.Sums sums = mSnapshot.query()
+                .occurredBetween(from, to)
+                .kind(TransactionSnapshot.KIND_EXPENSE)
+                .accounts(accountIds)
+                .sumBy(TransactionSnapshot.BY_PAYEE);
+        SparseLongArray expensesPerPayee = new SparseLongArray(sums.size());
+        for (int i = 0; i < sums.size(); i++) {
+            // transactions without a payee are not a payee, and expenses are negative in the snapshot
+            if (sums.keyAt(i) != 0) {
+                expensesPerPayee.put(sums.keyAt(i), -sums.valueAt(i));
+            }
+        }
+
+        MoneyFormatter formatter = MoneyFormatter.getInstance();
+        int debitColor = ContextCompat.getColor(getContext(), R.color.colorRed700);
+        int[] order = sortByValueDescending(expensesPerPayee);
+        long maxPayee = order.length > 0 ? expensesPerPayee.valueAt(order[0]) : 0;
+        for (int i = 0; i < order.length && i < TOP_PAYEES; i++) {
+            long payeeExpenses = expensesPerPayee.valueAt(order[i]);
+            if (payeeExpenses <= 0) {
+                break;
+            }
+            addRow(mPayees, getPayeeName(expensesPerPayee.keyAt(order[i])),
+                    formatter.format(payeeExpenses, mCurrency), debitColor, payeeExpenses, maxPayee);
+        }
+        mPayeesTitle.setVisibility(mPayees.getChildCount() > 0 ? View.VISIBLE : View.GONE);
+    }
+
+    private void addRow(LinearLayout container, String title, String amount, int amountColor, long value, long max) {
+        View row = LayoutInflater.from(getContext()).inflate(R.layout.list_item_overview, container, false);
+        ((TextView) row.findViewById(R.id.overview_item_title)).setText(title);
+        TextView amountView = (TextView) row.findViewById(R.id.overview_item_amount);
+        amountView.setText(amount);
+        amountView.setTextColor(amountColor);
+        ProgressBar bar = (ProgressBar) row.findViewById(R.id.overview_item_bar);
+        bar.setProgress(max > 0 ? (int) (Math.max(0, value) * bar.getMax() / max) : 0);
+        container.addView(row);
+    }
+
+    private String getCategoryName(int categoryId) {
+        Category category = categoryId > 0
+                ? mRealm.where(Category.class).equalTo(Category.ID, categoryId).findFirst()
+                : null;
+        return category != null ? category.getName() : getString(R.string.no_category);
+    }
+
+    private String getPayeeName(int payeeId) {
+        Payee payee = mRealm.where(Payee.class).equalTo(Payee.ID, payeeId).findFirst();
+        return payee != null && payee.getName() != null ? payee.getName() : "";
+    }
+
+    private static String getMainCurrency(RealmResults<MonthlyTotal> totals) {
+        Map<String, Integer> counts = new ArrayMap<>();
+        String mainCurrency = null;
+        int mainCount = 0;
+        for (MonthlyTotal total : totals) {
+            String currency = total.getCurrency();
+            if (currency == null) {
+                continue;
+            }
+            Integer count = counts.get(currency);
+            count = (count != null ? count : 0) + total.getCount();
+            counts.put(currency, count);
+            if (count > mainCount) {
+                mainCurrency = currency;
+                mainCount = count;
+            }
+        }
+        return mainCurrency;
+    }
+
+    private static int[] sortByValueDescending(final SparseLongArray values) {
+        Integer[] indexes = new Integer[values.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = i;
+        }
+        Arrays.sort(indexes, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long difference = values.valueAt(b) - values.valueAt(a);
+                return difference > 0 ? 1 : (difference < 0 ? -1 : 0);
+            }
+        });
+        int[] order = new int[indexes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = indexes[i];
+        }
+        return order;
+    }
+}
@@ -58,6 +58,13 @@ public class PayeesAdapter extends RealmRecyclerViewAdapter<Payee, PayeesAdapter
     public PayeesAdapter(@NonNull Context context, @Nullable OrderedRealmCollection<Payee> data, boolean autoUpdate) {
         super(context, data, autoUpdate);
         mMultipleSelectionHelper = new MultipleSelectionHelper(this);
+        setHasStableIds(true);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        Payee payee = getItem(position);
+        return payee != null ? payee.getId() : RecyclerView.NO_ID;
     }
 
     @Override
@@ -89,6 +96,11 @@ public class PayeesAdapter extends RealmRecyclerViewAdapter<Payee, PayeesAdapter
         return mMultipleSelectionHelper.getSelectedItemCount();
     }
 
+    @Override
+    public long[] getSelectedItemIds() {
+        return mMultipleSelectionHelper.getSelectedItemIds();
+    }
+
     @Override
     public List<Integer> getSelectedItemPositions() {
         return mMultipleSelectionHelper.getSelectedItemPositions();
@@ -109,6 +121,26 @@ public class PayeesAdapter extends RealmRecyclerViewAdapter<Payee, PayeesAdapter
         mMultipleSelectionHelper.clearSelection();
     }
 
+    @Override
+    public void selectAll() {
+        mMultipleSelectionHelper.selectAll();
+    }
+
+    @Override
+    public void selectRange(int fromPosition, int toPosition) {
+        mMultipleSelectionHelper.selectRange(fromPosition, toPosition);
+    }
+
+    @Override
+    public void invertSelection() {
+        mMultipleSelectionHelper.invertSelection();
+    }
+
+    @Override
+    public void selectItems(ItemFilter filter) {
+        mMultipleSelectionHelper.selectItems(filter);
+    }
+
     @Override
     public void onSaveInstanceState(Bundle state) {
         mMultipleSelectionHelper.onSaveInstanceState(state);
@@ -116,8 +116,7 @@ public class PayeesFragment extends Fragment {
             switch(id) {
                 case R.id.action_edit_payee:
                     if (mAdapter.getSelectedItemCount() == 1) {
-                        int position = mAdapter.getSelectedItemPositions().get(0);
-                        long payeeId = mAdapter.getItemId(position);
+                        long payeeId = mAdapter.getSelectedItemIds()[0];
                         Intent editPayeeIntent = new Intent(getActivity(), ManagePayeeActivity.class);
                         editPayeeIntent.putExtra(ManagePayeeActivity.ARG_PAYEE_ID, payeeId);
                         startActivity(editPayeeIntent);
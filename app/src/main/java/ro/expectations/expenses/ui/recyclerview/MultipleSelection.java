@@ -29,6 +29,18 @@ import java.util.List;
  */
 public interface MultipleSelection {
 
+    /**
+     * Decides which items are selected by {@link #selectItems}.
+     */
+    interface ItemFilter {
+
+        /**
+         * @param position The position of the item in the list
+         * @return True if the item should be selected
+         */
+        boolean accept(int position);
+    }
+
     /**
      * Check if the adapter has at least 1 item selected or not.
      *
@@ -40,12 +52,19 @@ public interface MultipleSelection {
      * Return the number of items currently selected.
      *
      * To determine the specific items that are currently selected, use
-     * the {@link #getSelectedItemPositions} method.
+     * the {@link #getSelectedItemIds} method.
      *
      * @return The number of items currently selected
      */
     int getSelectedItemCount();
 
+    /**
+     * Return the ids of the selected items, in ascending order.
+     *
+     * @return The ids of all selected items
+     */
+    long[] getSelectedItemIds();
+
     /**
      * Return the set of selected item positions in the list.
      *
@@ -74,6 +93,31 @@ public interface MultipleSelection {
      */
     void clearSelection();
 
+    /**
+     * Select all the items of the list.
+     */
+    void selectAll();
+
+    /**
+     * Select all the items between two positions, both included, in any order.
+     *
+     * @param fromPosition The position of the first item
+     * @param toPosition The position of the last item
+     */
+    void selectRange(int fromPosition, int toPosition);
+
+    /**
+     * Select the items that are not selected, and clear the selected ones.
+     */
+    void invertSelection();
+
+    /**
+     * Add the items accepted by the filter to the selection.
+     *
+     * @param filter Decides which items are selected
+     */
+    void selectItems(ItemFilter filter);
+
     /**
      * Called to save the the state of the adapter.
      *
@@ -23,18 +23,25 @@ import android.os.Bundle;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.v7.widget.RecyclerView;
-import android.util.SparseBooleanArray;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Keeps track of the selected items of an adapter by their ids, so the selection is not shifted
+ * when items are inserted or removed around it.
+ *
+ * The adapter has to provide stable ids through {@link RecyclerView.Adapter#getItemId}; items
+ * without an id ({@link RecyclerView#NO_ID}) can not be selected. Adapters that only know the
+ * ids of some of their items can select the others through {@link #selectItemIds} and
+ * {@link #invertSelection(long[])}.
+ */
 public class MultipleSelectionHelper implements MultipleSelection {
 
     private static final String STATE_KEY_SELECTED_ITEMS = "MultipleSelectionHelper::SelectedItems";
-    private static final String STATE_KEY_SELECTED_COUNT = "MultipleSelectionHelper::SelectedCount";
 
     private SelectedItems mSelectedItems = new SelectedItems();
-    private int mSelectedItemsCount;
 
     private RecyclerView.Adapter mAdapter;
 
@@ -55,20 +62,29 @@ public class MultipleSelectionHelper implements MultipleSelection {
 
     @Override
     public boolean hasItemSelected() {
-        return mSelectedItemsCount > 0;
+        return mSelectedItems.size() > 0;
     }
 
     @Override
     public int getSelectedItemCount() {
-        return mSelectedItemsCount;
+        return mSelectedItems.size();
+    }
+
+    @Override
+    public long[] getSelectedItemIds() {
+        return mSelectedItems.toArray();
     }
 
     @Override
     public List<Integer> getSelectedItemPositions() {
         List<Integer> items = new ArrayList<>();
-        for (int i = 0; i < mSelectedItems.size(); ++i) {
-            if (mSelectedItems.valueAt(i)) {
-                items.add(mSelectedItems.keyAt(i));
+        if (mAdapter == null) {
+            return items;
+        }
+        int count = mAdapter.getItemCount();
+        for (int i = 0; i < count && items.size() < mSelectedItems.size(); i++) {
+            if (isItemSelected(i)) {
+                items.add(i);
             }
         }
         return items;
@@ -76,47 +92,100 @@ public class MultipleSelectionHelper implements MultipleSelection {
 
     @Override
     public boolean isItemSelected(int position) {
-        return mSelectedItems.get(position);
+        long id = getItemId(position);
+        return id != RecyclerView.NO_ID && mSelectedItems.contains(id);
     }
 
     @Override
     public void setItemSelected(int position, boolean selected) {
-        boolean oldValue = mSelectedItems.get(position);
-
-        if (selected) {
-            mSelectedItems.put(position, true);
-        } else {
-            mSelectedItems.delete(position);
+        long id = getItemId(position);
+        if (id == RecyclerView.NO_ID) {
+            return;
         }
 
-        if (oldValue != selected) {
-            if (selected) {
-                mSelectedItemsCount++;
-            } else {
-                mSelectedItemsCount--;
-            }
-            if (mAdapter != null) {
-                mAdapter.notifyItemChanged(position);
-            }
+        boolean changed = selected ? mSelectedItems.add(id) : mSelectedItems.remove(id);
+        if (changed && mAdapter != null) {
+            mAdapter.notifyItemChanged(position);
         }
     }
 
     @Override
     public void clearSelection() {
-        List<Integer> selection = getSelectedItemPositions();
+        if (mSelectedItems.size() == 0) {
+            return;
+        }
         mSelectedItems.clear();
-        mSelectedItemsCount = 0;
-        for (Integer i: selection) {
-            if (mAdapter != null) {
-                mAdapter.notifyItemChanged(i);
-            }
+        notifyAllItemsChanged();
+    }
+
+    @Override
+    public void selectAll() {
+        if (mAdapter == null) {
+            return;
+        }
+        mSelectedItems.addAll(getItemIds(0, mAdapter.getItemCount(), null));
+        notifyAllItemsChanged();
+    }
+
+    @Override
+    public void selectRange(int fromPosition, int toPosition) {
+        if (mAdapter == null) {
+            return;
+        }
+        int from = Math.max(0, Math.min(fromPosition, toPosition));
+        int to = Math.min(mAdapter.getItemCount(), Math.max(fromPosition, toPosition) + 1);
+        if (from >= to) {
+            return;
         }
+        mSelectedItems.addAll(getItemIds(from, to, null));
+        mAdapter.notifyItemRangeChanged(from, to - from);
+    }
+
+    @Override
+    public void invertSelection() {
+        if (mAdapter == null) {
+            return;
+        }
+        invertSelection(getItemIds(0, mAdapter.getItemCount(), null));
+    }
+
+    /**
+     * Select the items that are not selected, and clear the selected ones, for adapters that can
+     * not provide the ids of all their items at once.
+     *
+     * @param ids The ids of all the items
+     */
+    public void invertSelection(long[] ids) {
+        SelectedItems selectedItems = new SelectedItems();
+        selectedItems.addAll(ids);
+        selectedItems.removeAll(mSelectedItems);
+        mSelectedItems = selectedItems;
+        notifyAllItemsChanged();
+    }
+
+    /**
+     * Add items to the selection by their ids, for adapters that can not provide the ids of all
+     * their items at once.
+     *
+     * @param ids The ids of the items to select
+     */
+    public void selectItemIds(long[] ids) {
+        mSelectedItems.addAll(ids);
+        notifyAllItemsChanged();
+    }
+
+    @Override
+    public void selectItems(ItemFilter filter) {
+        if (mAdapter == null) {
+            return;
+        }
+        mSelectedItems.addAll(getItemIds(0, mAdapter.getItemCount(), filter));
+        notifyAllItemsChanged();
     }
 
     @Override
     public void onSaveInstanceState(Bundle state) {
         state.putParcelable(STATE_KEY_SELECTED_ITEMS, mSelectedItems);
-        state.putInt(STATE_KEY_SELECTED_COUNT, mSelectedItemsCount);
     }
 
     @Override
@@ -125,13 +194,43 @@ public class MultipleSelectionHelper implements MultipleSelection {
         if (mSelectedItems == null) {
             mSelectedItems = new SelectedItems();
         }
-        mSelectedItemsCount = state.getInt(STATE_KEY_SELECTED_COUNT, 0);
     }
 
-    private static class SelectedItems extends SparseBooleanArray implements Parcelable {
+    private long getItemId(int position) {
+        if (mAdapter == null || position < 0 || position >= mAdapter.getItemCount()) {
+            return RecyclerView.NO_ID;
+        }
+        return mAdapter.getItemId(position);
+    }
+
+    /**
+     * Collect the ids of the items between two positions, skipping the items without an id.
+     */
+    private long[] getItemIds(int from, int to, ItemFilter filter) {
+        long[] ids = new long[to - from];
+        int size = 0;
+        for (int i = from; i < to; i++) {
+            if (filter != null && !filter.accept(i)) {
+                continue;
+            }
+            long id = mAdapter.getItemId(i);
+            if (id != RecyclerView.NO_ID) {
+                ids[size++] = id;
+            }
+        }
+        return size == ids.length ? ids : Arrays.copyOf(ids, size);
+    }
 
-        private static final int FALSE = 0;
-        private static final int TRUE = 1;
+    private void notifyAllItemsChanged() {
+        if (mAdapter != null) {
+            mAdapter.notifyItemRangeChanged(0, mAdapter.getItemCount());
+        }
+    }
+
+    /**
+     * Sorted set of primitive ids.
+     */
+    private static class SelectedItems implements Parcelable {
 
         public static final Parcelable.Creator<SelectedItems> CREATOR =
                 new Parcelable.Creator<SelectedItems>() {
@@ -147,22 +246,97 @@ public class MultipleSelectionHelper implements MultipleSelection {
                     }
                 };
 
+        private long[] mIds;
+        private int mSize;
 
         public SelectedItems() {
-            super();
+            mIds = new long[10];
         }
 
         private SelectedItems(Parcel in) {
-            final int size = in.readInt();
-            if (size > 0) {
-                for (int i = 0; i < size; i++) {
-                    final int key = in.readInt();
-                    final boolean value = (in.readInt() == TRUE);
-                    if (value) {
-                        put(key, true);
-                    }
+            mIds = in.createLongArray();
+            mSize = mIds.length;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        boolean contains(long id) {
+            return Arrays.binarySearch(mIds, 0, mSize, id) >= 0;
+        }
+
+        boolean add(long id) {
+            int index = Arrays.binarySearch(mIds, 0, mSize, id);
+            if (index >= 0) {
+                return false;
+            }
+            index = ~index;
+            if (mSize == mIds.length) {
+                mIds = Arrays.copyOf(mIds, mSize * 2 + 1);
+            }
+            System.arraycopy(mIds, index, mIds, index + 1, mSize - index);
+            mIds[index] = id;
+            mSize++;
+            return true;
+        }
+
+        boolean remove(long id) {
+            int index = Arrays.binarySearch(mIds, 0, mSize, id);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(mIds, index + 1, mIds, index, mSize - index - 1);
+            mSize--;
+            return true;
+        }
+
+        void clear() {
+            mSize = 0;
+        }
+
+        /**
+         * Add many ids at once, by sorting them and merging them with the ids of the set.
+         */
+        void addAll(long[] ids) {
+            if (ids.length == 0) {
+                return;
+            }
+            Arrays.sort(ids);
+
+            long[] merged = new long[mSize + ids.length];
+            int i = 0, j = 0, size = 0;
+            while (i < mSize || j < ids.length) {
+                long id;
+                if (j == ids.length || (i < mSize && mIds[i] <= ids[j])) {
+                    id = mIds[i++];
+                } else {
+                    id = ids[j++];
+                }
+                if (size == 0 || merged[size - 1] != id) {
+                    merged[size++] = id;
                 }
             }
+            mIds = merged;
+            mSize = size;
+        }
+
+        void removeAll(SelectedItems other) {
+            int j = 0, size = 0;
+            for (int i = 0; i < mSize; i++) {
+                long id = mIds[i];
+                while (j < other.mSize && other.mIds[j] < id) {
+                    j++;
+                }
+                if (j == other.mSize || other.mIds[j] != id) {
+                    mIds[size++] = id;
+                }
+            }
+            mSize = size;
+        }
+
+        long[] toArray() {
+            return Arrays.copyOf(mIds, mSize);
         }
 
         @Override
@@ -172,13 +346,7 @@ public class MultipleSelectionHelper implements MultipleSelection {
 
         @Override
         public void writeToParcel(Parcel parcel, int flags) {
-            final int size = size();
-            parcel.writeInt(size);
-
-            for (int i = 0; i < size; i++) {
-                parcel.writeInt(keyAt(i));
-                parcel.writeInt(valueAt(i) ? TRUE : FALSE);
-            }
+            parcel.writeLongArray(toArray());
         }
     }
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.ui.transactions;
+
+import android.support.annotation.ColorInt;
+import android.support.annotation.ColorRes;
+import android.support.annotation.DrawableRes;
+import android.text.TextUtils;
+
+/**
+ * Immutable, display ready snapshot of a row from the transactions list.
+ *
+ * Rows are projected off the main thread by {@link TransactionRowProjector}, so binding one
+ * needs neither Realm access nor any formatting.
+ */
+class TransactionRow {
+
+    private final long mEntryId;
+    private final int mTransactionId;
+
+    private final String mAccount;
+    private final String mDescription;
+    private final CharSequence mDate;
+    private final String mAmount;
+    @ColorInt
+    private final int mAmountColor;
+    private final String mRunningBalance;
+
+    @DrawableRes
+    private final int mIcon;
+    @ColorInt
+    private final int mIconColor;
+    @DrawableRes
+    private final int mTypeIcon;
+    @ColorRes
+    private final int mTypeIconColor;
+
+    TransactionRow(long entryId, int transactionId, String account, String description,
+                   CharSequence date, String amount, @ColorInt int amountColor,
+                   String runningBalance, @DrawableRes int icon, @ColorInt int iconColor,
+                   @DrawableRes int typeIcon, @ColorRes int typeIconColor) {
+        mEntryId = entryId;
+        mTransactionId = transactionId;
+        mAccount = account;
+        mDescription = description;
+        mDate = date;
+        mAmount = amount;
+        mAmountColor = amountColor;
+        mRunningBalance = runningBalance;
+        mIcon = icon;
+        mIconColor = iconColor;
+        mTypeIcon = typeIcon;
+        mTypeIconColor = typeIconColor;
+    }
+
+    long getEntryId() {
+        return mEntryId;
+    }
+
+    int getTransactionId() {
+        return mTransactionId;
+    }
+
+    String getAccount() {
+        return mAccount;
+    }
+
+    String getDescription() {
+        return mDescription;
+    }
+
+    CharSequence getDate() {
+        return mDate;
+    }
+
+    String getAmount() {
+        return mAmount;
+    }
+
+    @ColorInt
+    int getAmountColor() {
+        return mAmountColor;
+    }
+
+    String getRunningBalance() {
+        return mRunningBalance;
+    }
+
+    @DrawableRes
+    int getIcon() {
+        return mIcon;
+    }
+
+    @ColorInt
+    int getIconColor() {
+        return mIconColor;
+    }
+
+    @DrawableRes
+    int getTypeIcon() {
+        return mTypeIcon;
+    }
+
+    @ColorRes
+    int getTypeIconColor() {
+        return mTypeIconColor;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+
+        TransactionRow row = (TransactionRow) o;
+        return mEntryId == row.mEntryId
+                && mTransactionId == row.mTransactionId
+                && mAmountColor == row.mAmountColor
+                && mIcon == row.mIcon
+                && mIconColor == row.mIconColor
+                && mTypeIcon == row.mTypeIcon
+                && mTypeIconColor == row.mTypeIconColor
+                && TextUtils.equals(mAccount, row.mAccount)
+                && TextUtils.equals(mDescription, row.mDescription)
+                && TextUtils.equals(mDate, row.mDate)
+                && TextUtils.equals(mAmount, row.mAmount)
+                && TextUtils.equals(mRunningBalance, row.mRunningBalance);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (mEntryId ^ (mEntryId >>> 32));
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.ui.transactions;
+
+import android.content.Context;
+import android.support.v4.content.ContextCompat;
+import android.text.format.DateUtils;
+
+import java.util.Date;
+
+import ro.expectations.expenses.R;
+import ro.expectations.expenses.model.Account;
+import ro.expectations.expenses.model.Category;
+import ro.expectations.expenses.model.LedgerEntry;
+import ro.expectations.expenses.model.Payee;
+import ro.expectations.expenses.model.Transaction;
+import ro.expectations.expenses.utils.IconRegistry;
+import ro.expectations.expenses.utils.MoneyFormatter;
+
+/**
+ * Turns ledger entries into {@link TransactionRow} view models.
+ *
+ * This walks the Realm links of the transaction and does all the formatting, so it is meant to
+ * run on a background thread, with the Realm instance of that thread.
+ */
+class TransactionRowProjector {
+
+    private final Context mContext;
+    private final long mSelectedAccountId;
+    private final MoneyFormatter mMoneyFormatter = MoneyFormatter.getInstance();
+    private final IconRegistry mIconRegistry;
+
+    private final int mDefaultColor;
+    private final int mDebitColor;
+    private final int mCreditColor;
+    private final int mTransferColor;
+
+    private final StringBuilder mDescription = new StringBuilder();
+
+    TransactionRowProjector(Context context, long selectedAccountId) {
+        mContext = context;
+        mSelectedAccountId = selectedAccountId;
+        mIconRegistry = IconRegistry.getInstance(context);
+
+        mDefaultColor = ContextCompat.getColor(context, R.color.colorPrimary);
+        mDebitColor = ContextCompat.getColor(context, R.color.colorRed700);
+        mCreditColor = ContextCompat.getColor(context, R.color.colorGreen700);
+        mTransferColor = ContextCompat.getColor(context, R.color.colorOrange700);
+    }
+
+    TransactionRow project(LedgerEntry entry) {
+        Transaction transaction = entry.getTransaction();
+        Account fromAccount = transaction.getFromAccount();
+        Account toAccount = transaction.getToAccount();
+        Category category = transaction.getCategory();
+
+        String account;
+        String amount;
+        int amountColor;
+        String runningBalance;
+        int typeIcon;
+        int typeIconColor;
+
+        if (fromAccount != null && toAccount != null) {
+            account = mContext.getString(R.string.breadcrumbs, fromAccount.getTitle(), toAccount.getTitle());
+
+            if (mSelectedAccountId > 0) {
+                // the entry already holds the side of the transfer that belongs to the account
+                boolean isOutgoing = entry.getSide() == LedgerEntry.SIDE_FROM;
+                String currencyCode = (isOutgoing ? fromAccount : toAccount).getCurrency();
+                amount = mMoneyFormatter.format(entry.getAmount(), currencyCode);
+                runningBalance = mMoneyFormatter.format(entry.getRunningBalance(), currencyCode);
+                amountColor = isOutgoing ? mDebitColor : mCreditColor;
+                typeIcon = isOutgoing ? R.drawable.ic_call_made_black_24dp : R.drawable.ic_call_received_black_24dp;
+                typeIconColor = isOutgoing ? R.color.colorRed700 : R.color.colorGreen700;
+            } else {
+                String fromCurrencyCode = fromAccount.getCurrency();
+                String toCurrencyCode = toAccount.getCurrency();
+                if (fromCurrencyCode.equals(toCurrencyCode)) {
+                    amount = mMoneyFormatter.format(transaction.getFromAmount(), fromCurrencyCode);
+                } else {
+                    amount = mContext.getString(R.string.breadcrumbs,
+                            mMoneyFormatter.format(transaction.getFromAmount(), fromCurrencyCode),
+                            mMoneyFormatter.format(transaction.getToAmount(), toCurrencyCode));
+                }
+                runningBalance = mContext.getString(R.string.breadcrumbs,
+                        mMoneyFormatter.format(transaction.getFromRunningBalance(), fromCurrencyCode),
+                        mMoneyFormatter.format(transaction.getToRunningBalance(), toCurrencyCode));
+                amountColor = mTransferColor;
+                typeIcon = R.drawable.ic_swap_horiz_black_24dp;
+                typeIconColor = R.color.colorOrange700;
+            }
+        } else if (fromAccount != null) {
+            account = fromAccount.getTitle();
+            amount = mMoneyFormatter.format(entry.getAmount(), fromAccount.getCurrency());
+            runningBalance = mMoneyFormatter.format(entry.getRunningBalance(), fromAccount.getCurrency());
+            amountColor = mDebitColor;
+            typeIcon = R.drawable.ic_call_made_black_24dp;
+            typeIconColor = R.color.colorRed700;
+        } else {
+            account = toAccount != null ? toAccount.getTitle() : "";
+            String currencyCode = toAccount != null ? toAccount.getCurrency() : null;
+            amount = mMoneyFormatter.format(entry.getAmount(), currencyCode);
+            runningBalance = mMoneyFormatter.format(entry.getRunningBalance(), currencyCode);
+            amountColor = mCreditColor;
+            typeIcon = R.drawable.ic_call_received_black_24dp;
+            typeIconColor = R.color.colorGreen700;
+        }
+
+        // Set the transaction date
+        CharSequence date = null;
+        Date transactionDate = transaction.getOccurredAt();
+        if (transactionDate == null) {
+            transactionDate = transaction.getClearedAt();
+        }
+        if (transactionDate != null) {
+            date = DateUtils.getRelativeTimeSpanString(transactionDate.getTime(), System.currentTimeMillis(), DateUtils.DAY_IN_MILLIS);
+        }
+
+        // Set the icon
+        int icon;
+        if (fromAccount != null && toAccount != null) {
+            icon = R.drawable.ic_transfer_black_24dp;
+        } else {
+            String iconName = category != null ? category.getIcon() : null;
+            icon = mIconRegistry.getDrawableId(iconName, R.drawable.ic_question_mark_black_24dp);
+        }
+        int iconColor = category != null ? category.getColorValue() : 0;
+        if (iconColor == 0) {
+            iconColor = mDefaultColor;
+        }
+
+        return new TransactionRow(entry.getId(), transaction.getId(), account,
+                buildDescription(transaction, category, fromAccount, toAccount), date,
+                amount, amountColor, runningBalance, icon, iconColor, typeIcon, typeIconColor);
+    }
+
+    private String buildDescription(Transaction transaction, Category category, Account fromAccount, Account toAccount) {
+        StringBuilder description = mDescription;
+        description.setLength(0);
+
+        if (transaction.getSplits().size() > 0) {
+            description.append(mContext.getString(R.string.multiple_categories));
+        } else if (category != null) {
+            Category parentCategory = category.getParentCategory();
+            if (parentCategory != null) {
+                description.append(parentCategory.getName()).append(" » ");
+            }
+            description.append(category.getName());
+        }
+
+        Payee payee = transaction.getPayee();
+        String payeeName = payee != null ? payee.getName() : null;
+        String note = transaction.getNote();
+        boolean hasPayee = payeeName != null && !payeeName.isEmpty();
+        boolean hasNote = note != null && !note.isEmpty();
+        if (hasPayee || hasNote) {
+            boolean hasCategory = description.length() > 0;
+            if (hasCategory) {
+                description.append(" (");
+            }
+            if (hasPayee) {
+                description.append(payeeName);
+            }
+            if (hasNote) {
+                if (hasPayee) {
+                    description.append(": ");
+                }
+                description.append(note);
+            }
+            if (hasCategory) {
+                description.append(")");
+            }
+        }
+
+        if (description.length() == 0) {
+            if (fromAccount != null && toAccount != null) {
+                description.append(mContext.getString(R.string.default_transfer_description));
+            } else if (fromAccount != null) {
+                description.append(mContext.getString(R.string.default_debit_description));
+            } else {
+                description.append(mContext.getString(R.string.default_credit_description));
+            }
+        }
+        return description.toString();
+    }
+}
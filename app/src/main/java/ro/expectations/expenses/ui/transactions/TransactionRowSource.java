@@ -0,0 +1,597 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.ui.transactions;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import io.realm.Realm;
+import io.realm.RealmChangeListener;
+import io.realm.RealmQuery;
+import io.realm.RealmResults;
+import io.realm.Sort;
+import ro.expectations.expenses.model.Category;
+import ro.expectations.expenses.model.LedgerEntry;
+import ro.expectations.expenses.utils.IconRegistry;
+
+/**
+ * Loads the rows of the transactions list in pages, on a background thread.
+ *
+ * The ledger entries are queried with a Realm instance owned by a {@link HandlerThread}, and
+ * every requested page is projected into {@link TransactionRow} view models before being handed
+ * over to the main thread. The entries are ordered by (occurredAt, transaction id) and every row
+ * is identified by the id of its entry.
+ *
+ * Only the number of rows and the pages around the last requested one are published. Whenever
+ * the entries change, the rows that were in that window are diffed against the rows now found
+ * between the same sort keys, and the rows before and after the window are only counted, so a
+ * change costs the same whatever the size of the list. The ids of all the rows, e.g. to select
+ * them, are read on demand.
+ *
+ * The rows can be narrowed down to a set of transactions, e.g. the results of a search.
+ */
+class TransactionRowSource {
+
+    static final int PAGE_SIZE = 50;
+
+    // bigger changes are published as a full reload, which is cheaper than diffing them
+    private static final int MAX_DIFF_SIZE_CHANGE = 1000;
+
+    private static final String[] ORDER_FIELDS = {LedgerEntry.OCCURRED_AT, LedgerEntry.TRANSACTION_ID};
+    private static final Sort[] ORDER = {Sort.DESCENDING, Sort.DESCENDING};
+
+    interface Callback {
+
+        /**
+         * Called on the main thread when the rows were (re)loaded. Pages delivered before this
+         * call are stale.
+         *
+         * @param count The number of rows
+         * @param diff The insertions and removals since the previous call, or null for a full reload
+         * @param pages The pages around the last requested one, already loaded again
+         */
+        void onRowsChanged(int count, @Nullable RowsDiff diff, SparseArray<List<TransactionRow>> pages);
+
+        /**
+         * Called on the main thread with the rows of a requested page.
+         */
+        void onPageLoaded(int page, List<TransactionRow> rows);
+    }
+
+    interface EntryIdsCallback {
+
+        /**
+         * Called on the main thread with the ledger entry ids of the requested rows.
+         */
+        void onEntryIdsLoaded(long[] entryIds);
+    }
+
+    private final Context mContext;
+    private final long mSelectedAccountId;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private Callback mCallback;
+    private int mPublishedGeneration = -1;
+
+    // only accessed from the background thread
+    private Realm mRealm;
+    private RealmResults<LedgerEntry> mEntries;
+    private TransactionRowProjector mProjector;
+    private int mGeneration;
+    private int mWindowPage;
+    private int[] mTransactionIds;
+
+    // the rows around the last requested page, as they were when it was requested
+    private int mCount = -1;
+    private int mWindowStart;
+    private long[] mWindowIds;
+    private Date mWindowFirstOccurredAt;
+    private int mWindowFirstTransactionId;
+    private Date mWindowLastOccurredAt;
+    private int mWindowLastTransactionId;
+
+    private final RealmChangeListener<RealmResults<LedgerEntry>> mChangeListener =
+            new RealmChangeListener<RealmResults<LedgerEntry>>() {
+                @Override
+                public void onChange(RealmResults<LedgerEntry> entries) {
+                    mGeneration++;
+                    publishRows();
+                }
+            };
+
+    TransactionRowSource(Context context, long selectedAccountId) {
+        mContext = context.getApplicationContext();
+        mSelectedAccountId = selectedAccountId;
+    }
+
+    void start(Callback callback) {
+        mCallback = callback;
+        mThread = new HandlerThread("TransactionRowSource");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mRealm = Realm.getDefaultInstance();
+                mProjector = new TransactionRowProjector(mContext, mSelectedAccountId);
+                warmIcons();
+                mEntries = queryEntries();
+                mEntries.addChangeListener(mChangeListener);
+                publishRows();
+            }
+        });
+    }
+
+    /**
+     * Only show the rows of some transactions, in the usual order.
+     *
+     * @param transactionIds The ids of the transactions, or null to show all of them
+     */
+    void setTransactionIds(@Nullable final int[] transactionIds) {
+        if (mThread == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mEntries == null) {
+                    return;
+                }
+                mTransactionIds = transactionIds;
+                mEntries.removeChangeListener(mChangeListener);
+                mEntries = queryEntries();
+                mEntries.addChangeListener(mChangeListener);
+
+                // a different set of rows is not worth diffing
+                mCount = -1;
+                mWindowPage = 0;
+                mGeneration++;
+                publishRows();
+            }
+        });
+    }
+
+    void stop() {
+        mCallback = null;
+        if (mThread == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mEntries != null) {
+                    mEntries.removeChangeListener(mChangeListener);
+                    mEntries = null;
+                }
+                if (mRealm != null) {
+                    mRealm.close();
+                    mRealm = null;
+                }
+            }
+        });
+        mThread.quitSafely();
+        mThread = null;
+    }
+
+    /**
+     * Request the rows of a page, delivered through {@link Callback#onPageLoaded}.
+     */
+    void loadPage(final int page) {
+        if (mThread == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mEntries == null) {
+                    return;
+                }
+                mWindowPage = page;
+                captureWindow();
+                final List<TransactionRow> rows = projectPage(page);
+
+                final int generation = mGeneration;
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCallback != null && generation == mPublishedGeneration) {
+                            mCallback.onPageLoaded(page, rows);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Request the ledger entry ids of all the rows, delivered through
+     * {@link EntryIdsCallback#onEntryIdsLoaded}.
+     */
+    void loadEntryIds(EntryIdsCallback callback) {
+        loadEntryIds(0, Integer.MAX_VALUE, -1, callback);
+    }
+
+    /**
+     * Request the ledger entry ids of the rows between two positions, delivered through
+     * {@link EntryIdsCallback#onEntryIdsLoaded} unless the rows changed in the meantime.
+     *
+     * @param from The position of the first row
+     * @param to The position after the last row
+     */
+    void loadEntryIds(int from, int to, EntryIdsCallback callback) {
+        loadEntryIds(from, to, mPublishedGeneration, callback);
+    }
+
+    private void loadEntryIds(final int from, final int to, final int generation,
+                              final EntryIdsCallback callback) {
+        if (mThread == null) {
+            return;
+        }
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // positions only make sense in the rows they were taken from
+                if (mEntries == null || (generation >= 0 && generation != mGeneration)) {
+                    return;
+                }
+                final long[] entryIds = getEntryIds(from, Math.min(to, mEntries.size()));
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mCallback != null) {
+                            callback.onEntryIdsLoaded(entryIds);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    private RealmResults<LedgerEntry> queryEntries() {
+        RealmQuery<LedgerEntry> query = mRealm.where(LedgerEntry.class);
+        if (mSelectedAccountId > 0) {
+            query.equalTo(LedgerEntry.ACCOUNT_ID, mSelectedAccountId);
+        } else {
+            query.equalTo(LedgerEntry.IS_PRIMARY, true);
+        }
+        if (mTransactionIds != null) {
+            if (mTransactionIds.length == 0) {
+                // Realm does not accept an empty set of values
+                query.equalTo(LedgerEntry.TRANSACTION_ID, 0);
+            } else {
+                Integer[] transactionIds = new Integer[mTransactionIds.length];
+                for (int i = 0; i < transactionIds.length; i++) {
+                    transactionIds[i] = mTransactionIds[i];
+                }
+                query.in(LedgerEntry.TRANSACTION_ID, transactionIds);
+            }
+        }
+        return query.findAllSorted(ORDER_FIELDS, ORDER);
+    }
+
+    private void warmIcons() {
+        RealmResults<Category> categories = mRealm.where(Category.class).findAll();
+        List<String> iconNames = new ArrayList<>(categories.size());
+        for (Category category : categories) {
+            iconNames.add(category.getIcon());
+        }
+        IconRegistry.getInstance(mContext).warm(iconNames);
+    }
+
+    private List<TransactionRow> projectPage(int page) {
+        int start = page * PAGE_SIZE;
+        int end = Math.min(start + PAGE_SIZE, mEntries.size());
+        List<TransactionRow> rows = new ArrayList<>(Math.max(0, end - start));
+        for (int i = start; i < end; i++) {
+            rows.add(mProjector.project(mEntries.get(i)));
+        }
+        return rows;
+    }
+
+    private long[] getEntryIds(int from, int to) {
+        long[] entryIds = new long[Math.max(0, to - from)];
+        for (int i = 0; i < entryIds.length; i++) {
+            entryIds[i] = mEntries.get(from + i).getId();
+        }
+        return entryIds;
+    }
+
+    private void publishRows() {
+        final int count = mEntries.size();
+
+        RowsDiff diff = null;
+        int windowPosition = 0;
+        if (mCount >= 0 && Math.abs(count - mCount) <= MAX_DIFF_SIZE_CHANGE) {
+            diff = diffWindow(count);
+        }
+        if (diff != null) {
+            PositionTracker tracker = new PositionTracker(mWindowPage * PAGE_SIZE);
+            diff.dispatchUpdatesTo(tracker);
+            windowPosition = tracker.mPosition;
+        }
+
+        // project the pages that are most likely on screen
+        mCount = count;
+        mWindowPage = windowPosition / PAGE_SIZE;
+        captureWindow();
+        final SparseArray<List<TransactionRow>> pages = new SparseArray<>();
+        int pageCount = (count + PAGE_SIZE - 1) / PAGE_SIZE;
+        for (int page = Math.max(0, mWindowPage - 1); page <= Math.min(pageCount - 1, mWindowPage + 1); page++) {
+            pages.put(page, projectPage(page));
+        }
+
+        final RowsDiff publishedDiff = diff;
+        final int generation = mGeneration;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCallback != null) {
+                    mPublishedGeneration = generation;
+                    mCallback.onRowsChanged(count, publishedDiff, pages);
+                }
+            }
+        });
+    }
+
+    /**
+     * Remember the ids and the sort keys of the rows around the last requested page, so the next
+     * change can be diffed without reading the other rows.
+     */
+    private void captureWindow() {
+        int start = Math.min(Math.max(0, mWindowPage - 1) * PAGE_SIZE, mEntries.size());
+        int end = Math.min((mWindowPage + 2) * PAGE_SIZE, mEntries.size());
+        mWindowStart = start;
+        mWindowIds = getEntryIds(start, end);
+        if (start < end) {
+            LedgerEntry first = mEntries.get(start);
+            mWindowFirstOccurredAt = first.getOccurredAt();
+            mWindowFirstTransactionId = first.getTransactionId();
+            LedgerEntry last = mEntries.get(end - 1);
+            mWindowLastOccurredAt = last.getOccurredAt();
+            mWindowLastTransactionId = last.getTransactionId();
+        }
+    }
+
+    /**
+     * Diff the rows of the captured window against the rows now found between the same sort
+     * keys. The rows before and after the window are only counted.
+     *
+     * @return The changes, or null if they are not worth diffing
+     */
+    @Nullable
+    private RowsDiff diffWindow(int count) {
+        int windowSize = mWindowIds.length;
+        if (windowSize == 0) {
+            // the list was empty
+            return new RowsDiff(0, 0, mCount, 0, 0, count, null);
+        }
+        if (mWindowFirstOccurredAt == null || mWindowLastOccurredAt == null) {
+            return null;
+        }
+
+        int start = countBefore(mWindowFirstOccurredAt, mWindowFirstTransactionId, false);
+        int end = countBefore(mWindowLastOccurredAt, mWindowLastTransactionId, true);
+        if (end - start - windowSize > MAX_DIFF_SIZE_CHANGE) {
+            return null;
+        }
+
+        long[] entryIds = getEntryIds(start, end);
+        DiffUtil.DiffResult windowDiff = DiffUtil.calculateDiff(
+                new EntryIdsDiff(mWindowIds, entryIds), false);
+        return new RowsDiff(mWindowStart, windowSize, mCount, start, entryIds.length, count, windowDiff);
+    }
+
+    /**
+     * Count the rows that come before a sort key, which is the position of the key in the rows.
+     */
+    private int countBefore(Date occurredAt, int transactionId, boolean inclusive) {
+        RealmQuery<LedgerEntry> query = mEntries.where()
+                .beginGroup()
+                    .greaterThan(LedgerEntry.OCCURRED_AT, occurredAt)
+                    .or()
+                    .beginGroup()
+                        .equalTo(LedgerEntry.OCCURRED_AT, occurredAt);
+        if (inclusive) {
+            query.greaterThanOrEqualTo(LedgerEntry.TRANSACTION_ID, transactionId);
+        } else {
+            query.greaterThan(LedgerEntry.TRANSACTION_ID, transactionId);
+        }
+        return (int) query.endGroup().endGroup().count();
+    }
+
+    /**
+     * The insertions and removals between two versions of the rows: the rows of the window are
+     * diffed one by one, the rows before and after it are inserted or removed as a block next to
+     * the window since they are not loaded anyway.
+     */
+    static class RowsDiff {
+
+        private final int mOldStart;
+        private final int mOldSize;
+        private final int mOldCount;
+        private final int mNewStart;
+        private final int mNewSize;
+        private final int mNewCount;
+        private final DiffUtil.DiffResult mWindowDiff;
+
+        RowsDiff(int oldStart, int oldSize, int oldCount, int newStart, int newSize, int newCount,
+                 @Nullable DiffUtil.DiffResult windowDiff) {
+            mOldStart = oldStart;
+            mOldSize = oldSize;
+            mOldCount = oldCount;
+            mNewStart = newStart;
+            mNewSize = newSize;
+            mNewCount = newCount;
+            mWindowDiff = windowDiff;
+        }
+
+        void dispatchUpdatesTo(final RecyclerView.Adapter adapter) {
+            dispatchUpdatesTo(new ListUpdateCallback() {
+                @Override
+                public void onInserted(int position, int count) {
+                    adapter.notifyItemRangeInserted(position, count);
+                }
+
+                @Override
+                public void onRemoved(int position, int count) {
+                    adapter.notifyItemRangeRemoved(position, count);
+                }
+
+                @Override
+                public void onMoved(int fromPosition, int toPosition) {
+                    adapter.notifyItemMoved(fromPosition, toPosition);
+                }
+
+                @Override
+                public void onChanged(int position, int count, Object payload) {
+                    adapter.notifyItemRangeChanged(position, count, payload);
+                }
+            });
+        }
+
+        void dispatchUpdatesTo(final ListUpdateCallback callback) {
+            // the rows before the window, which then starts at its new position
+            int beforeChange = mNewStart - mOldStart;
+            dispatchBlock(callback, beforeChange > 0 ? mOldStart : mNewStart, beforeChange);
+
+            if (mWindowDiff != null) {
+                mWindowDiff.dispatchUpdatesTo(new ListUpdateCallback() {
+                    @Override
+                    public void onInserted(int position, int count) {
+                        callback.onInserted(mNewStart + position, count);
+                    }
+
+                    @Override
+                    public void onRemoved(int position, int count) {
+                        callback.onRemoved(mNewStart + position, count);
+                    }
+
+                    @Override
+                    public void onMoved(int fromPosition, int toPosition) {
+                        callback.onMoved(mNewStart + fromPosition, mNewStart + toPosition);
+                    }
+
+                    @Override
+                    public void onChanged(int position, int count, Object payload) {
+                        callback.onChanged(mNewStart + position, count, payload);
+                    }
+                });
+            } else {
+                dispatchBlock(callback, mNewStart, mNewSize - mOldSize);
+            }
+
+            // the rows after the window
+            int oldAfter = mOldCount - mOldStart - mOldSize;
+            int newAfter = mNewCount - mNewStart - mNewSize;
+            dispatchBlock(callback, mNewStart + mNewSize, newAfter - oldAfter);
+        }
+
+        private static void dispatchBlock(ListUpdateCallback callback, int position, int change) {
+            if (change > 0) {
+                callback.onInserted(position, change);
+            } else if (change < 0) {
+                callback.onRemoved(position, -change);
+            }
+        }
+    }
+
+    private static class EntryIdsDiff extends DiffUtil.Callback {
+
+        private final long[] mOldIds;
+        private final long[] mNewIds;
+
+        EntryIdsDiff(long[] oldIds, long[] newIds) {
+            mOldIds = oldIds;
+            mNewIds = newIds;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldIds.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewIds.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldIds[oldItemPosition] == mNewIds[newItemPosition];
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            // the contents of the reloaded pages are compared by the list itself
+            return true;
+        }
+    }
+
+    /**
+     * Follows where a position ends up after the insertions and removals of a diff.
+     */
+    private static class PositionTracker implements ListUpdateCallback {
+
+        private int mPosition;
+
+        PositionTracker(int position) {
+            mPosition = position;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            if (position <= mPosition) {
+                mPosition += count;
+            }
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            if (position + count <= mPosition) {
+                mPosition -= count;
+            } else if (position <= mPosition) {
+                mPosition = position;
+            }
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            // moves are not detected
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            // the position is not affected
+        }
+    }
+}
@@ -25,8 +25,10 @@ import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
+import android.support.v4.util.LongSparseArray;
 import android.support.v7.widget.RecyclerView;
-import android.text.format.DateUtils;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -34,271 +36,186 @@ import android.widget.ImageView;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
-import java.text.NumberFormat;
-import java.util.Currency;
-import java.util.Date;
 import java.util.List;
 
-import io.realm.OrderedRealmCollection;
-import io.realm.RealmRecyclerViewAdapter;
 import ro.expectations.expenses.R;
-import ro.expectations.expenses.model.Account;
-import ro.expectations.expenses.model.Category;
-import ro.expectations.expenses.model.Payee;
-import ro.expectations.expenses.model.Transaction;
+import ro.expectations.expenses.model.LedgerEntry;
 import ro.expectations.expenses.ui.recyclerview.MultipleSelection;
 import ro.expectations.expenses.ui.recyclerview.MultipleSelectionHelper;
 import ro.expectations.expenses.ui.utils.ListUtils;
-import ro.expectations.expenses.utils.ColorUtils;
 import ro.expectations.expenses.utils.DrawableUtils;
-import ro.expectations.expenses.utils.NumberUtils;
 
-public class TransactionsAdapter
-        extends RealmRecyclerViewAdapter<Transaction, TransactionsAdapter.ViewHolder>
-        implements MultipleSelection {
+public class TransactionsAdapter extends RecyclerView.Adapter<TransactionsAdapter.ViewHolder>
+        implements MultipleSelection, TransactionRowSource.Callback {
 
-    final private long mSelectedAccountId;
+    interface OnSelectionChangedListener {
 
+        /**
+         * Called when a bulk selection was applied, which may happen after the ids of the rows
+         * that are not loaded were read.
+         */
+        void onSelectionChanged();
+    }
+
+    private final Context mContext;
+    private final TransactionRowSource mRowSource;
     private final MultipleSelectionHelper mMultipleSelectionHelper;
 
-    public TransactionsAdapter(@NonNull Context context, @Nullable OrderedRealmCollection<Transaction> data,
-                               long selectedAccountId, boolean autoUpdate) {
-        super(context, data, autoUpdate);
-        mSelectedAccountId = selectedAccountId;
+    // pages further than this from the one being bound are dropped
+    private static final int KEEP_PAGES = 3;
+
+    private int mItemCount;
+    // pages of rows around the ones on screen
+    private final SparseArray<List<TransactionRow>> mPages = new SparseArray<>();
+    private final SparseBooleanArray mRequestedPages = new SparseBooleanArray();
+
+    private OnSelectionChangedListener mOnSelectionChangedListener;
+
+    TransactionsAdapter(@NonNull Context context, @NonNull TransactionRowSource rowSource) {
+        mContext = context;
+        mRowSource = rowSource;
         mMultipleSelectionHelper = new MultipleSelectionHelper(this);
     }
 
-    @Override
-    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
-        View view = LayoutInflater.from(parent.getContext()).inflate(
-                R.layout.list_item_transactions, parent, false);
-        return new TransactionsAdapter.ViewHolder(view);
+    void setOnSelectionChangedListener(OnSelectionChangedListener listener) {
+        mOnSelectionChangedListener = listener;
     }
 
     @Override
-    public void onBindViewHolder(ViewHolder holder, int position) {
-
-        Transaction transaction = getData().get(position);
-
-        Account fromAccount = transaction.getFromAccount();
-        Account toAccount = transaction.getToAccount();
-
-        if (fromAccount != null && toAccount != null) {
-            processTransfer(holder, position);
-        } else {
-            if (fromAccount != null) {
-                processDebit(holder, position);
-            } else {
-                processCredit(holder, position);
+    public void onRowsChanged(int count, @Nullable TransactionRowSource.RowsDiff diff,
+                              SparseArray<List<TransactionRow>> pages) {
+        // the rows on screen, to find out which of them really changed
+        LongSparseArray<TransactionRow> previousRows = new LongSparseArray<>();
+        for (int i = 0; i < mPages.size(); i++) {
+            for (TransactionRow row : mPages.valueAt(i)) {
+                previousRows.put(row.getEntryId(), row);
             }
         }
 
-        // Set the row background
-        ListUtils.setItemBackground(context, holder.itemView, isItemSelected(position),
-                holder.mTransactionIconBackground, holder.mSelectedIconBackground);
-
-        Category category = transaction.getCategory();
-
-        // Set the description
-        StringBuilder description = new StringBuilder();
-        if (transaction.getSplits().size() > 0) {
-            description.append(context.getString(R.string.multiple_categories));
-        } else if (category != null) {
-            description.append(category.getName());
-            Category parentCategory = category.getParentCategory();
-            if (parentCategory != null) {
-                description.insert(0, " » ");
-                description.insert(0, parentCategory.getName());
-            }
+        mItemCount = count;
+        mPages.clear();
+        mRequestedPages.clear();
+        for (int i = 0; i < pages.size(); i++) {
+            mPages.put(pages.keyAt(i), pages.valueAt(i));
+            mRequestedPages.put(pages.keyAt(i), true);
         }
 
-        StringBuilder additionalDescription = new StringBuilder();
-        Payee payee = transaction.getPayee();
-        if (payee != null) {
-            additionalDescription.append(payee.getName());
-        }
-        String note = transaction.getNote();
-        if (note != null && !note.isEmpty()) {
-            if (additionalDescription.length() > 0) {
-                additionalDescription.append(": ");
-            }
-            additionalDescription.append(note);
+        if (diff == null) {
+            notifyDataSetChanged();
+            return;
         }
-        if (description.length() > 0 && additionalDescription.length() > 0) {
-            additionalDescription.insert(0, " (");
-            additionalDescription.append(")");
-        }
-        if (additionalDescription.length() > 0) {
-            description.append(additionalDescription.toString());
-        }
-        if (description.length() == 0) {
-            if (fromAccount != null && toAccount != null) {
-                description.append(context.getString(R.string.default_transfer_description));
-            } else {
-                if (fromAccount != null) {
-                    description.append(context.getString(R.string.default_debit_description));
-                } else {
-                    description.append(context.getString(R.string.default_credit_description));
-                }
-            }
-        }
-        holder.mDescription.setText(description.toString());
 
-        // Set the transaction date
-        Date transactionDate = transaction.getOccurredAt();
-        if (transactionDate != null) {
-            transactionDate = transaction.getClearedAt();
-        }
-        if (transactionDate != null) {
-            holder.mDate.setText(DateUtils.getRelativeTimeSpanString(transactionDate.getTime(), System.currentTimeMillis(), DateUtils.DAY_IN_MILLIS));
-        }
-
-        // Set the icon
-        if (fromAccount != null && toAccount != null) {
-            holder.mTransactionIcon.setImageResource(R.drawable.ic_transfer_black_24dp);
-        } else {
-            int iconId;
-            String iconName = "";
-            if (category != null) {
-                iconName = category.getIcon();
-            }
-            if (iconName == null || iconName.isEmpty()) {
-                iconId = R.drawable.ic_question_mark_black_24dp;
-            } else {
-                iconId = context.getResources().getIdentifier(iconName, "drawable", context.getPackageName());
-                if (iconId == 0) {
-                    iconId = R.drawable.ic_question_mark_black_24dp;
+        // move the rows around, then rebind the reloaded ones that look different
+        diff.dispatchUpdatesTo(this);
+        for (int i = 0; i < pages.size(); i++) {
+            int start = pages.keyAt(i) * TransactionRowSource.PAGE_SIZE;
+            List<TransactionRow> rows = pages.valueAt(i);
+            int changedFrom = -1;
+            for (int j = 0; j <= rows.size(); j++) {
+                boolean changed = false;
+                if (j < rows.size()) {
+                    TransactionRow row = rows.get(j);
+                    changed = !row.equals(previousRows.get(row.getEntryId()));
+                }
+                if (changed && changedFrom < 0) {
+                    changedFrom = j;
+                } else if (!changed && changedFrom >= 0) {
+                    notifyItemRangeChanged(start + changedFrom, j - changedFrom);
+                    changedFrom = -1;
                 }
             }
-            holder.mTransactionIcon.setImageResource(iconId);
-        }
-
-        // Set the icon background color
-        int color;
-        int defaultColor = ContextCompat.getColor(context, R.color.colorPrimary);
-        if (category != null) {
-            color = ColorUtils.fromRGB(category.getColor(), defaultColor);
-        } else {
-            color = defaultColor;
         }
-        holder.mTransactionIconBackground
-                .getBackground()
-                .setColorFilter(color, PorterDuff.Mode.SRC_IN);
-
-        holder.mSelectedIconBackground
-                .getBackground()
-                .setColorFilter(ContextCompat.getColor(context, R.color.colorGrey600),
-                        PorterDuff.Mode.SRC_IN);
     }
 
-    private void processTransfer(ViewHolder holder, int position) {
-
-        Transaction transaction = getData().get(position);
-
-        // Set the account
-        Account fromAccount = transaction.getFromAccount();
-        Account toAccount = transaction.getToAccount();
-        holder.mAccount.setText(context.getResources().getString(R.string.breadcrumbs, fromAccount.getTitle(), toAccount.getTitle()));
-
-        // Set the amount
-        NumberFormat format = NumberFormat.getCurrencyInstance();
-        String fromCurrencyCode = fromAccount.getCurrency();
-        String toCurrencyCode = toAccount.getCurrency();
-        if (fromCurrencyCode.equals(toCurrencyCode)) {
-            double amount = NumberUtils.roundToTwoPlaces(transaction.getFromAmount() / 100.0);
-            Currency currency = Currency.getInstance(fromCurrencyCode);
-            format.setCurrency(currency);
-            format.setMaximumFractionDigits(currency.getDefaultFractionDigits());
-            holder.mAmount.setText(format.format(amount));
-
-            double fromBalance = NumberUtils.roundToTwoPlaces(transaction.getFromRunningBalance() / 100.0);
-            String fromBalanceFormatted = format.format(fromBalance);
-            double toBalance = NumberUtils.roundToTwoPlaces(transaction.getToRunningBalance() / 100.0);
-            holder.mRunningBalance.setText(context.getResources().getString(R.string.breadcrumbs, fromBalanceFormatted, format.format(toBalance)));
-        } else {
-            Currency fromCurrency = Currency.getInstance(fromCurrencyCode);
-            format.setCurrency(fromCurrency);
-            format.setMaximumFractionDigits(fromCurrency.getDefaultFractionDigits());
-            double fromAmount = NumberUtils.roundToTwoPlaces(transaction.getFromAmount() / 100.0);
-            String fromAmountFormatted = format.format(fromAmount);
-            double fromBalance = NumberUtils.roundToTwoPlaces(transaction.getFromRunningBalance() / 100.0);
-            String fromBalanceFormatted = format.format(fromBalance);
-
-            Currency toCurrency = Currency.getInstance(toCurrencyCode);
-            format.setCurrency(toCurrency);
-            format.setMaximumFractionDigits(toCurrency.getDefaultFractionDigits());
-            double toAmount = NumberUtils.roundToTwoPlaces(transaction.getToAmount() / 100.0);
-            double toBalance = NumberUtils.roundToTwoPlaces(transaction.getToRunningBalance() / 100.0);
-
-            holder.mAmount.setText(context.getResources().getString(R.string.breadcrumbs, fromAmountFormatted, format.format(toAmount)));
-            holder.mRunningBalance.setText(context.getResources().getString(R.string.breadcrumbs, fromBalanceFormatted, format.format(toBalance)));
-        }
+    @Override
+    public void onPageLoaded(int page, List<TransactionRow> rows) {
+        mPages.put(page, rows);
+        notifyItemRangeChanged(page * TransactionRowSource.PAGE_SIZE, rows.size());
+    }
 
-        // Set the color for the amount and the transaction type icon
-        if (mSelectedAccountId == 0) {
-            holder.mAmount.setTextColor(ContextCompat.getColor(context, R.color.colorOrange700));
-            holder.mTypeIcon.setImageDrawable(DrawableUtils.tint(context, R.drawable.ic_swap_horiz_black_24dp, R.color.colorOrange700));
-        } else {
-            if (mSelectedAccountId == fromAccount.getId()) {
-                holder.mAmount.setTextColor(ContextCompat.getColor(context, R.color.colorRed700));
-                holder.mTypeIcon.setImageDrawable(DrawableUtils.tint(context, R.drawable.ic_call_made_black_24dp, R.color.colorRed700));
-            } else if (mSelectedAccountId == toAccount.getId()) {
-                holder.mAmount.setTextColor(ContextCompat.getColor(context, R.color.colorGreen700));
-                holder.mTypeIcon.setImageDrawable(DrawableUtils.tint(context, R.drawable.ic_call_received_black_24dp, R.color.colorGreen700));
-            }
-        }
+    @Override
+    public int getItemCount() {
+        return mItemCount;
     }
 
+    /**
+     * Return the ledger entry id of a row, or {@link RecyclerView#NO_ID} while its page is not
+     * loaded. The ids of all the rows are only read for bulk selections.
+     */
+    @Override
+    public long getItemId(int position) {
+        List<TransactionRow> rows = mPages.get(position / TransactionRowSource.PAGE_SIZE);
+        int index = position % TransactionRowSource.PAGE_SIZE;
+        return rows != null && index < rows.size() ? rows.get(index).getEntryId() : RecyclerView.NO_ID;
+    }
 
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(
+                R.layout.list_item_transactions, parent, false);
+        return new TransactionsAdapter.ViewHolder(view);
+    }
 
-    private void processDebit(ViewHolder holder, int position) {
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
 
-        Transaction transaction = getData().get(position);
+        // Set the row background
+        ListUtils.setItemBackground(mContext, holder.itemView, isItemSelected(position),
+                holder.mTransactionIconBackground, holder.mSelectedIconBackground);
 
-        // Set the account
-        Account fromAccount = transaction.getFromAccount();
-        holder.mAccount.setText(fromAccount.getTitle());
+        TransactionRow row = getRow(position);
+        if (row == null) {
+            // the page is still loading
+            holder.mAccount.setText(null);
+            holder.mDescription.setText(null);
+            holder.mDate.setText(null);
+            holder.mAmount.setText(null);
+            holder.mRunningBalance.setText(null);
+            holder.mTransactionIcon.setImageDrawable(null);
+            holder.mTypeIcon.setImageDrawable(null);
+            return;
+        }
 
-        // Set the amount
-        double fromAmount = NumberUtils.roundToTwoPlaces(0 - transaction.getFromAmount() / 100.0);
-        NumberFormat format = NumberFormat.getCurrencyInstance();
-        String fromCurrencyCode = fromAccount.getCurrency();
-        Currency fromCurrency = Currency.getInstance(fromCurrencyCode);
-        format.setCurrency(fromCurrency);
-        format.setMaximumFractionDigits(fromCurrency.getDefaultFractionDigits());
-        holder.mAmount.setText(format.format(fromAmount));
-        holder.mAmount.setTextColor(ContextCompat.getColor(context, R.color.colorRed700));
+        holder.mAccount.setText(row.getAccount());
+        holder.mDescription.setText(row.getDescription());
+        holder.mDate.setText(row.getDate());
+        holder.mAmount.setText(row.getAmount());
+        holder.mAmount.setTextColor(row.getAmountColor());
+        holder.mRunningBalance.setText(row.getRunningBalance());
+        holder.mTypeIcon.setImageDrawable(DrawableUtils.getTinted(mContext, row.getTypeIcon(), row.getTypeIconColor()));
+        holder.mTransactionIcon.setImageResource(row.getIcon());
 
-        double fromBalance = NumberUtils.roundToTwoPlaces(transaction.getFromRunningBalance() / 100.0);
-        holder.mRunningBalance.setText(format.format(fromBalance));
+        // Set the icon background color
+        holder.mTransactionIconBackground
+                .getBackground()
+                .setColorFilter(row.getIconColor(), PorterDuff.Mode.SRC_IN);
 
-        // Set the transaction type icon
-        holder.mTypeIcon.setImageDrawable(DrawableUtils.tint(context, R.drawable.ic_call_made_black_24dp, R.color.colorRed700));
+        holder.mSelectedIconBackground
+                .getBackground()
+                .setColorFilter(ContextCompat.getColor(mContext, R.color.colorGrey600),
+                        PorterDuff.Mode.SRC_IN);
     }
 
-    private void processCredit(ViewHolder holder, int position) {
-
-        Transaction transaction = getData().get(position);
-
-        // Set the account
-        Account toAccount = transaction.getToAccount();
-        holder.mAccount.setText(toAccount.getTitle());
-
-        // Set the amount
-        double toAmount = NumberUtils.roundToTwoPlaces(transaction.getToAmount() / 100.0);
-        NumberFormat format = NumberFormat.getCurrencyInstance();
-        String toCurrencyCode = toAccount.getCurrency();
-        Currency toCurrency = Currency.getInstance(toCurrencyCode);
-        format.setCurrency(toCurrency);
-        format.setMaximumFractionDigits(toCurrency.getDefaultFractionDigits());
-        holder.mAmount.setText(format.format(toAmount));
-        holder.mAmount.setTextColor(ContextCompat.getColor(context, R.color.colorGreen700));
+    private TransactionRow getRow(int position) {
+        int page = position / TransactionRowSource.PAGE_SIZE;
+        if (!mRequestedPages.get(page)) {
+            dropPagesAround(page);
+            mRequestedPages.put(page, true);
+            mRowSource.loadPage(page);
+        }
 
-        double toBalance = NumberUtils.roundToTwoPlaces(transaction.getToRunningBalance() / 100.0);
-        holder.mRunningBalance.setText(format.format(toBalance));
+        List<TransactionRow> rows = mPages.get(page);
+        int index = position % TransactionRowSource.PAGE_SIZE;
+        return rows != null && index < rows.size() ? rows.get(index) : null;
+    }
 
-        // Set the transaction type icon
-        holder.mTypeIcon.setImageDrawable(DrawableUtils.tint(context, R.drawable.ic_call_received_black_24dp, R.color.colorGreen700));
+    private void dropPagesAround(int page) {
+        for (int i = mPages.size() - 1; i >= 0; i--) {
+            if (Math.abs(mPages.keyAt(i) - page) > KEEP_PAGES) {
+                mRequestedPages.delete(mPages.keyAt(i));
+                mPages.removeAt(i);
+            }
+        }
     }
 
     @Override
@@ -311,6 +228,23 @@ public class TransactionsAdapter
         return mMultipleSelectionHelper.getSelectedItemCount();
     }
 
+    @Override
+    public long[] getSelectedItemIds() {
+        return mMultipleSelectionHelper.getSelectedItemIds();
+    }
+
+    /**
+     * Return the ids of the transactions behind the selected rows.
+     */
+    int[] getSelectedTransactionIds() {
+        long[] entryIds = getSelectedItemIds();
+        int[] transactionIds = new int[entryIds.length];
+        for (int i = 0; i < entryIds.length; i++) {
+            transactionIds[i] = LedgerEntry.transactionIdOf(entryIds[i]);
+        }
+        return transactionIds;
+    }
+
     @Override
     public List<Integer> getSelectedItemPositions() {
         return mMultipleSelectionHelper.getSelectedItemPositions();
@@ -331,6 +265,71 @@ public class TransactionsAdapter
         mMultipleSelectionHelper.clearSelection();
     }
 
+    @Override
+    public void selectAll() {
+        mRowSource.loadEntryIds(new TransactionRowSource.EntryIdsCallback() {
+            @Override
+            public void onEntryIdsLoaded(long[] entryIds) {
+                mMultipleSelectionHelper.selectItemIds(entryIds);
+                notifySelectionChanged();
+            }
+        });
+    }
+
+    @Override
+    public void selectRange(int fromPosition, int toPosition) {
+        int from = Math.max(0, Math.min(fromPosition, toPosition));
+        int to = Math.min(mItemCount, Math.max(fromPosition, toPosition) + 1);
+        if (isLoaded(from, to)) {
+            mMultipleSelectionHelper.selectRange(from, to - 1);
+            notifySelectionChanged();
+            return;
+        }
+
+        mRowSource.loadEntryIds(from, to, new TransactionRowSource.EntryIdsCallback() {
+            @Override
+            public void onEntryIdsLoaded(long[] entryIds) {
+                mMultipleSelectionHelper.selectItemIds(entryIds);
+                notifySelectionChanged();
+            }
+        });
+    }
+
+    @Override
+    public void invertSelection() {
+        mRowSource.loadEntryIds(new TransactionRowSource.EntryIdsCallback() {
+            @Override
+            public void onEntryIdsLoaded(long[] entryIds) {
+                mMultipleSelectionHelper.invertSelection(entryIds);
+                notifySelectionChanged();
+            }
+        });
+    }
+
+    /**
+     * Only the loaded rows can be filtered.
+     */
+    @Override
+    public void selectItems(ItemFilter filter) {
+        mMultipleSelectionHelper.selectItems(filter);
+        notifySelectionChanged();
+    }
+
+    private boolean isLoaded(int from, int to) {
+        for (int page = from / TransactionRowSource.PAGE_SIZE; page * TransactionRowSource.PAGE_SIZE < to; page++) {
+            if (mPages.get(page) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void notifySelectionChanged() {
+        if (mOnSelectionChangedListener != null) {
+            mOnSelectionChangedListener.onSelectionChanged();
+        }
+    }
+
     @Override
     public void onSaveInstanceState(Bundle state) {
         mMultipleSelectionHelper.onSaveInstanceState(state);
@@ -21,12 +21,17 @@ package ro.expectations.expenses.ui.transactions;
 
 import android.os.Bundle;
 import android.support.annotation.Nullable;
+import android.support.v4.app.DialogFragment;
 import android.support.v4.app.Fragment;
+import android.support.v4.app.FragmentActivity;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.view.ActionMode;
+import android.support.v7.widget.SearchView;
 import android.support.v7.widget.DividerItemDecoration;
 import android.support.v7.widget.LinearLayoutManager;
 import android.support.v7.widget.RecyclerView;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -34,33 +39,44 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
+import android.widget.Toast;
 
-import io.realm.Realm;
-import io.realm.RealmResults;
-import io.realm.Sort;
 import ro.expectations.expenses.R;
-import ro.expectations.expenses.model.Account;
-import ro.expectations.expenses.model.Transaction;
+import ro.expectations.expenses.data.TransactionBatchEditor;
+import ro.expectations.expenses.data.TransactionSearchIndex;
+import ro.expectations.expenses.ui.dialog.ConfirmationDialogFragment;
+import ro.expectations.expenses.ui.dialog.ProgressDialogFragment;
 import ro.expectations.expenses.ui.drawer.DrawerActivity;
 import ro.expectations.expenses.ui.recyclerview.ItemClickHelper;
 import ro.expectations.expenses.utils.DrawableUtils;
 
-public class TransactionsFragment extends Fragment {
+public class TransactionsFragment extends Fragment implements ConfirmationDialogFragment.Listener {
 
     protected static final String ARG_ACCOUNT_ID = "TransactionsFragment.ARG_ACCOUNT_ID";
     protected static final String ARG_HANDLE_CLICKS = "TransactionsFragment.ARG_HANDLE_CLICKS";
 
-    private Realm mRealm;
+    private static final String STATE_SEARCH_QUERY = "TransactionsFragment.STATE_SEARCH_QUERY";
+
+    private static final int DELETE_CONFIRMATION_REQUEST_CODE = 1;
+
+    // search results are narrowed down as the user types, the newest ones are enough
+    private static final int SEARCH_LIMIT = 200;
+
+    private TransactionBatchEditor mBatchEditor;
+    private TransactionSearchIndex mSearchIndex;
+    private String mSearchQuery;
 
     RecyclerView recyclerView;
 
     private long mSelectedAccountId;
     private boolean mHandleClicks = false;
 
+    private TransactionRowSource mRowSource;
     private TransactionsAdapter mAdapter;
     private TextView mEmptyView;
 
     private ActionMode mActionMode;
+    private int mLastSelectedPosition = RecyclerView.NO_POSITION;
     private final ActionMode.Callback mActionModeCallback = new ActionMode.Callback() {
 
         @Override
@@ -69,9 +85,9 @@ public class TransactionsFragment extends Fragment {
             inflater.inflate(R.menu.context_menu_transactions, menu);
             ((DrawerActivity) getActivity()).lockNavigationDrawer();
             MenuItem actionEditTransaction = menu.findItem(R.id.action_edit_transaction);
-            actionEditTransaction.setIcon(DrawableUtils.tint(getContext(), actionEditTransaction.getIcon(), R.color.colorWhite));
+            actionEditTransaction.setIcon(DrawableUtils.getTinted(getContext(), R.drawable.ic_edit_black_24dp, R.color.colorWhite));
             MenuItem actionDeleteTransaction = menu.findItem(R.id.action_delete_transaction);
-            actionDeleteTransaction.setIcon(DrawableUtils.tint(getContext(), actionDeleteTransaction.getIcon(), R.color.colorWhite));
+            actionDeleteTransaction.setIcon(DrawableUtils.getTinted(getContext(), R.drawable.ic_delete_black_24dp, R.color.colorWhite));
             return true;
         }
 
@@ -99,7 +115,13 @@ public class TransactionsFragment extends Fragment {
                     mode.finish();
                     return true;
                 case R.id.action_delete_transaction:
-                    mode.finish();
+                    showDeleteConfirmationDialog();
+                    return true;
+                case R.id.action_select_all_transactions:
+                    mAdapter.selectAll();
+                    return true;
+                case R.id.action_invert_transactions_selection:
+                    mAdapter.invertSelection();
                     return true;
                 default:
                     return false;
@@ -116,6 +138,46 @@ public class TransactionsFragment extends Fragment {
         }
     };
 
+    private final TransactionSearchIndex.Callback mSearchCallback = new TransactionSearchIndex.Callback() {
+        @Override
+        public void onSearchResults(String query, int[] transactionIds) {
+            // the search may have been cleared, or the list destroyed, in the meantime
+            if (isAdded() && query.equals(mSearchQuery)) {
+                mRowSource.setTransactionIds(transactionIds);
+            }
+        }
+    };
+
+    // looks the progress dialog up every time, it is recreated along with the fragment
+    private final TransactionBatchEditor.Listener mDeleteListener = new TransactionBatchEditor.Listener() {
+        @Override
+        public void onProgress(int done, int total) {
+            ProgressDialogFragment progressDialogFragment = findProgressDialogFragment();
+            if (progressDialogFragment != null) {
+                progressDialogFragment.setMessage(getString(R.string.delete_transactions_progress, done, total));
+            }
+        }
+
+        @Override
+        public void onCompleted(int total) {
+            ProgressDialogFragment progressDialogFragment = findProgressDialogFragment();
+            if (progressDialogFragment != null) {
+                progressDialogFragment.dismissAllowingStateLoss();
+            }
+        }
+
+        @Override
+        public void onFailed(Throwable error) {
+            ProgressDialogFragment progressDialogFragment = findProgressDialogFragment();
+            if (progressDialogFragment != null) {
+                progressDialogFragment.dismissAllowingStateLoss();
+            }
+            if (isAdded()) {
+                Toast.makeText(getActivity(), R.string.delete_transactions_failed, Toast.LENGTH_LONG).show();
+            }
+        }
+    };
+
     public static TransactionsFragment newInstance(long accountId, boolean handleClicks) {
         TransactionsFragment fragment = new TransactionsFragment();
         Bundle args = new Bundle();
@@ -137,7 +199,60 @@ public class TransactionsFragment extends Fragment {
             mHandleClicks = getArguments().getBoolean(ARG_HANDLE_CLICKS);
         }
 
-        mRealm = Realm.getDefaultInstance();
+        mBatchEditor = TransactionBatchEditor.getInstance();
+
+        if (mHandleClicks) {
+            setHasOptionsMenu(true);
+            mSearchIndex = TransactionSearchIndex.getInstance();
+            // build the index while the list is being looked at
+            mSearchIndex.start();
+            if (savedInstanceState != null) {
+                mSearchQuery = savedInstanceState.getString(STATE_SEARCH_QUERY);
+            }
+        }
+    }
+
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        inflater.inflate(R.menu.menu_transactions, menu);
+        MenuItem searchItem = menu.findItem(R.id.action_search_transactions);
+        final SearchView searchView = (SearchView) MenuItemCompat.getActionView(searchItem);
+        searchView.setQueryHint(getString(R.string.search_transactions_hint));
+
+        // restore the search before listening, the rows are already filtered
+        if (!TextUtils.isEmpty(mSearchQuery)) {
+            String query = mSearchQuery;
+            MenuItemCompat.expandActionView(searchItem);
+            searchView.setQuery(query, false);
+            searchView.clearFocus();
+            mSearchQuery = query;
+        }
+
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                search(newText);
+                return true;
+            }
+        });
+        MenuItemCompat.setOnActionExpandListener(searchItem, new MenuItemCompat.OnActionExpandListener() {
+            @Override
+            public boolean onMenuItemActionExpand(MenuItem item) {
+                return true;
+            }
+
+            @Override
+            public boolean onMenuItemActionCollapse(MenuItem item) {
+                search(null);
+                return true;
+            }
+        });
     }
 
     @Nullable
@@ -156,22 +271,27 @@ public class TransactionsFragment extends Fragment {
         recyclerView.addItemDecoration(new DividerItemDecoration(getActivity(), DividerItemDecoration.VERTICAL));
         recyclerView.setHasFixedSize(true);
 
-        RealmResults<Transaction> transactions;
-        if (mSelectedAccountId > 0) {
-            transactions = mRealm.where(Transaction.class)
-                    .beginGroup()
-                    .equalTo(Transaction.FROM_ACCOUNT + "." + Account.ID, mSelectedAccountId)
-                    .or()
-                    .equalTo(Transaction.TO_ACCOUNT + "." + Account.ID, mSelectedAccountId)
-                    .endGroup()
-                    .findAllSortedAsync(Transaction.OCCURRED_AT, Sort.DESCENDING);
-        } else {
-            transactions = mRealm.where(Transaction.class)
-                    .findAllSortedAsync(Transaction.OCCURRED_AT, Sort.DESCENDING);
-        }
-
-        mAdapter = new TransactionsAdapter(getActivity(), transactions, mSelectedAccountId, true);
+        mRowSource = new TransactionRowSource(getActivity(), mSelectedAccountId);
+        mAdapter = new TransactionsAdapter(getActivity(), mRowSource);
+        mAdapter.setOnSelectionChangedListener(new TransactionsAdapter.OnSelectionChangedListener() {
+            @Override
+            public void onSelectionChanged() {
+                // bulk selections are applied once the ids of the rows are read
+                if (mActionMode == null) {
+                    return;
+                }
+                if (mAdapter.hasItemSelected()) {
+                    mActionMode.invalidate();
+                } else {
+                    mActionMode.finish();
+                }
+            }
+        });
+        mRowSource.start(mAdapter);
         recyclerView.setAdapter(mAdapter);
+        if (!TextUtils.isEmpty(mSearchQuery)) {
+            search(mSearchQuery);
+        }
 
         ItemClickHelper itemClickHelper = new ItemClickHelper(recyclerView);
         if (mHandleClicks) {
@@ -188,6 +308,7 @@ public class TransactionsFragment extends Fragment {
                         }
                     } else if (mAdapter.hasItemSelected()) {
                         mAdapter.setItemSelected(position, true);
+                        mLastSelectedPosition = position;
                         mActionMode.invalidate();
                     }
                 }
@@ -195,7 +316,16 @@ public class TransactionsFragment extends Fragment {
             itemClickHelper.setOnItemLongClickListener(new ItemClickHelper.OnItemLongClickListener() {
                 @Override
                 public boolean onItemLongClick(RecyclerView parent, View view, int position) {
+                    if (mActionMode != null && mLastSelectedPosition != RecyclerView.NO_POSITION
+                            && mAdapter.isItemSelected(mLastSelectedPosition)) {
+                        // extend the selection up to the long clicked item
+                        mAdapter.selectRange(mLastSelectedPosition, position);
+                        mLastSelectedPosition = position;
+                        return true;
+                    }
+
                     mAdapter.setItemSelected(position, !mAdapter.isItemSelected(position));
+                    mLastSelectedPosition = position;
                     if (mAdapter.hasItemSelected()) {
                         if (mActionMode == null) {
                             mActionMode = ((AppCompatActivity) getActivity()).startSupportActionMode(mActionModeCallback);
@@ -222,6 +352,18 @@ public class TransactionsFragment extends Fragment {
 
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
+        // a batch started before the fragment was recreated keeps running, report it here now
+        if (mHandleClicks) {
+            if (mBatchEditor.isRunning()) {
+                mBatchEditor.setListener(mDeleteListener);
+            } else {
+                DialogFragment progressDialogFragment = (DialogFragment) getFragmentManager()
+                        .findFragmentByTag("ProgressDialogFragment");
+                if (progressDialogFragment != null) {
+                    progressDialogFragment.dismissAllowingStateLoss();
+                }
+            }
+        }
         if (mHandleClicks && savedInstanceState != null) {
             mAdapter.onRestoreInstanceState(savedInstanceState);
             if (mAdapter.hasItemSelected() && mActionMode == null) {
@@ -231,10 +373,85 @@ public class TransactionsFragment extends Fragment {
         super.onActivityCreated(savedInstanceState);
     }
 
+    @Override
+    public void onDestroy() {
+        if (mHandleClicks) {
+            mBatchEditor.setListener(null);
+        }
+        super.onDestroy();
+    }
+
+    @Override
+    public void onDestroyView() {
+        if (mHandleClicks) {
+            mSearchIndex.cancelSearch(mSearchCallback);
+        }
+        mRowSource.stop();
+        super.onDestroyView();
+    }
+
     @Override
     public void onSaveInstanceState(Bundle outState) {
         if (mHandleClicks) {
             mAdapter.onSaveInstanceState(outState);
+            outState.putString(STATE_SEARCH_QUERY, mSearchQuery);
         }
     }
+
+    @Override
+    public void onConfirmed(int targetRequestCode) {
+        if (targetRequestCode == DELETE_CONFIRMATION_REQUEST_CODE) {
+            int[] transactionIds = mAdapter.getSelectedTransactionIds();
+            if (mActionMode != null) {
+                mActionMode.finish();
+            }
+            deleteTransactions(transactionIds);
+        }
+    }
+
+    @Override
+    public void onDenied(int targetRequestCode) {
+        // nothing to do
+    }
+
+    private void search(@Nullable String query) {
+        mSearchQuery = query;
+        if (TextUtils.isEmpty(query)) {
+            mSearchIndex.cancelSearch(mSearchCallback);
+            mRowSource.setTransactionIds(null);
+            return;
+        }
+
+        // the index calls back again after every change, e.g. once a batch delete is done
+        mSearchIndex.search(query, mSelectedAccountId, SEARCH_LIMIT, mSearchCallback);
+    }
+
+    private void showDeleteConfirmationDialog() {
+        FragmentActivity activity = getActivity();
+        if (activity != null) {
+            int selectedTransactions = mAdapter.getSelectedItemCount();
+            ConfirmationDialogFragment confirmationDialogFragment = ConfirmationDialogFragment.newInstance(
+                    activity.getString(R.string.delete_transactions_confirmation_title),
+                    activity.getResources().getQuantityString(R.plurals.delete_transactions_confirmation_message,
+                            selectedTransactions, selectedTransactions),
+                    activity.getString(R.string.button_delete),
+                    activity.getString(R.string.button_cancel), false);
+            confirmationDialogFragment.setTargetFragment(this, DELETE_CONFIRMATION_REQUEST_CODE);
+            confirmationDialogFragment.show(activity.getSupportFragmentManager(), "ConfirmationDialogFragment");
+        }
+    }
+
+    private void deleteTransactions(int[] transactionIds) {
+        ProgressDialogFragment progressDialogFragment = ProgressDialogFragment.newInstance(
+                getString(R.string.delete_transactions_progress, 0, transactionIds.length), false);
+        progressDialogFragment.show(getFragmentManager(), "ProgressDialogFragment");
+
+        mBatchEditor.delete(transactionIds, mDeleteListener);
+    }
+
+    @Nullable
+    private ProgressDialogFragment findProgressDialogFragment() {
+        return isAdded() ? (ProgressDialogFragment) getFragmentManager()
+                .findFragmentByTag("ProgressDialogFragment") : null;
+    }
 }
@@ -20,15 +20,25 @@
 package ro.expectations.expenses.ui.utils;
 
 import android.content.Context;
+import android.content.res.Resources;
 import android.support.annotation.Nullable;
 import android.util.TypedValue;
 import android.view.View;
 import android.view.ViewGroup;
 
+import java.util.Map;
+import java.util.WeakHashMap;
+
 import ro.expectations.expenses.R;
 
 public class ListUtils {
 
+    private static final int BACKGROUND_DEFAULT = 0;
+    private static final int BACKGROUND_SELECTED = 1;
+
+    // resolved item backgrounds of every theme, only accessed from the main thread
+    private static final Map<Resources.Theme, int[]> sItemBackgrounds = new WeakHashMap<>();
+
     public static void setItemBackground(Context context, View itemView, boolean selected) {
         setItemBackground(context, itemView, selected, null, null);
     }
@@ -36,7 +46,7 @@ public class ListUtils {
     public static void setItemBackground(Context context, View itemView, boolean selected,
                                          @Nullable ViewGroup itemIcon, @Nullable ViewGroup selectedIcon) {
 
-        TypedValue iconBackgroundTypedValue = new TypedValue();
+        int[] itemBackgrounds = getItemBackgrounds(context.getTheme());
         if (selected) {
             if (itemIcon != null) {
                 itemIcon.setVisibility(View.GONE);
@@ -44,7 +54,7 @@ public class ListUtils {
             if (selectedIcon != null) {
                 selectedIcon.setVisibility(View.VISIBLE);
             }
-            context.getTheme().resolveAttribute(android.R.attr.activatedBackgroundIndicator, iconBackgroundTypedValue, true);
+            itemView.setBackgroundResource(itemBackgrounds[BACKGROUND_SELECTED]);
             itemView.setActivated(true);
         } else {
             if (itemIcon != null) {
@@ -53,9 +63,26 @@ public class ListUtils {
             if (selectedIcon != null) {
                 selectedIcon.setVisibility(View.GONE);
             }
-            context.getTheme().resolveAttribute(R.attr.selectableItemBackground, iconBackgroundTypedValue, true);
+            itemView.setBackgroundResource(itemBackgrounds[BACKGROUND_DEFAULT]);
             itemView.setActivated(false);
         }
-        itemView.setBackgroundResource(iconBackgroundTypedValue.resourceId);
+    }
+
+    /**
+     * @return The resource ids of the default and the selected item background of the theme,
+     * resolved on the first call for the theme
+     */
+    static int[] getItemBackgrounds(Resources.Theme theme) {
+        int[] itemBackgrounds = sItemBackgrounds.get(theme);
+        if (itemBackgrounds == null) {
+            TypedValue typedValue = new TypedValue();
+            itemBackgrounds = new int[2];
+            theme.resolveAttribute(R.attr.selectableItemBackground, typedValue, true);
+            itemBackgrounds[BACKGROUND_DEFAULT] = typedValue.resourceId;
+            theme.resolveAttribute(android.R.attr.activatedBackgroundIndicator, typedValue, true);
+            itemBackgrounds[BACKGROUND_SELECTED] = typedValue.resourceId;
+            sItemBackgrounds.put(theme, itemBackgrounds);
+        }
+        return itemBackgrounds;
     }
 }
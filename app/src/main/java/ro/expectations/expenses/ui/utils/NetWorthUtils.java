@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.ui.utils;
+
+import android.content.Context;
+import android.support.v4.content.ContextCompat;
+import android.text.TextUtils;
+import android.view.View;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ro.expectations.expenses.R;
+import ro.expectations.expenses.data.NetWorthCalculator;
+import ro.expectations.expenses.utils.MoneyFormatter;
+
+public class NetWorthUtils {
+
+    /**
+     * Show the net worth in a view inflated from the net_worth layout, or hide the view when
+     * there is no account to add up.
+     */
+    public static void bind(Context context, View view, NetWorthCalculator.NetWorth netWorth) {
+        String currency = netWorth.getCurrency();
+        if (currency == null) {
+            view.setVisibility(View.GONE);
+            return;
+        }
+        view.setVisibility(View.VISIBLE);
+
+        TextView amount = (TextView) view.findViewById(R.id.net_worth_amount);
+        long total = netWorth.getTotal();
+        amount.setText(MoneyFormatter.getInstance().format(total, currency));
+        amount.setTextColor(ContextCompat.getColor(context, total >= 0 ? R.color.colorGreen700 : R.color.colorRed700));
+
+        TextView missingRates = (TextView) view.findViewById(R.id.net_worth_missing_rates);
+        List<String> leftOut = new ArrayList<>(netWorth.getMissingCurrencies());
+        int accountsWithoutCurrency = netWorth.getAccountsWithoutCurrency();
+        if (accountsWithoutCurrency > 0) {
+            leftOut.add(context.getResources().getQuantityString(R.plurals.net_worth_accounts_without_currency,
+                    accountsWithoutCurrency, accountsWithoutCurrency));
+        }
+        if (leftOut.isEmpty()) {
+            missingRates.setVisibility(View.GONE);
+        } else {
+            missingRates.setText(context.getString(R.string.net_worth_missing_rates, TextUtils.join(", ", leftOut)));
+            missingRates.setVisibility(View.VISIBLE);
+        }
+    }
+}
@@ -31,7 +31,7 @@ public class ColorUtils {
 
     @ColorInt
     public static int fromRGB(String color, @ColorInt int defaultColor) {
-        if (color == null) {
+        if (color == null || color.isEmpty()) {
             return defaultColor;
         }
         try {
@@ -45,7 +45,7 @@ public class ColorUtils {
     }
 
     public static String toRGB(@ColorInt int color) {
-        return String.format("%06x", 0XFF000000 | color);
+        return Integer.toHexString(0XFF000000 | color);
     }
 
     @ColorRes
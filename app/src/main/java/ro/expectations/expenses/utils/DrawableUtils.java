@@ -25,12 +25,41 @@ import android.support.annotation.ColorRes;
 import android.support.annotation.DrawableRes;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.graphics.drawable.DrawableCompat;
+import android.support.v4.util.LongSparseArray;
 import android.support.v7.content.res.AppCompatResources;
 
 import ro.expectations.expenses.R;
 
 public class DrawableUtils {
 
+    private static final LongSparseArray<Drawable.ConstantState> sTintedStates = new LongSparseArray<>();
+
+    /**
+     * Same as {@link #tint(Context, int, int)}, but the tinted drawable is built only once per
+     * drawable and color, and every call returns a new instance sharing its state. The returned
+     * drawable must not be mutated.
+     */
+    public static Drawable getTinted(Context context, @DrawableRes int resId, @ColorRes int colorId) {
+        int color = ContextCompat.getColor(context, colorId);
+        long key = ((long) resId << 32) | (color & 0xffffffffL);
+
+        Drawable.ConstantState state;
+        synchronized (sTintedStates) {
+            state = sTintedStates.get(key);
+        }
+        if (state == null) {
+            Drawable drawable = tintWithColor(AppCompatResources.getDrawable(context, resId), color);
+            state = drawable.getConstantState();
+            if (state == null) {
+                return drawable;
+            }
+            synchronized (sTintedStates) {
+                sTintedStates.put(key, state);
+            }
+        }
+        return state.newDrawable(context.getResources());
+    }
+
     public static Drawable tint(Context context, @DrawableRes int resId, @ColorRes int colorId) {
         return tint(context, AppCompatResources.getDrawable(context, resId), colorId);
     }
@@ -47,12 +76,7 @@ public class DrawableUtils {
 
     @DrawableRes
     public static int getIdentifier(Context context, String iconName, @DrawableRes int defaultResourceId) {
-        int iconResourceId = context.getResources().getIdentifier(iconName, "drawable", context.getPackageName());
-        if (iconResourceId == 0) {
-            iconResourceId = defaultResourceId;
-        }
-
-        return iconResourceId;
+        return IconRegistry.getInstance(context).getDrawableId(iconName, defaultResourceId);
     }
 
     @DrawableRes
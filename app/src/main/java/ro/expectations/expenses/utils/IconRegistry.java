@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.utils;
+
+import android.content.Context;
+import android.support.annotation.DrawableRes;
+import android.util.LruCache;
+
+/**
+ * Resolves icon names, as stored on categories, to drawable resource ids.
+ *
+ * {@link android.content.res.Resources#getIdentifier} is slow, so every name is looked up once
+ * and the result, including a failed lookup, is kept in a bounded cache. The registry is safe to
+ * use from any thread.
+ */
+public class IconRegistry {
+
+    private static final int MAX_SIZE = 256;
+
+    private static IconRegistry sInstance;
+
+    private final Context mContext;
+    private final LruCache<String, Integer> mIcons = new LruCache<>(MAX_SIZE);
+
+    public static synchronized IconRegistry getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new IconRegistry(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private IconRegistry(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * @param iconName The name of the drawable
+     * @param defaultResourceId The drawable to use when the name is empty or unknown
+     * @return The drawable resource id
+     */
+    @DrawableRes
+    public int getDrawableId(String iconName, @DrawableRes int defaultResourceId) {
+        if (iconName == null || iconName.isEmpty()) {
+            return defaultResourceId;
+        }
+
+        Integer iconResourceId = mIcons.get(iconName);
+        if (iconResourceId == null) {
+            iconResourceId = mContext.getResources().getIdentifier(iconName, "drawable", mContext.getPackageName());
+            mIcons.put(iconName, iconResourceId);
+        }
+        return iconResourceId != 0 ? iconResourceId : defaultResourceId;
+    }
+
+    /**
+     * Resolve the icons ahead of time, e.g. when the categories are loaded.
+     *
+     * @param iconNames The names of the drawables
+     */
+    public void warm(Iterable<String> iconNames) {
+        for (String iconName : iconNames) {
+            getDrawableId(iconName, 0);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.utils;
+
+import android.support.v4.util.ArrayMap;
+
+import java.math.BigDecimal;
+import java.text.NumberFormat;
+import java.util.Currency;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Formats amounts stored in minor units (cents) as currency, for the current locale.
+ *
+ * One configured formatter is cached per currency code, and the cache is dropped when the
+ * default locale changes. Amounts are formatted from a scaled {@link BigDecimal}, so they never
+ * go through a double.
+ */
+public class MoneyFormatter {
+
+    private static MoneyFormatter sInstance;
+
+    private final Map<String, NumberFormat> mFormats = new ArrayMap<>();
+    private Locale mLocale;
+
+    public static synchronized MoneyFormatter getInstance() {
+        if (sInstance == null) {
+            sInstance = new MoneyFormatter();
+        }
+        return sInstance;
+    }
+
+    private MoneyFormatter() {
+    }
+
+    /**
+     * @param amount The amount in minor units
+     * @param currencyCode The ISO 4217 code of the currency
+     * @return The formatted amount
+     */
+    public synchronized String format(long amount, String currencyCode) {
+        return getFormat(currencyCode).format(BigDecimal.valueOf(amount, 2));
+    }
+
+    private NumberFormat getFormat(String currencyCode) {
+        Locale locale = Locale.getDefault();
+        if (!locale.equals(mLocale)) {
+            mFormats.clear();
+            mLocale = locale;
+        }
+
+        NumberFormat format = mFormats.get(currencyCode);
+        if (format == null) {
+            format = NumberFormat.getCurrencyInstance(locale);
+            try {
+                Currency currency = Currency.getInstance(currencyCode);
+                format.setCurrency(currency);
+                format.setMaximumFractionDigits(currency.getDefaultFractionDigits());
+            } catch (IllegalArgumentException | NullPointerException e) {
+                // unknown currency, keep the one of the locale
+            }
+            mFormats.put(currencyCode, format);
+        }
+        return format;
+    }
+}
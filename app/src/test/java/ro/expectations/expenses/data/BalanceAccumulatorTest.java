@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package ro.expectations.expenses.data;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BalanceAccumulatorTest {
+
+    @Test
+    public void keepsABalancePerAccountInIdOrder() {
+        BalanceAccumulator balances = new BalanceAccumulator();
+        assertEquals(-100, balances.add(7, -100, 1000));
+        assertEquals(250, balances.add(3, 250, 1001));
+        // a transfer moves the amount between its two accounts in the same visit
+        assertEquals(-150, balances.add(7, -50, 1002));
+        assertEquals(300, balances.add(3, 50, 1002));
+
+        assertEquals(2, balances.size());
+        assertEquals(3, balances.accountIdAt(0));
+        assertEquals(7, balances.accountIdAt(1));
+        assertEquals(300, balances.balanceAt(balances.indexOf(3)));
+        assertEquals(-150, balances.balanceAt(balances.indexOf(7)));
+        assertEquals(1002, balances.lastTransactionAt(balances.indexOf(7)));
+        assertTrue(balances.indexOf(5) < 0);
+    }
+
+    @Test
+    public void growsPastItsInitialCapacity() {
+        Random random = new Random(11);
+        BalanceAccumulator balances = new BalanceAccumulator();
+        long[] expected = new long[200];
+        for (int i = 0; i < 10000; i++) {
+            int accountId = 1 + random.nextInt(expected.length - 1);
+            long amount = random.nextInt(20001) - 10000;
+            expected[accountId] += amount;
+            assertEquals(expected[accountId], balances.add(accountId, amount, i));
+        }
+        for (int i = 1; i < balances.size(); i++) {
+            assertTrue(balances.accountIdAt(i - 1) < balances.accountIdAt(i));
+        }
+        for (int accountId = 1; accountId < expected.length; accountId++) {
+            int index = balances.indexOf(accountId);
+            assertEquals(expected[accountId], index >= 0 ? balances.balanceAt(index) : 0);
+        }
+    }
+
+    @Test
+    @Ignore("Timing of the accumulator pass, depends on the JVM, run by hand")
+    public void scalesLinearlyWithTheTransactions() {
+        int[] sizes = {10000, 100000, 1000000};
+        long[] nanos = new long[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            // warm up on the same size, then keep the best of a few rounds
+            nanos[i] = Long.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                nanos[i] = Math.min(nanos[i], accumulate(sizes[i]));
+            }
+        }
+
+        String timings = sizes[0] + ": " + nanos[0] / 1000 + "us, " + sizes[1] + ": " + nanos[1] / 1000
+                + "us, " + sizes[2] + ": " + nanos[2] / 1000 + "us";
+        // a hundred times the transactions must not take much more than a hundred times as long
+        assertTrue(timings, nanos[2] < nanos[0] * 100 * 3);
+    }
+
+    /**
+     * Walk generated transactions over 20 accounts the way BalanceEngine.rebalanceAll() does,
+     * with every tenth one a transfer.
+     *
+     * @return The time the pass took in nanoseconds
+     */
+    private static long accumulate(int transactions) {
+        Random random = new Random(transactions);
+        int[] fromAccountIds = new int[transactions];
+        int[] toAccountIds = new int[transactions];
+        long[] amounts = new long[transactions];
+        for (int i = 0; i < transactions; i++) {
+            fromAccountIds[i] = 1 + random.nextInt(20);
+            toAccountIds[i] = i % 10 == 0 ? 1 + random.nextInt(20) : 0;
+            amounts[i] = random.nextInt(100000);
+        }
+
+        long startedAt = System.nanoTime();
+        BalanceAccumulator balances = new BalanceAccumulator();
+        long checksum = 0;
+        for (int i = 0; i < transactions; i++) {
+            checksum += balances.add(fromAccountIds[i], -amounts[i], i);
+            if (toAccountIds[i] > 0 && toAccountIds[i] != fromAccountIds[i]) {
+                checksum += balances.add(toAccountIds[i], amounts[i], i);
+            }
+        }
+        long elapsed = System.nanoTime() - startedAt;
+        assertTrue(checksum != 1);
+        return elapsed;
+    }
+}
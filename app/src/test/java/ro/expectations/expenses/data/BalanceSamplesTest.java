@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BalanceSamplesTest {
+
+    @Test
+    public void daysWithoutEntriesKeepThePreviousBalance() {
+        BalanceSamples samples = new BalanceSamples();
+        samples.put(100, 10);
+        samples.put(100, 15);
+        samples.put(103, -5);
+        samples.put(120, 7);
+
+        assertEquals(100, samples.getFirstDay());
+        assertEquals(21, samples.getCount());
+        long[] expected = new long[21];
+        expected[0] = 15;
+        expected[1] = 15;
+        expected[2] = 15;
+        Arrays.fill(expected, 3, 20, -5);
+        expected[20] = 7;
+        assertArrayEquals(expected, balances(samples));
+    }
+
+    @Test
+    public void keepsOnlyTheDaysBeforeAChange() {
+        long[] history = {1, 2, 3, 4, 5};
+        BalanceSamples samples = BalanceSamples.keepDaysBefore(100, history, 103);
+        assertEquals(3, samples.getCount());
+
+        // the change moved the balance of day 103 and removed the entry of day 104
+        samples.put(103, 30);
+        assertArrayEquals(new long[] {1, 2, 3, 30}, balances(samples));
+
+        samples = BalanceSamples.keepDaysBefore(100, new long[] {1, 2, 3}, 103);
+        samples.put(106, 60);
+        assertArrayEquals(new long[] {1, 2, 3, 3, 3, 3, 60}, balances(samples));
+    }
+
+    @Test
+    public void changesAfterTheHistoryKeepAllOfIt() {
+        BalanceSamples samples = BalanceSamples.keepDaysBefore(100, new long[] {1, 2}, 110);
+        assertEquals(2, samples.getCount());
+        samples.put(103, 9);
+        assertArrayEquals(new long[] {1, 2, 2, 9}, balances(samples));
+    }
+
+    private static long[] balances(BalanceSamples samples) {
+        return Arrays.copyOf(samples.getBalances(), samples.getCount());
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class BalanceSeriesTest {
+
+    private TimeZone mDefaultTimeZone;
+
+    @Before
+    public void setUp() {
+        mDefaultTimeZone = TimeZone.getDefault();
+        // daylight saving time starts on 2017-03-26 and ends on 2017-10-29
+        TimeZone.setDefault(TimeZone.getTimeZone("Europe/Bucharest"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(mDefaultTimeZone);
+    }
+
+    @Test
+    public void minAndMaxMatchAScanForEveryRange() {
+        Random random = new Random(42);
+        for (int size = 1; size <= 33; size++) {
+            long[] balances = new long[size];
+            for (int i = 0; i < size; i++) {
+                balances[i] = random.nextInt(2001) - 1000;
+            }
+            int firstDay = 17000;
+            BalanceSeries series = new BalanceSeries(firstDay, balances);
+
+            for (int from = firstDay - 2; from <= firstDay + size + 1; from++) {
+                for (int to = from; to <= firstDay + size + 1; to++) {
+                    long min = Long.MAX_VALUE;
+                    long max = Long.MIN_VALUE;
+                    for (int day = from; day <= to; day++) {
+                        min = Math.min(min, series.getBalance(day));
+                        max = Math.max(max, series.getBalance(day));
+                    }
+                    String range = size + " days, " + from + " to " + to;
+                    assertEquals(range, min, series.getMin(from, to));
+                    assertEquals(range, max, series.getMax(from, to));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void singleDay() {
+        BalanceSeries series = new BalanceSeries(100, new long[] {-5});
+
+        assertEquals(-5, series.getMin(100, 100));
+        assertEquals(-5, series.getMax(100, 100));
+        // the balance is 0 before the first day and stays at the last one after it
+        assertEquals(-5, series.getMin(99, 100));
+        assertEquals(0, series.getMax(99, 100));
+        assertEquals(0, series.getMin(90, 95));
+        assertEquals(-5, series.getMax(101, 200));
+        assertEquals(100, series.getLastDay());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRangesThatEndBeforeTheyStart() {
+        new BalanceSeries(100, new long[] {1, 2, 3}).getMin(102, 101);
+    }
+
+    @Test
+    public void daysAreCountedInLocalTime() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(1970, Calendar.JANUARY, 1);
+        assertEquals(0, BalanceSeries.dayOf(calendar.getTimeInMillis()));
+        calendar.set(1970, Calendar.JANUARY, 1, 23, 59, 59);
+        assertEquals(0, BalanceSeries.dayOf(calendar.getTimeInMillis()));
+        calendar.set(1969, Calendar.DECEMBER, 31, 23, 59, 59);
+        assertEquals(-1, BalanceSeries.dayOf(calendar.getTimeInMillis()));
+    }
+
+    @Test
+    public void daysAcrossDaylightSavingTime() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2017, Calendar.MARCH, 25);
+        int day = BalanceSeries.dayOf(calendar.getTimeInMillis());
+
+        // 2017-03-26 has 23 hours, 2017-10-29 has 25
+        for (int i = 0; i < 240; i++) {
+            long start = BalanceSeries.startOf(day + i);
+            long nextStart = BalanceSeries.startOf(day + i + 1);
+            assertEquals(day + i, BalanceSeries.dayOf(start));
+            assertEquals(day + i, BalanceSeries.dayOf(nextStart - 1));
+            calendar.setTimeInMillis(start);
+            assertEquals(0, calendar.get(Calendar.HOUR_OF_DAY));
+            assertEquals(0, calendar.get(Calendar.MINUTE));
+        }
+
+        long dayInHours = 60 * 60 * 1000L;
+        assertEquals(23 * dayInHours, BalanceSeries.startOf(day + 2) - BalanceSeries.startOf(day + 1));
+        calendar.clear();
+        calendar.set(2017, Calendar.OCTOBER, 29);
+        int autumn = BalanceSeries.dayOf(calendar.getTimeInMillis());
+        assertEquals(25 * dayInHours, BalanceSeries.startOf(autumn + 1) - BalanceSeries.startOf(autumn));
+    }
+
+    @Test
+    public void packRoundTrips() {
+        long[] balances = {0, -1, Long.MAX_VALUE, Long.MIN_VALUE, 42};
+        assertArrayEquals(new long[] {0, -1, Long.MAX_VALUE},
+                BalanceSeries.unpack(BalanceSeries.pack(balances, 3)));
+        assertArrayEquals(balances, BalanceSeries.unpack(BalanceSeries.pack(balances, balances.length)));
+    }
+}
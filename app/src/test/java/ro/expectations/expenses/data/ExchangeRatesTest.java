@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExchangeRatesTest {
+
+    private static final double DELTA = 1e-9;
+
+    private final List<String> mLoadedPairs = new ArrayList<>();
+    private ExchangeRates mRates;
+
+    @Before
+    public void setUp() {
+        mRates = new ExchangeRates(new ExchangeRates.Loader() {
+            @Override
+            public void load(String fromCurrency, String toCurrency, ExchangeRates rates) {
+                mLoadedPairs.add(fromCurrency + ":" + toCurrency);
+                if (fromCurrency.equals("EUR") && toCurrency.equals("RON")) {
+                    // in any order
+                    rates.put("EUR", "RON", 20170301, 4.5);
+                    rates.put("EUR", "RON", 20170101, 4.4);
+                    rates.put("EUR", "RON", 20170201, 4.45);
+                } else if (fromCurrency.equals("USD") && toCurrency.equals("RON")) {
+                    rates.put("USD", "RON", 20170101, 4.0);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void usesTheLatestRateOnOrBeforeTheDay() {
+        assertEquals(4.4, mRates.getRate("EUR", "RON", 20170101), DELTA);
+        assertEquals(4.4, mRates.getRate("EUR", "RON", 20170131), DELTA);
+        assertEquals(4.45, mRates.getRate("EUR", "RON", 20170201), DELTA);
+        assertEquals(4.5, mRates.getRate("EUR", "RON", 20171231), DELTA);
+        // before the first rate, and there is no inverse rate either
+        assertTrue(Double.isNaN(mRates.getRate("EUR", "RON", 20161231)));
+    }
+
+    @Test
+    public void fallsBackToTheInverseRate() {
+        assertEquals(0.25, mRates.getRate("RON", "USD", 20170615), DELTA);
+        assertEquals(1 / 4.45, mRates.getRate("RON", "EUR", 20170215), DELTA);
+        assertTrue(Double.isNaN(mRates.getRate("RON", "GBP", 20170615)));
+    }
+
+    @Test
+    public void sameCurrencyAndUnknownCurrencies() {
+        assertEquals(1, mRates.getRate("EUR", "EUR", 20170101), DELTA);
+        assertTrue(Double.isNaN(mRates.getRate(null, "EUR", 20170101)));
+        assertTrue(Double.isNaN(mRates.getRate("EUR", null, 20170101)));
+        assertEquals(0, mLoadedPairs.size());
+    }
+
+    @Test
+    public void loadsEveryPairOnceUntilCleared() {
+        mRates.getRate("EUR", "RON", 20170101);
+        mRates.getRate("EUR", "RON", 20170501);
+        mRates.getRate("RON", "EUR", 20170501);
+        mRates.getRate("RON", "EUR", 20170502);
+        assertEquals(2, mLoadedPairs.size());
+
+        mRates.clear();
+        mRates.getRate("EUR", "RON", 20170101);
+        assertEquals(3, mLoadedPairs.size());
+    }
+}
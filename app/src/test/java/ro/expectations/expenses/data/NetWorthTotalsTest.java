@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class NetWorthTotalsTest {
+
+    private static final int DAY = 20170615;
+
+    private NetWorthTotals mTotals;
+    private int mLoads;
+
+    @Before
+    public void setUp() {
+        mTotals = new NetWorthTotals(new ExchangeRates(new ExchangeRates.Loader() {
+            @Override
+            public void load(String fromCurrency, String toCurrency, ExchangeRates rates) {
+                mLoads++;
+                rates.put("EUR", "RON", 20170101, 4.5);
+            }
+        }));
+    }
+
+    @Test
+    public void convertsIntoTheMainCurrency() {
+        mTotals.compute(new int[] {1, 2, 3}, new String[] {"RON", "EUR", "RON"}, new long[] {1000, 200, -100}, DAY);
+
+        assertEquals("RON", mTotals.getCurrency());
+        assertEquals(1000 + 900 - 100, mTotals.getTotal());
+        assertEquals(3, mTotals.getAccountCount());
+        assertEquals(Collections.emptyList(), mTotals.getMissingCurrencies());
+    }
+
+    @Test
+    public void reportsTheCurrenciesWithoutARate() {
+        mTotals.compute(new int[] {1, 2, 3, 4, 5},
+                new String[] {"EUR", "EUR", "USD", "GBP", "USD"},
+                new long[] {100, 100, 5, 7, 9}, DAY);
+
+        assertEquals("EUR", mTotals.getCurrency());
+        assertEquals(200, mTotals.getTotal());
+        assertEquals(2, mTotals.getAccountCount());
+        assertEquals(Arrays.asList("USD", "GBP"), mTotals.getMissingCurrencies());
+        assertEquals(0, mTotals.getAccountsWithoutCurrency());
+    }
+
+    @Test
+    public void reportsTheAccountsWithoutACurrency() {
+        mTotals.compute(new int[] {1, 2, 3}, new String[] {null, "RON", null}, new long[] {100, 50, 10}, DAY);
+
+        assertEquals("RON", mTotals.getCurrency());
+        assertEquals(50, mTotals.getTotal());
+        assertEquals(1, mTotals.getAccountCount());
+        assertEquals(2, mTotals.getAccountsWithoutCurrency());
+        assertEquals(Collections.emptyList(), mTotals.getMissingCurrencies());
+
+        mTotals.compute(new int[] {1}, new String[] {null}, new long[] {100}, DAY);
+        assertNull(mTotals.getCurrency());
+        assertEquals(0, mTotals.getAccountCount());
+        assertEquals(1, mTotals.getAccountsWithoutCurrency());
+    }
+
+    @Test
+    public void convertsOnlyTheChangedAccounts() {
+        int[] accountIds = {1, 2, 3};
+        String[] currencies = {"RON", "RON", "EUR"};
+        mTotals.compute(accountIds, currencies, new long[] {10, 20, 30}, DAY);
+        assertEquals(3, mTotals.getConvertedCount());
+        assertEquals(1, mLoads);
+
+        mTotals.compute(accountIds, currencies, new long[] {10, 25, 30}, DAY);
+        assertEquals(1, mTotals.getConvertedCount());
+        assertEquals(10 + 25 + 135, mTotals.getTotal());
+
+        // a new day needs new rates
+        mTotals.compute(accountIds, currencies, new long[] {10, 25, 30}, DAY + 1);
+        assertEquals(3, mTotals.getConvertedCount());
+
+        mTotals.clearConversions();
+        mTotals.compute(accountIds, currencies, new long[] {10, 25, 30}, DAY + 1);
+        assertEquals(3, mTotals.getConvertedCount());
+        assertEquals(1, mLoads);
+    }
+
+    @Test
+    public void mainCurrencyIgnoresUnknownCurrencies() {
+        assertEquals("EUR", NetWorthTotals.getMainCurrency(new String[] {null, null, "EUR"}));
+        assertEquals("RON", NetWorthTotals.getMainCurrency(new String[] {"RON", "EUR", "RON", "EUR"}));
+        assertNull(NetWorthTotals.getMainCurrency(new String[0]));
+    }
+}
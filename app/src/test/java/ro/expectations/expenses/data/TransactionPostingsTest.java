@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionPostingsTest {
+
+    private static final int CASH = 1;
+    private static final int BANK = 2;
+
+    private TransactionPostings mPostings;
+
+    @Before
+    public void setUp() {
+        mPostings = new TransactionPostings();
+    }
+
+    @Test
+    public void tokenizeStripsAccentsAndCase() {
+        Set<String> tokens = TransactionPostings.tokenize("Caf\u00e9 CR\u00c8ME-br\u00fbl\u00e9e, 2x");
+        assertEquals(Arrays.asList("cafe", "creme", "brulee", "2x"), Arrays.asList(tokens.toArray()));
+        assertTrue(TransactionPostings.tokenize(null).isEmpty());
+        assertTrue(TransactionPostings.tokenize(" - ").isEmpty());
+    }
+
+    @Test
+    public void findsAccentedNotesWithoutAccents() {
+        addNote(1, 100, CASH, "Caf\u00e9 du march\u00e9");
+        addNote(2, 200, CASH, "Cafeteria");
+
+        assertArrayEquals(new int[] {2, 1}, mPostings.find("cafe", 0, 10));
+        assertArrayEquals(new int[] {1}, mPostings.find("MARCHE", 0, 10));
+        assertArrayEquals(new int[] {1}, mPostings.find("march\u00e9", 0, 10));
+    }
+
+    @Test
+    public void matchesAllTheWordsOfTheQuery() {
+        addNote(1, 100, CASH, "coffee beans");
+        addNote(2, 200, CASH, "coffee");
+        int row = addNote(3, 300, CASH, "");
+        mPostings.addPayee(row, 7);
+        mPostings.addPayeeTokens(7, TransactionPostings.tokenize("Bean Shop"));
+
+        assertArrayEquals(new int[] {1}, mPostings.find("coffee bean", 0, 10));
+        assertArrayEquals(new int[] {3, 1}, mPostings.find("bean", 0, 10));
+        assertArrayEquals(new int[0], mPostings.find("coffee shop", 0, 10));
+        assertArrayEquals(new int[0], mPostings.find("  ", 0, 10));
+    }
+
+    @Test
+    public void returnsTheNewestFirstAndBreaksTiesById() {
+        addNote(4, 100, CASH, "rent");
+        addNote(9, 300, CASH, "rent");
+        addNote(2, 300, CASH, "rent");
+        addNote(7, 200, CASH, "rent");
+        addNote(5, 300, CASH, "rent");
+
+        assertArrayEquals(new int[] {9, 5, 2, 7, 4}, mPostings.find("rent", 0, 10));
+        assertArrayEquals(new int[] {9, 5, 2}, mPostings.find("rent", 0, 3));
+        assertTrue(mPostings.compareRows(1, 2) > 0);
+        assertTrue(mPostings.compareRows(3, 1) < 0);
+        assertEquals(0, mPostings.compareRows(2, 2));
+    }
+
+    @Test
+    public void skipsDeadRows() {
+        int row = addNote(1, 100, CASH, "groceries");
+        addNote(2, 200, CASH, "groceries");
+        mPostings.markDead(row);
+        // the new version of the first transaction
+        addNote(1, 100, CASH, "market");
+
+        assertArrayEquals(new int[] {2}, mPostings.find("groceries", 0, 10));
+        assertArrayEquals(new int[] {1}, mPostings.find("market", 0, 10));
+        assertEquals(1, mPostings.getDeadCount());
+
+        mPostings.markDead(row);
+        assertEquals(1, mPostings.getDeadCount());
+    }
+
+    @Test
+    public void filtersByAccountBeforeTheLimit() {
+        for (int id = 1; id <= 10; id++) {
+            addNote(id, id * 100, BANK, "fuel");
+        }
+        addNote(11, 50, CASH, "fuel");
+        int row = addNote(12, 60, BANK, "fuel");
+        // a transfer shows up in both accounts
+        mPostings.addAccount(row, CASH);
+
+        assertArrayEquals(new int[] {12, 11}, mPostings.find("fuel", CASH, 2));
+        assertArrayEquals(new int[] {10, 9}, mPostings.find("fuel", BANK, 2));
+        assertArrayEquals(new int[0], mPostings.find("fuel", 3, 2));
+    }
+
+    @Test
+    public void clearRowsKeepsTheEntityTokens() {
+        mPostings.addCategoryTokens(3, TransactionPostings.tokenize("Utilities"));
+        mPostings.addCategory(addNote(1, 100, CASH, ""), 3);
+        mPostings.clearRows();
+        assertEquals(0, mPostings.size());
+        assertArrayEquals(new int[0], mPostings.find("util", 0, 10));
+
+        mPostings.addCategory(addNote(1, 100, CASH, ""), 3);
+        assertArrayEquals(new int[] {1}, mPostings.find("util", 0, 10));
+    }
+
+    private int addNote(int transactionId, long occurredAt, int accountId, String note) {
+        int row = mPostings.addRow(transactionId, occurredAt, occurredAt);
+        mPostings.addAccount(row, accountId);
+        mPostings.addNoteTokens(row, note.isEmpty()
+                ? Collections.<String>emptySet() : TransactionPostings.tokenize(note));
+        return row;
+    }
+}
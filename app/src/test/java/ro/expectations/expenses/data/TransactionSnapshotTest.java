@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.data;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Calendar;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionSnapshotTest {
+
+    private static final int CASH = 1;
+    private static final int BANK = 2;
+    private static final int SAVINGS = 3;
+
+    private static final int FOOD = 10;
+    private static final int HOME = 11;
+
+    private static final int SHOP = 20;
+
+    private static final int HOLIDAY = 30;
+
+    private TransactionSnapshot.Builder mBuilder;
+
+    @Before
+    public void setUp() {
+        mBuilder = new TransactionSnapshot.Builder();
+    }
+
+    @Test
+    public void filtersAreCombined() {
+        expense(1, 100, CASH, SHOP, FOOD, 0, 500);
+        expense(2, 200, CASH, 0, HOME, HOLIDAY, 300);
+        expense(3, 300, BANK, SHOP, FOOD, HOLIDAY, 700);
+        income(4, 400, BANK, 0, 0, 0, 1000);
+        TransactionSnapshot snapshot = mBuilder.build();
+
+        assertEquals(4, snapshot.query().count());
+        assertEquals(-500, snapshot.query().sum());
+        assertEquals(2, snapshot.query().account(CASH).count());
+        assertEquals(-1200, snapshot.query().category(FOOD).sum());
+        assertEquals(-1200, snapshot.query().payee(SHOP).sum());
+        assertEquals(-1000, snapshot.query().project(HOLIDAY).sum());
+        assertEquals(-700, snapshot.query().payee(SHOP).project(HOLIDAY).sum());
+        // [from, to)
+        assertEquals(2, snapshot.query().occurredBetween(200, 400).count());
+        assertEquals(0, snapshot.query().account(CASH).occurredBetween(300, 500).count());
+    }
+
+    @Test
+    public void kindsAreAMask() {
+        expense(1, 100, CASH, 0, 0, 0, 500);
+        income(2, 200, CASH, 0, 0, 0, 800);
+        mBuilder.append(3, 300, 300, TransactionSnapshot.KIND_TRANSFER, 200, CASH, 0, 0, 0);
+        TransactionSnapshot snapshot = mBuilder.build();
+
+        assertEquals(-500, snapshot.query().kind(TransactionSnapshot.KIND_EXPENSE).sum());
+        assertEquals(800, snapshot.query().kind(TransactionSnapshot.KIND_INCOME).sum());
+        assertEquals(300, snapshot.query()
+                .kind(TransactionSnapshot.KIND_EXPENSE)
+                .kind(TransactionSnapshot.KIND_INCOME)
+                .sum());
+        assertEquals(1, snapshot.query().kind(TransactionSnapshot.KIND_TRANSFER).count());
+    }
+
+    @Test
+    public void accountsKeepAnyOfTheAccounts() {
+        expense(1, 100, CASH, 0, 0, 0, 1);
+        expense(2, 100, BANK, 0, 0, 0, 10);
+        expense(3, 100, SAVINGS, 0, 0, 0, 100);
+        TransactionSnapshot snapshot = mBuilder.build();
+
+        assertEquals(-101, snapshot.query().accounts(new int[] {CASH, SAVINGS}).sum());
+        assertEquals(0, snapshot.query().accounts(new int[0]).count());
+        assertEquals(-10, snapshot.query().accounts(new int[] {BANK}).account(BANK).sum());
+    }
+
+    @Test
+    public void splitsAreBookedUnderTheirOwnCategoryAndProject() {
+        expense(1, 100, CASH, SHOP, FOOD, 0, 100);
+        // a split expense of 100 + 400 and a split income of 250, splits are stored as expenses
+        mBuilder.append(2, 200, 200, TransactionSnapshot.KIND_EXPENSE, -100, CASH, SHOP, FOOD, 0);
+        mBuilder.append(2, 200, 200, TransactionSnapshot.KIND_EXPENSE, -400, CASH, SHOP, HOME, HOLIDAY);
+        mBuilder.append(3, 300, 300, TransactionSnapshot.KIND_INCOME, 250, CASH, 0, HOME, 0);
+        TransactionSnapshot snapshot = mBuilder.build();
+
+        TransactionSnapshot.Sums byCategory = snapshot.query()
+                .kind(TransactionSnapshot.KIND_EXPENSE)
+                .sumBy(TransactionSnapshot.BY_CATEGORY);
+        assertEquals(2, byCategory.size());
+        assertEquals(-200, byCategory.get(FOOD));
+        assertEquals(-400, byCategory.get(HOME));
+        assertEquals(0, byCategory.get(HOLIDAY));
+        assertEquals(-400, snapshot.query().sumBy(TransactionSnapshot.BY_PROJECT).get(HOLIDAY));
+        assertEquals(-600, snapshot.query().payee(SHOP).sum());
+
+        // every split transaction is counted once
+        assertEquals(3, snapshot.query().count());
+        assertEquals(1, snapshot.query().category(HOME).kind(TransactionSnapshot.KIND_EXPENSE).count());
+        assertEquals(2, snapshot.query().category(FOOD).count());
+        assertEquals(4, snapshot.size());
+    }
+
+    @Test
+    public void sumsAreKeyedByMonth() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2017, Calendar.JANUARY, 31, 23, 59);
+        expense(1, calendar.getTimeInMillis(), CASH, 0, 0, 0, 5);
+        calendar.set(2017, Calendar.FEBRUARY, 1, 0, 0);
+        expense(2, calendar.getTimeInMillis(), CASH, 0, 0, 0, 7);
+        TransactionSnapshot.Sums byMonth = mBuilder.build().query().sumBy(TransactionSnapshot.BY_MONTH);
+
+        assertEquals(2, byMonth.size());
+        assertEquals(201701, byMonth.keyAt(0));
+        assertEquals(-5, byMonth.valueAt(0));
+        assertEquals(201702, byMonth.keyAt(1));
+        assertEquals(-7, byMonth.valueAt(1));
+    }
+
+    @Test
+    public void mergesTheChunksOfLargeSnapshots() {
+        // more than four chunks of rows, with a split transaction across two of them
+        int count = 70000;
+        long expected = 0;
+        for (int id = 1; id <= count; id++) {
+            if (id == 16 * 1024) {
+                mBuilder.append(id, id, id, TransactionSnapshot.KIND_EXPENSE, -3, CASH, 0, FOOD, 0);
+                mBuilder.append(id, id, id, TransactionSnapshot.KIND_EXPENSE, -4, CASH, 0, HOME, 0);
+                expected -= 7;
+                continue;
+            }
+            int accountId = id % 3 == 0 ? BANK : CASH;
+            expense(id, id, accountId, id % 7, id % 2 == 0 ? FOOD : HOME, 0, id % 100);
+            expected -= id % 100;
+        }
+        TransactionSnapshot snapshot = mBuilder.build();
+
+        assertEquals(count, snapshot.query().count());
+        assertEquals(expected, snapshot.query().sum());
+
+        TransactionSnapshot.Sums byAccount = snapshot.query().sumBy(TransactionSnapshot.BY_ACCOUNT);
+        assertEquals(expected, byAccount.get(CASH) + byAccount.get(BANK));
+        long bank = 0;
+        for (int id = 3; id <= count; id += 3) {
+            bank -= id != 16 * 1024 ? id % 100 : 0;
+        }
+        assertEquals(bank, byAccount.get(BANK));
+
+        TransactionSnapshot.Sums byPayee = snapshot.query().sumBy(TransactionSnapshot.BY_PAYEE);
+        assertEquals(7, byPayee.size());
+        long total = 0;
+        for (int i = 0; i < byPayee.size(); i++) {
+            assertEquals(i, byPayee.keyAt(i));
+            total += byPayee.valueAt(i);
+        }
+        assertEquals(expected, total);
+    }
+
+    @Test
+    public void removedTransactionsAreSkipped() {
+        int first = expense(1, 100, CASH, 0, FOOD, 0, 100);
+        int split = mBuilder.append(2, 200, 200, TransactionSnapshot.KIND_EXPENSE, -10, CASH, 0, FOOD, 0);
+        mBuilder.append(2, 200, 200, TransactionSnapshot.KIND_EXPENSE, -20, CASH, 0, HOME, 0);
+        expense(3, 300, CASH, 0, HOME, 0, 1000);
+
+        mBuilder.removeTransaction(split);
+        assertEquals(2, mBuilder.getRemovedCount());
+        assertTrue(mBuilder.isRemoved(split + 1));
+        assertFalse(mBuilder.isRemoved(first));
+        // the new version of the transaction, right after the old one
+        mBuilder.append(2, 200, 250, TransactionSnapshot.KIND_EXPENSE, -30, CASH, 0, FOOD, 0);
+        mBuilder.removeTransaction(split);
+        assertEquals(2, mBuilder.getRemovedCount());
+
+        TransactionSnapshot snapshot = mBuilder.build();
+        assertEquals(3, snapshot.size());
+        assertEquals(3, snapshot.query().count());
+        assertEquals(-130, snapshot.query().category(FOOD).sum());
+        assertEquals(-1000, snapshot.query().category(HOME).sum());
+
+        // the snapshot does not see later changes
+        mBuilder.removeTransaction(first);
+        assertEquals(3, snapshot.query().count());
+        assertEquals(2, mBuilder.build().query().count());
+    }
+
+    @Test
+    public void tooManyRemovedRowsAskForARebuild() {
+        for (int id = 1; id <= 8; id++) {
+            expense(id, id, CASH, 0, 0, 0, 1);
+        }
+        mBuilder.removeTransaction(0);
+        mBuilder.removeTransaction(1);
+        // exactly a quarter
+        assertFalse(mBuilder.hasTooManyRemoved());
+        mBuilder.removeTransaction(2);
+        assertTrue(mBuilder.hasTooManyRemoved());
+
+        mBuilder.clear();
+        assertEquals(0, mBuilder.size());
+        assertFalse(mBuilder.hasTooManyRemoved());
+        assertEquals(0, mBuilder.build().query().count());
+    }
+
+    private int expense(int id, long occurredAt, int accountId, int payeeId, int categoryId, int projectId,
+                        long amount) {
+        return mBuilder.append(id, occurredAt, occurredAt, TransactionSnapshot.KIND_EXPENSE, -amount,
+                accountId, payeeId, categoryId, projectId);
+    }
+
+    private int income(int id, long occurredAt, int accountId, int payeeId, int categoryId, int projectId,
+                       long amount) {
+        return mBuilder.append(id, occurredAt, occurredAt, TransactionSnapshot.KIND_INCOME, amount,
+                accountId, payeeId, categoryId, projectId);
+    }
+}
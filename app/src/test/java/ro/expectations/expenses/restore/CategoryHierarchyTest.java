@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.restore;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CategoryHierarchyTest {
+
+    @Test
+    public void resolvesTwoLevels() {
+        // Food [1, 8] > Groceries [2, 5] > Fruit [3, 4], Food > Restaurants [6, 7], Car [9, 10]
+        int[] ids = {5, 1, 2, 3, 4};
+        int[] lefts = {9, 1, 2, 3, 6};
+        int[] rights = {10, 8, 5, 4, 7};
+        int[] depths = new int[ids.length];
+        int[] ancestorIds = new int[ids.length];
+
+        CategoryHierarchy.resolve(ids, lefts, rights, depths, ancestorIds);
+
+        assertArrayEquals(new int[] {0, 0, 1, 2, 1}, depths);
+        assertArrayEquals(new int[] {0, 0, 1, 2, 1}, ancestorIds);
+    }
+
+    @Test
+    public void migratesDeepCategoriesIntoTheSecondLevel() {
+        // 1 > 2 > 3 > 4 > 5
+        int[] ids = {1, 2, 3, 4, 5};
+        int[] lefts = {1, 2, 3, 4, 5};
+        int[] rights = {10, 9, 8, 7, 6};
+        int[] depths = new int[ids.length];
+        int[] ancestorIds = new int[ids.length];
+
+        CategoryHierarchy.resolve(ids, lefts, rights, depths, ancestorIds);
+
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4}, depths);
+        assertArrayEquals(new int[] {0, 1, 2, 2, 2}, ancestorIds);
+    }
+
+    @Test
+    public void matchesTheOldScanOnFilesInLeftOrder() {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            List<Node> file = sortedByLeft(randomForest(random, 1 + random.nextInt(200)));
+            assertMatches("round " + round, file, file);
+        }
+    }
+
+    @Test
+    public void doesNotDependOnTheOrderOfTheFile() {
+        Random random = new Random(7);
+        int outOfOrderRounds = 0;
+        for (int round = 0; round < 500; round++) {
+            List<Node> file = randomForest(random, 1 + random.nextInt(200));
+            // the old scan is only right when it sees the categories in increasing left order
+            assertMatches("round " + round, file, sortedByLeft(file));
+
+            for (Node node : file) {
+                if (!Arrays.equals(quadraticScan(file, node), quadraticScan(sortedByLeft(file), node))) {
+                    outOfOrderRounds++;
+                    break;
+                }
+            }
+        }
+        // the shuffled files do trip the old scan
+        assertTrue(outOfOrderRounds > 0);
+    }
+
+    /**
+     * Resolve the categories of a file and compare them with the old scan over another order of
+     * the same categories.
+     */
+    private static void assertMatches(String message, List<Node> file, List<Node> scanned) {
+        int count = file.size();
+        int[] ids = new int[count];
+        int[] lefts = new int[count];
+        int[] rights = new int[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = file.get(i).mId;
+            lefts[i] = file.get(i).mLeft;
+            rights[i] = file.get(i).mRight;
+        }
+        int[] depths = new int[count];
+        int[] ancestorIds = new int[count];
+        CategoryHierarchy.resolve(ids, lefts, rights, depths, ancestorIds);
+
+        for (int i = 0; i < count; i++) {
+            Node node = file.get(i);
+            int[] expected = quadraticScan(scanned, node);
+            assertEquals(message + ", category " + node.mId, expected[0], depths[i]);
+            assertEquals(message + ", category " + node.mId, expected[1], ancestorIds[i]);
+        }
+    }
+
+    /**
+     * The scan that the import used before, over the categories in the order of the file. It is
+     * only right when the file lists them in increasing order of their left value.
+     *
+     * @return The level and the parent, or second level ancestor, of the category
+     */
+    private static int[] quadraticScan(List<Node> file, Node category) {
+        int parentId = 0;
+        int left = category.mLeft;
+        int previousLeft = 0;
+        int level = 0;
+        for (Node node : file) {
+            if (node.mLeft < left && left < node.mRight) {
+                if (node.mLeft > previousLeft) {
+                    if (level <= 1) {
+                        parentId = node.mId;
+                    }
+                    previousLeft = node.mLeft;
+                    level++;
+                }
+            }
+        }
+        return new int[] {level, parentId};
+    }
+
+    private static List<Node> sortedByLeft(List<Node> nodes) {
+        List<Node> sorted = new ArrayList<>(nodes);
+        Collections.sort(sorted, new Comparator<Node>() {
+            @Override
+            public int compare(Node node1, Node node2) {
+                return node1.mLeft < node2.mLeft ? -1 : (node1.mLeft == node2.mLeft ? 0 : 1);
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Build a random forest, number it as nested sets starting from 1 like Financisto does and
+     * return its nodes in a random order.
+     */
+    private static List<Node> randomForest(Random random, int size) {
+        List<Node> nodes = new ArrayList<>(size);
+        List<Node> roots = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            Node node = new Node(i + 1);
+            if (nodes.isEmpty() || random.nextInt(5) == 0) {
+                roots.add(node);
+            } else {
+                // prefer recent nodes as parents to get deep chains as well as wide levels
+                int bound = Math.min(nodes.size(), 1 + random.nextInt(8));
+                nodes.get(nodes.size() - 1 - random.nextInt(bound)).mChildren.add(node);
+            }
+            nodes.add(node);
+        }
+
+        int next = 1;
+        for (Node root : roots) {
+            next = number(root, next);
+        }
+        Collections.shuffle(nodes, random);
+        return nodes;
+    }
+
+    private static int number(Node node, int next) {
+        node.mLeft = next++;
+        for (Node child : node.mChildren) {
+            next = number(child, next);
+        }
+        node.mRight = next++;
+        return next;
+    }
+
+    private static class Node {
+
+        final int mId;
+        final List<Node> mChildren = new ArrayList<>();
+        int mLeft;
+        int mRight;
+
+        Node(int id) {
+            mId = id;
+        }
+    }
+}
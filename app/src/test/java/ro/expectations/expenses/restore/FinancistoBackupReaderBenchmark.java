@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.restore;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import ro.expectations.expenses.restore.FinancistoBackupReader.Column;
+import ro.expectations.expenses.restore.FinancistoBackupReader.Entity;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Compares {@link FinancistoBackupReader} with the readLine / substring parser that the import
+ * used before, on a generated backup with 20000 transactions.
+ *
+ * Only the equivalence of both parsers runs with the unit tests. The allocation measurement
+ * depends on the JVM and its JIT, so it is ignored and meant to be run by hand.
+ */
+public class FinancistoBackupReaderBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int TRANSACTIONS = 20000;
+    private static final int WARM_UP_ROUNDS = 3;
+
+    @Test
+    public void readsTheSameValuesAsTheLineParser() throws IOException {
+        byte[] backup = generateBackup();
+        assertEquals(readWithLineParser(backup), readWithReader(backup));
+    }
+
+    @Test
+    @Ignore("Allocation benchmark, depends on the JVM, run by hand")
+    public void allocatesAnOrderOfMagnitudeLess() throws IOException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assumeTrue("Allocation counters are not available on this JVM",
+                threads instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        long thread = Thread.currentThread().getId();
+
+        byte[] backup = generateBackup();
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            readWithReader(backup);
+            readWithLineParser(backup);
+        }
+
+        long before = allocations.getThreadAllocatedBytes(thread);
+        readWithReader(backup);
+        long readerBytes = allocations.getThreadAllocatedBytes(thread) - before;
+
+        before = allocations.getThreadAllocatedBytes(thread);
+        readWithLineParser(backup);
+        long lineBytes = allocations.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue("The reader allocated " + readerBytes / 1024 + " KiB, the line parser "
+                + lineBytes / 1024 + " KiB", readerBytes * 10 <= lineBytes);
+    }
+
+    private static long readWithReader(byte[] backup) throws IOException {
+        FinancistoBackupReader reader = new FinancistoBackupReader(new ByteArrayInputStream(backup));
+        Entity entity = new Entity();
+        long checksum = 0;
+        while (reader.readEntity(entity)) {
+            checksum += entity.getInt(Column.ID);
+            checksum += entity.getInt(Column.FROM_ACCOUNT_ID);
+            checksum += entity.getLong(Column.FROM_AMOUNT);
+            checksum += entity.getInt(Column.CATEGORY_ID);
+            checksum += entity.getInt(Column.PAYEE_ID);
+            checksum += entity.getLong(Column.DATETIME);
+        }
+        reader.close();
+        return checksum;
+    }
+
+    private static long readWithLineParser(byte[] backup) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(backup), UTF_8));
+        Map<String, String> values = null;
+        long checksum = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.startsWith("$ENTITY:")) {
+                values = new HashMap<>();
+                values.put("$table", line.substring(8));
+            } else if (line.equals("$$")) {
+                if (values != null && "transactions".equals(values.get("$table"))) {
+                    checksum += Integer.parseInt(values.get("_id"));
+                    checksum += Integer.parseInt(values.get("from_account_id"));
+                    checksum += Long.parseLong(values.get("from_amount"));
+                    checksum += Integer.parseInt(values.get("category_id"));
+                    checksum += Integer.parseInt(values.get("payee_id"));
+                    checksum += Long.parseLong(values.get("datetime"));
+                }
+                values = null;
+            } else if (values != null) {
+                int separator = line.indexOf(':');
+                if (separator > 0) {
+                    values.put(line.substring(0, separator), line.substring(separator + 1));
+                }
+            }
+        }
+        reader.close();
+        return checksum;
+    }
+
+    private static byte[] generateBackup() {
+        StringBuilder backup = new StringBuilder(TRANSACTIONS * 400);
+        backup.append("PACKAGE:ru.orangesoftware.financisto\n")
+                .append("VERSION_CODE:100\n")
+                .append("#START\n");
+        for (int i = 1; i <= TRANSACTIONS; i++) {
+            backup.append("$ENTITY:transactions\n")
+                    .append("_id:").append(i).append('\n')
+                    .append("from_account_id:").append(i % 7 + 1).append('\n')
+                    .append("to_account_id:0\n")
+                    .append("category_id:").append(i % 40 + 1).append('\n')
+                    .append("project_id:0\n")
+                    .append("location_id:0\n")
+                    .append("note:Transaction ").append(i).append('\n')
+                    .append("from_amount:-").append(i * 37 % 100000).append('\n')
+                    .append("to_amount:0\n")
+                    .append("datetime:").append(1480000000000L + i * 60000L).append('\n')
+                    .append("original_currency_id:0\n")
+                    .append("original_from_amount:0\n")
+                    .append("payee_id:").append(i % 90 + 1).append('\n')
+                    .append("is_template:0\n")
+                    .append("status:UR\n")
+                    .append("is_ccard_payment:0\n")
+                    .append("updated_on:").append(1480000000000L + i).append('\n')
+                    .append("remote_key:\n")
+                    .append("$$\n");
+        }
+        backup.append("#END\n");
+        return backup.toString().getBytes(UTF_8);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2017 Adrian Videnie
+ *
+ * This file is part of Expenses.
+ *
+ * Expenses is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Expenses is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Expenses. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package ro.expectations.expenses.restore;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import ro.expectations.expenses.restore.FinancistoBackupReader.Column;
+import ro.expectations.expenses.restore.FinancistoBackupReader.Entity;
+import ro.expectations.expenses.restore.FinancistoBackupReader.Table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FinancistoBackupReaderTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String HEADER = "PACKAGE:ru.orangesoftware.financisto\n"
+            + "VERSION_CODE:100\n"
+            + "#START\n";
+
+    @Test
+    public void readsNumbersAndText() throws IOException {
+        FinancistoBackupReader reader = reader(HEADER
+                + "$ENTITY:transactions\n"
+                + "_id:42\n"
+                + "from_account_id:3\n"
+                + "from_amount:-1250\n"
+                + "note:Groceries\n"
+                + "$$\n"
+                + "#END\n", 65536);
+
+        Entity entity = new Entity();
+        assertTrue(reader.readEntity(entity));
+        assertEquals(Table.TRANSACTIONS, entity.getTable());
+        assertEquals(42, entity.getInt(Column.ID));
+        assertEquals(3, entity.getInt(Column.FROM_ACCOUNT_ID));
+        assertEquals(-1250L, entity.getLong(Column.FROM_AMOUNT));
+        assertEquals("Groceries", entity.getString(Column.NOTE));
+        assertFalse(reader.readEntity(entity));
+    }
+
+    @Test
+    public void keepsEscapedValuesVerbatim() throws IOException {
+        // only the first colon separates the column from the value
+        FinancistoBackupReader reader = reader(HEADER
+                + "$ENTITY:transactions\n"
+                + "_id:1\n"
+                + "note:Dinner at 20:30 \\n with \\\"friends\\\" $$ \u20ac\r\n"
+                + "$$\r\n", 65536);
+
+        Entity entity = new Entity();
+        assertTrue(reader.readEntity(entity));
+        assertEquals("Dinner at 20:30 \\n with \\\"friends\\\" $$ \u20ac", entity.getString(Column.NOTE));
+    }
+
+    @Test
+    public void readsEntitiesSplitAcrossBufferRefills() throws IOException {
+        StringBuilder longNote = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longNote.append("note ").append(i).append(' ');
+        }
+        String backup = HEADER
+                + "$ENTITY:currency\n"
+                + "_id:1\n"
+                + "name:EUR\n"
+                + "$$\n"
+                + "$ENTITY:transactions\n"
+                + "_id:123456789\n"
+                + "note:" + longNote + "\n"
+                + "to_amount:9876543210\n"
+                + "$$\n";
+
+        // a tiny buffer, filled one byte at a time, splits every line and the long note
+        FinancistoBackupReader reader = new FinancistoBackupReader(
+                new OneByteInputStream(backup.getBytes(UTF_8)), 16);
+
+        Entity entity = new Entity();
+        assertTrue(reader.readEntity(entity));
+        assertEquals(Table.CURRENCY, entity.getTable());
+        assertEquals("EUR", entity.getString(Column.NAME));
+
+        assertTrue(reader.readEntity(entity));
+        assertEquals(Table.TRANSACTIONS, entity.getTable());
+        assertEquals(123456789, entity.getInt(Column.ID));
+        assertEquals(longNote.toString(), entity.getString(Column.NOTE));
+        assertEquals(9876543210L, entity.getLong(Column.TO_AMOUNT));
+        assertFalse(reader.readEntity(entity));
+    }
+
+    @Test
+    public void readsLastLineWithoutNewline() throws IOException {
+        FinancistoBackupReader reader = reader("$ENTITY:payee\n_id:7\ntitle:Shop\n$$", 16);
+
+        Entity entity = new Entity();
+        assertTrue(reader.readEntity(entity));
+        assertEquals(Table.PAYEE, entity.getTable());
+        assertEquals("Shop", entity.getString(Column.TITLE));
+    }
+
+    @Test
+    public void skipsUnknownTablesAndColumns() throws IOException {
+        FinancistoBackupReader reader = reader(HEADER
+                + "$ENTITY:budget\n"
+                + "_id:5\n"
+                + "amount:100\n"
+                + "$$\n"
+                + "$ENTITY:project\n"
+                + "_id:9\n"
+                + "remote_key:abc:def\n"
+                + "title:Holiday\n"
+                + "$$\n", 65536);
+
+        Entity entity = new Entity();
+        assertTrue(reader.readEntity(entity));
+        assertEquals(Table.PROJECT, entity.getTable());
+        assertEquals(9, entity.getInt(Column.ID));
+        assertEquals("Holiday", entity.getString(Column.TITLE));
+        assertFalse(reader.readEntity(entity));
+    }
+
+    @Test
+    public void reportsMissingColumns() throws IOException {
+        FinancistoBackupReader reader = reader(HEADER
+                + "$ENTITY:transactions\n"
+                + "_id:1\n"
+                + "from_amount:500\n"
+                + "note:First\n"
+                + "$$\n"
+                + "$ENTITY:transactions\n"
+                + "_id:2\n"
+                + "payee_id:\n"
+                + "category_id:null\n"
+                + "$$\n", 65536);
+
+        Entity entity = new Entity();
+        assertTrue(reader.readEntity(entity));
+        assertTrue(entity.has(Column.FROM_AMOUNT));
+        assertTrue(entity.has(Column.NOTE));
+
+        // the values of the previous entity must not leak into the next one
+        assertTrue(reader.readEntity(entity));
+        assertEquals(2, entity.getInt(Column.ID));
+        assertFalse(entity.has(Column.FROM_AMOUNT));
+        assertEquals(0L, entity.getLong(Column.FROM_AMOUNT));
+        assertFalse(entity.has(Column.NOTE));
+        assertNull(entity.getString(Column.NOTE));
+
+        // empty and non numeric references are missing values
+        assertFalse(entity.has(Column.PAYEE_ID));
+        assertFalse(entity.has(Column.CATEGORY_ID));
+        assertEquals(0, entity.getInt(Column.CATEGORY_ID));
+    }
+
+    @Test
+    public void keepsEmptyTextValues() throws IOException {
+        FinancistoBackupReader reader = reader("$ENTITY:transactions\n_id:1\nnote:\n$$\n", 65536);
+
+        Entity entity = new Entity();
+        assertTrue(reader.readEntity(entity));
+        assertTrue(entity.has(Column.NOTE));
+        assertEquals("", entity.getString(Column.NOTE));
+    }
+
+    private static FinancistoBackupReader reader(String backup, int bufferSize) {
+        return new FinancistoBackupReader(new ByteArrayInputStream(backup.getBytes(UTF_8)), bufferSize);
+    }
+
+    /**
+     * Returns at most one byte per read, like a slow stream.
+     */
+    private static class OneByteInputStream extends InputStream {
+
+        private final byte[] mBytes;
+        private int mPosition;
+
+        OneByteInputStream(byte[] bytes) {
+            mBytes = bytes;
+        }
+
+        @Override
+        public int read() {
+            return mPosition < mBytes.length ? mBytes[mPosition++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (mPosition >= mBytes.length) {
+                return -1;
+            }
+            if (length == 0) {
+                return 0;
+            }
+            buffer[offset] = mBytes[mPosition++];
+            return 1;
+        }
+    }
+}